@@ -0,0 +1,1180 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stand-alone stress and throughput runs for PharmacyManager.
+// Compile with the main source and run: java PharmacyBenchmarks <name> [args]
+public class PharmacyBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "help";
+        switch (name) {
+            case "dispense-stress" -> dispenseStress(intArg(args, 1, Runtime.getRuntime().availableProcessors()),
+                    intArg(args, 2, 200_000));
+            case "catalogue-stress" -> catalogueStress(intArg(args, 1, 8), intArg(args, 2, 4));
+            case "journal" -> journalThroughput(intArg(args, 1, 16), intArg(args, 2, 500));
+            case "snapshot" -> snapshotStartup(intArg(args, 1, 1_000_000));
+            case "import" -> csvImport(intArg(args, 1, 1_000_000));
+            case "http" -> httpLoad(intArg(args, 1, 64), intArg(args, 2, 2_000));
+            case "line-footprint" -> lineFootprint(intArg(args, 1, 10_000_000));
+            case "inventory-scan" -> inventoryScan(intArg(args, 1, 1_000_000), intArg(args, 2, 50));
+            case "stock-events" -> stockEvents(intArg(args, 1, 4), intArg(args, 2, 100_000));
+            case "delivery" -> delivery(intArg(args, 1, 5_000), intArg(args, 2, 50_000));
+            case "reports" -> parallelReports(intArg(args, 1, 1_000_000), intArg(args, 2, 5));
+            case "report-cache" -> reportCache(intArg(args, 1, 1_000_000), intArg(args, 2, 20_000));
+            case "money" -> moneyAggregation(intArg(args, 1, 1_000_000), intArg(args, 2, 10));
+            case "workload" -> workload(intArg(args, 1, 1_000_000), intArg(args, 2, 10), intArg(args, 3, 4),
+                    args.length > 4 ? args[4] : "70:20:5:5");
+            case "workload-stream" -> workloadStream(Long.parseLong(args.length > 1 ? args[1] : "100000000"));
+            case "render" -> render(intArg(args, 1, 1_000_000), intArg(args, 2, 5));
+            case "name-search" -> nameSearch(intArg(args, 1, 1_000_000), intArg(args, 2, 20_000));
+            case "category-report" -> categoryReport(intArg(args, 1, 1_000_000), intArg(args, 2, 5));
+            case "archive" -> archive(intArg(args, 1, 1_000_000), intArg(args, 2, 200));
+            default -> {
+                System.out.println("Usage: java PharmacyBenchmarks <benchmark> [args]");
+                System.out.println("  dispense-stress [threads] [dispensesPerThread]");
+                System.out.println("  catalogue-stress [threads] [seconds]");
+                System.out.println("  journal [threads] [opsPerThread]");
+                System.out.println("  snapshot [prescriptions]");
+                System.out.println("  import [prescriptionRows]");
+                System.out.println("  http [maxClients] [requestsPerClient]");
+                System.out.println("  line-footprint [lines]");
+                System.out.println("  inventory-scan [medicines] [passes]");
+                System.out.println("  stock-events [threads] [dispensesPerThread]");
+                System.out.println("  delivery [lines] [medicines]");
+                System.out.println("  reports [prescriptions] [passes]");
+                System.out.println("  report-cache [prescriptions] [queries]");
+                System.out.println("  money [prescriptions] [passes]");
+                System.out.println("  workload [prescriptions] [seconds] [threads] [reads:dispenses:restocks:reports]");
+                System.out.println("  workload-stream [prescriptions]");
+                System.out.println("  render [prescriptions] [passes]");
+                System.out.println("  name-search [patients] [queriesPerKind]");
+                System.out.println("  category-report [prescriptions] [passes]");
+                System.out.println("  archive [prescriptions] [queries]");
+            }
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    // Many threads dispense single- and multi-line prescriptions against a small, contended
+    // catalogue. Stock left plus stock dispensed must equal the opening stock for every medicine,
+    // and no medicine may go negative.
+    static void dispenseStress(int threads, int perThread) throws InterruptedException {
+        PharmacyManager manager = new PharmacyManager();
+        manager.addDoctor(new Doctor(1, "Dr. Stress", "General", "000"));
+        manager.addPatient(new Patient(1, "Load Test", 40, "000", "Nowhere"));
+        int medicineCount = 16;
+        int openingStock = threads * perThread / 16;
+        for (int id = 0; id < medicineCount; id++) {
+            manager.addMedicine(new Medicine(id, "Med" + id, "Test", openingStock, 1.0));
+        }
+
+        AtomicInteger nextPrescriptionId = new AtomicInteger();
+        AtomicLong[] dispensed = new AtomicLong[medicineCount];
+        for (int id = 0; id < medicineCount; id++) {
+            dispensed[id] = new AtomicLong();
+        }
+        AtomicLong rejected = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    int lines = random.nextInt(4) == 0 ? 2 + random.nextInt(3) : 1;
+                    int[] ids = new int[lines];
+                    int[] quantities = new int[lines];
+                    for (int l = 0; l < lines; l++) {
+                        ids[l] = random.nextInt(medicineCount);
+                        quantities[l] = 1 + random.nextInt(3);
+                    }
+                    try {
+                        manager.dispensePrescription(nextPrescriptionId.incrementAndGet(), 1, 1, "17/10/2026",
+                                ids, quantities);
+                        for (int l = 0; l < lines; l++) {
+                            dispensed[ids[l]].addAndGet(quantities[l]);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        boolean conserved = true;
+        for (int id = 0; id < medicineCount; id++) {
+            int left = manager.findMedicine(id).getQuantity();
+            if (left < 0 || left + dispensed[id].get() != openingStock
+                    || manager.getPrescribedTotal(id) != dispensed[id].get()) {
+                System.out.println("Stock not conserved for medicine " + id + ": left=" + left
+                        + ", dispensed=" + dispensed[id].get() + ", opening=" + openingStock);
+                conserved = false;
+            }
+        }
+        long attempts = (long) threads * perThread;
+        System.out.printf("dispense-stress: %d threads, %d attempts, %d rejected, %.0f ops/s%n",
+                threads, attempts, rejected.get(), attempts * 1e9 / elapsed);
+        if (!conserved) {
+            throw new IllegalStateException("Stock conservation violated");
+        }
+        System.out.println("Stock conserved for all " + medicineCount + " medicines.");
+
+        // The stock-level index was re-synced concurrently with every reservation; it must list
+        // each medicine exactly once, at its final quantity, in ascending order
+        java.util.ArrayList<Medicine> levels = manager.getInventory().findAtOrBelow(Integer.MAX_VALUE);
+        int previous = Integer.MIN_VALUE;
+        for (Medicine medicine : levels) {
+            if (medicine.getQuantity() < previous) {
+                throw new IllegalStateException("Stock-level index out of order");
+            }
+            previous = medicine.getQuantity();
+        }
+        if (levels.size() != medicineCount
+                || manager.getInventory().findAtOrBelow(openingStock / 2).size()
+                        != manager.getInventory().scanAtOrBelow(openingStock / 2).size()) {
+            throw new IllegalStateException("Stock-level index out of sync");
+        }
+        System.out.println("Stock-level index consistent.");
+    }
+
+    // Half the threads dispense against a fixed set of doctors, patients and medicines while the
+    // other half keep adding and deleting other ones, so the same ID indexes grow, resize and
+    // shift entries back under the dispensers' lookups. Every dispense names entities that exist
+    // throughout, so none may be rejected. Dispense dates move forward one day per 16
+    // prescriptions, so the day partitions keep gaining keys, and every eighth dispense is
+    // preceded by the reads the HTTP API serves alongside it: a sales report over all days so
+    // far, a patient's history and the usage report. None of them may fail either.
+    static void catalogueStress(int threads, int seconds) throws InterruptedException {
+        PharmacyManager manager = new PharmacyManager();
+        int fixed = 64;
+        for (int id = 0; id < fixed; id++) {
+            manager.addDoctor(new Doctor(id, "Dr. " + id, "General", "000"));
+            manager.addPatient(new Patient(id, "Patient " + id, 40, "000", "Nowhere"));
+            manager.addMedicine(new Medicine(id, "Med" + id, "Test", 1_000_000_000, 1.0));
+        }
+        int mutators = Math.max(1, threads / 2);
+        int dispensers = Math.max(1, threads - mutators);
+        AtomicInteger nextPrescriptionId = new AtomicInteger();
+        AtomicLong dispensed = new AtomicLong();
+        AtomicLong changes = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        java.util.concurrent.atomic.AtomicReference<String> firstRejection =
+                new java.util.concurrent.atomic.AtomicReference<>();
+        ReportGenerator reports = new ReportGenerator(manager);
+        java.time.LocalDate firstDay = java.time.LocalDate.of(2026, 1, 1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[mutators + dispensers];
+        for (int t = 0; t < workers.length; t++) {
+            int firstId = (t + 1) * 10_000_000;
+            boolean mutator = t < mutators;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (mutator) {
+                    // Adds one of each per step and deletes the oldest every other step, so the
+                    // indexes keep growing through resizes as well as deleting
+                    int next = firstId;
+                    int oldest = firstId;
+                    for (long step = 0; System.nanoTime() < deadline; step++) {
+                        int id = next++;
+                        manager.addDoctor(new Doctor(id, "Dr. " + id, "General", "000"));
+                        manager.addPatient(new Patient(id, "Patient " + id, 40, "000", "Nowhere"));
+                        manager.addMedicine(new Medicine(id, "Med" + id, "Test", 0, 1.0));
+                        if ((step & 1) == 0) {
+                            manager.deleteDoctor(oldest);
+                            manager.deletePatient(oldest);
+                            manager.deleteMedicine(oldest);
+                            oldest++;
+                        }
+                        changes.incrementAndGet();
+                    }
+                    return;
+                }
+                for (long n = 0; System.nanoTime() < deadline; n++) {
+                    int medicineId = random.nextInt(fixed);
+                    int prescriptionId = nextPrescriptionId.incrementAndGet();
+                    try {
+                        if ((n & 7) == 7) {
+                            manager.getReportCache().clear();
+                            reports.salesBetween(firstDay.toEpochDay(), firstDay.toEpochDay() + (prescriptionId >> 4));
+                            manager.getPrescriptionsByPatient(random.nextInt(fixed));
+                            reports.usageReport();
+                            reads.incrementAndGet();
+                        }
+                        manager.dispensePrescription(prescriptionId, random.nextInt(fixed),
+                                random.nextInt(fixed), firstDay.plusDays(prescriptionId >> 4),
+                                new int[] { medicineId, (medicineId + 1) % fixed }, new int[] { 1, 1 });
+                        dispensed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        rejected.incrementAndGet();
+                        firstRejection.compareAndSet(null, e.toString());
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("catalogue-stress: %d dispensers, %d mutators, %d dispensed, %d reads, %d catalogue steps, "
+                + "%d failed%n", dispensers, mutators, dispensed.get(), reads.get(), changes.get(), rejected.get());
+        if (rejected.get() > 0) {
+            throw new IllegalStateException("Dispense or read failed against live entities: " + firstRejection.get());
+        }
+        System.out.println("No dispense or read failed.");
+    }
+
+    // Durable mutation throughput with an fsync per operation versus group commit,
+    // with every thread adding patients to one journaled manager
+    static void journalThroughput(int threads, int perThread) throws Exception {
+        for (Journal.SyncMode mode : Journal.SyncMode.values()) {
+            Path file = Files.createTempFile("pharmacy-bench", ".journal");
+            PharmacyManager manager = new PharmacyManager(file, mode);
+            AtomicInteger nextId = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        int id = nextId.incrementAndGet();
+                        manager.addPatient(new Patient(id, "Patient " + id, 30, "000", "Street " + id));
+                    }
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            manager.close();
+
+            PharmacyManager replayed = new PharmacyManager(file, mode);
+            int restored = replayed.findPatient(nextId.get()) != null ? nextId.get() : -1;
+            replayed.close();
+            Files.deleteIfExists(file);
+            System.out.printf("journal %-13s %d threads: %.0f ops/s (%d ops, replay %s)%n", mode, threads,
+                    (double) threads * perThread * 1e9 / elapsed, threads * perThread,
+                    restored == nextId.get() ? "ok" : "FAILED");
+        }
+    }
+
+    // Cold start from a snapshot plus a short journal tail, for a store of the given size
+    static void snapshotStartup(int prescriptionCount) throws Exception {
+        Path journal = Files.createTempFile("pharmacy-bench", ".journal");
+        Path snapshot = Files.createTempFile("pharmacy-bench", ".snapshot");
+        Files.delete(snapshot);
+        PharmacyManager seed = new PharmacyManager();
+        populate(seed, prescriptionCount);
+        Snapshot.write(seed, snapshot, 0);
+        seed = null;
+        System.gc();
+
+        long begin = System.nanoTime();
+        PharmacyManager restored = new PharmacyManager(journal, snapshot, Journal.SyncMode.GROUP_COMMIT);
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("snapshot: %d prescriptions, %d MB, loaded in %d ms%n",
+                restored.getPrescriptions().size(), Files.size(snapshot) >> 20, elapsed / 1_000_000);
+        Files.deleteIfExists(journal);
+        Files.deleteIfExists(snapshot);
+    }
+
+    static void populate(PharmacyManager manager, int prescriptionCount) {
+        int medicineCount = 1_000;
+        int doctorCount = 500;
+        int patientCount = Math.max(1, prescriptionCount / 10);
+        for (int id = 0; id < medicineCount; id++) {
+            manager.addMedicine(new Medicine(id, "Medicine " + id, "Category " + (id % 20), 1_000_000, 1.0 + id % 50));
+        }
+        for (int id = 0; id < doctorCount; id++) {
+            manager.addDoctor(new Doctor(id, "Dr. " + id, "General", "000-" + id));
+        }
+        for (int id = 0; id < patientCount; id++) {
+            manager.addPatient(new Patient(id, "Patient " + id, 20 + id % 60, "000-" + id, "Street " + id));
+        }
+        java.util.Random random = new java.util.Random(42);
+        java.time.LocalDate firstDay = java.time.LocalDate.of(2024, 1, 1);
+        for (int id = 0; id < prescriptionCount; id++) {
+            Prescription prescription = new Prescription(id, random.nextInt(doctorCount), random.nextInt(patientCount),
+                    firstDay.plusDays(random.nextInt(730)));
+            int lines = 1 + random.nextInt(3);
+            for (int l = 0; l < lines; l++) {
+                Medicine medicine = manager.findMedicine(random.nextInt(medicineCount));
+                prescription.addLine(medicine.getMedicineId(), 1 + random.nextInt(5), medicine.getPriceSen());
+            }
+            manager.addPrescription(prescription);
+        }
+    }
+
+    // Writes a synthetic CSV data set and bulk-imports it into an in-memory manager
+    static void csvImport(int prescriptionRows) throws Exception {
+        Path dir = Files.createTempDirectory("pharmacy-import");
+        int medicineCount = 1_000;
+        int doctorCount = 500;
+        int patientCount = Math.max(1, prescriptionRows / 10);
+        java.util.Random random = new java.util.Random(7);
+        try (java.io.BufferedWriter out = Files.newBufferedWriter(dir.resolve("medicines.csv"))) {
+            out.write("id,name,category,quantity,price\n");
+            for (int id = 0; id < medicineCount; id++) {
+                out.write(id + ",Medicine " + id + ",Category " + (id % 20) + "," + prescriptionRows * 10 + ","
+                        + (1 + id % 50) + ".50\n");
+            }
+        }
+        try (java.io.BufferedWriter out = Files.newBufferedWriter(dir.resolve("doctors.csv"))) {
+            for (int id = 0; id < doctorCount; id++) {
+                out.write(id + ",Dr. " + id + ",General,000-" + id + "\n");
+            }
+        }
+        try (java.io.BufferedWriter out = Files.newBufferedWriter(dir.resolve("patients.csv"))) {
+            for (int id = 0; id < patientCount; id++) {
+                out.write(id + ",Patient " + id + "," + (20 + id % 60) + ",000-" + id + ",\"" + id + ", Main St\"\n");
+            }
+        }
+        try (java.io.BufferedWriter out = Files.newBufferedWriter(dir.resolve("prescriptions.csv"))) {
+            java.time.LocalDate day = java.time.LocalDate.of(2024, 1, 1);
+            int rows = 0;
+            for (int id = 0; rows < prescriptionRows; id++) {
+                if (id % 1_000 == 0) {
+                    day = day.plusDays(1);
+                }
+                String prefix = id + "," + random.nextInt(doctorCount) + "," + random.nextInt(patientCount) + ","
+                        + day.format(Prescription.DATE_FORMAT) + ",";
+                int lines = 1 + random.nextInt(3);
+                for (int l = 0; l < lines && rows < prescriptionRows; l++, rows++) {
+                    out.write(prefix + random.nextInt(medicineCount) + "," + (1 + random.nextInt(5)) + "\n");
+                }
+            }
+            out.write("bad,row\n");
+        }
+
+        PharmacyManager manager = new PharmacyManager();
+        new BulkImporter(manager).importDirectory(dir);
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    // Drives the HTTP API with a lookup-heavy terminal mix (80% medicine lookups, 15% dispenses,
+    // 5% daily sales reports) at doubling client counts and prints latency percentiles per level
+    static void httpLoad(int maxClients, int perClient) throws Exception {
+        PharmacyManager manager = new PharmacyManager();
+        populate(manager, 100_000);
+        PharmacyHttpServer server = new PharmacyHttpServer(manager, 0);
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicInteger nextPrescriptionId = new AtomicInteger(1_000_000);
+        AtomicLong failures = new AtomicLong();
+        try {
+            for (int clients = 1; clients <= maxClients; clients *= 2) {
+                long[][] latencies = new long[clients][perClient];
+                CountDownLatch start = new CountDownLatch(1);
+                Thread[] workers = new Thread[clients];
+                for (int c = 0; c < clients; c++) {
+                    long[] samples = latencies[c];
+                    workers[c] = new Thread(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        try {
+                            start.await();
+                            for (int i = 0; i < perClient; i++) {
+                                int kind = random.nextInt(100);
+                                HttpRequest request;
+                                if (kind < 80) {
+                                    request = HttpRequest.newBuilder(URI.create(base + "/medicines/"
+                                            + random.nextInt(1_000))).build();
+                                } else if (kind < 95) {
+                                    String body = "{\"prescriptionId\":" + nextPrescriptionId.incrementAndGet()
+                                            + ",\"doctorId\":1,\"patientId\":1,\"date\":\"17/10/2026\","
+                                            + "\"medicineIds\":[" + random.nextInt(1_000) + "],\"quantities\":[1]}";
+                                    request = HttpRequest.newBuilder(URI.create(base + "/prescriptions"))
+                                            .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+                                } else {
+                                    request = HttpRequest.newBuilder(URI.create(base
+                                            + "/reports/sales?from=01/06/2024")).build();
+                                }
+                                long begin = System.nanoTime();
+                                HttpResponse<byte[]> response = client.send(request,
+                                        HttpResponse.BodyHandlers.ofByteArray());
+                                samples[i] = System.nanoTime() - begin;
+                                if (response.statusCode() >= 300) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    });
+                    workers[c].start();
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                long elapsed = System.nanoTime() - begin;
+                long[] all = new long[clients * perClient];
+                for (int c = 0; c < clients; c++) {
+                    System.arraycopy(latencies[c], 0, all, c * perClient, perClient);
+                }
+                Arrays.sort(all);
+                System.out.printf("http: %3d clients, %8.0f req/s, p50 %6.2f ms, p99 %6.2f ms%n", clients,
+                        all.length * 1e9 / elapsed, all[all.length / 2] / 1e6,
+                        all[(int) (all.length * 0.99)] / 1e6);
+            }
+        } finally {
+            server.stop();
+        }
+        if (failures.get() > 0) {
+            System.out.println(failures.get() + " requests failed");
+        }
+    }
+
+    // Retained heap of prescription line items: the old layout (an ArrayList of Medicine copies
+    // per prescription) against the packed lines in Prescription, for the same lines
+    static void lineFootprint(int lineCount) {
+        Medicine[] catalogue = new Medicine[1_000];
+        for (int id = 0; id < catalogue.length; id++) {
+            catalogue[id] = new Medicine(id, "Medicine " + id, "Category " + (id % 20), 1_000, 1.0 + id % 50);
+        }
+        int prescriptionCount = lineCount / 2;
+
+        long before = usedHeap();
+        Object[] copies = new Object[prescriptionCount];
+        java.util.Random random = new java.util.Random(1);
+        for (int p = 0; p < prescriptionCount; p++) {
+            java.util.ArrayList<Medicine> lines = new java.util.ArrayList<>();
+            for (int l = 0; l < 2; l++) {
+                Medicine medicine = catalogue[random.nextInt(catalogue.length)];
+                lines.add(new Medicine(medicine.getMedicineId(), medicine.getName(), medicine.getCategory(),
+                        1 + random.nextInt(5), medicine.getPrice()));
+            }
+            copies[p] = lines;
+        }
+        long copyBytes = usedHeap() - before;
+        java.lang.ref.Reference.reachabilityFence(copies);
+        copies = null;
+
+        before = usedHeap();
+        Prescription[] packed = new Prescription[prescriptionCount];
+        java.time.LocalDate day = java.time.LocalDate.of(2024, 1, 1);
+        random = new java.util.Random(1);
+        for (int p = 0; p < prescriptionCount; p++) {
+            Prescription prescription = new Prescription(p, 0, 0, day);
+            for (int l = 0; l < 2; l++) {
+                Medicine medicine = catalogue[random.nextInt(catalogue.length)];
+                prescription.addLine(medicine.getMedicineId(), 1 + random.nextInt(5), medicine.getPriceSen());
+            }
+            packed[p] = prescription;
+        }
+        long packedBytes = usedHeap() - before;
+        // Prescription objects themselves exist in both layouts; count only their line storage
+        Prescription[] headers = new Prescription[prescriptionCount];
+        before = usedHeap();
+        for (int p = 0; p < prescriptionCount; p++) {
+            headers[p] = new Prescription(p, 0, 0, day);
+        }
+        long headerBytes = usedHeap() - before;
+
+        System.out.printf("line-footprint: %d lines in %d prescriptions%n", 2L * prescriptionCount, prescriptionCount);
+        System.out.printf("  Medicine copies: %,d bytes (%.1f per line)%n", copyBytes,
+                copyBytes / (2.0 * prescriptionCount));
+        System.out.printf("  packed lines:    %,d bytes (%.1f per line)%n", packedBytes - headerBytes,
+                (packedBytes - headerBytes) / (2.0 * prescriptionCount));
+        java.lang.ref.Reference.reachabilityFence(packed);
+        java.lang.ref.Reference.reachabilityFence(headers);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Low-stock queries over a large catalogue: walking heap Medicine objects (the list-backed
+    // InventoryManager), scanning the InventoryStore columns, and the stock-level index
+    static void inventoryScan(int medicineCount, int passes) {
+        PharmacyManager manager = new PharmacyManager();
+        java.util.ArrayList<Medicine> detached = new java.util.ArrayList<>(medicineCount);
+        java.util.Random random = new java.util.Random(3);
+        for (int id = 0; id < medicineCount; id++) {
+            int quantity = random.nextInt(1_000);
+            double price = 1.0 + id % 50;
+            manager.addMedicine(new Medicine(id, "Medicine " + id, "Category " + (id % 20), quantity, price));
+            detached.add(new Medicine(id, "Medicine " + id, "Category " + (id % 20), quantity, price));
+        }
+        // Shuffle the heap objects so they are not laid out in allocation order, as after churn
+        java.util.Collections.shuffle(detached, random);
+        InventoryManager heap = new InventoryManager(detached);
+        InventoryManager columnar = new InventoryManager(manager);
+
+        InventoryStore store = manager.getInventory();
+        for (int warmup = 0; warmup < 5; warmup++) {
+            heap.findLowStock(10);
+            store.scanAtOrBelow(10);
+            columnar.findLowStock(10);
+        }
+        long begin = System.nanoTime();
+        long found = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            found += heap.findLowStock(10).size();
+        }
+        long heapNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        long columnarFound = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            columnarFound += store.scanAtOrBelow(10).size();
+        }
+        long columnarNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        long indexedFound = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            indexedFound += columnar.findLowStock(10).size();
+        }
+        long indexedNanos = System.nanoTime() - begin;
+        if (found != columnarFound || found != indexedFound) {
+            throw new IllegalStateException("Scans disagree: " + found + ", " + columnarFound + ", " + indexedFound);
+        }
+        System.out.printf("inventory-scan: %d medicines, %d matches per pass%n", medicineCount, found / passes);
+        System.out.printf("  heap objects: %.2f ms per scan%n", heapNanos / 1e6 / passes);
+        System.out.printf("  column scan:  %.2f ms per scan%n", columnarNanos / 1e6 / passes);
+        System.out.printf("  level index:  %.2f ms per query%n", indexedNanos / 1e6 / passes);
+    }
+
+    // Dispensing throughput with no subscribers, with a fast counting subscriber, and with a
+    // subscriber that sleeps on every event; the last must not slow dispensers down (events
+    // beyond the ring capacity are dropped and counted instead)
+    static void stockEvents(int threads, int perThread) throws InterruptedException {
+        // The first round only warms up the JIT
+        for (String mode : new String[] { "warmup", "none", "counting", "slow" }) {
+            PharmacyManager manager = new PharmacyManager();
+            manager.addDoctor(new Doctor(1, "Dr. Events", "General", "000"));
+            manager.addPatient(new Patient(1, "Load Test", 40, "000", "Nowhere"));
+            int medicineCount = 64;
+            // About half of each medicine's stock is dispensed, crossing the alert threshold once
+            int openingStock = 2 * threads * perThread / medicineCount;
+            for (int id = 0; id < medicineCount; id++) {
+                manager.addMedicine(new Medicine(id, "Med" + id, "Category " + (id % 4), openingStock, 1.0));
+            }
+            AtomicLong delivered = new AtomicLong();
+            AtomicLong alerts = new AtomicLong();
+            StockEventStream events = manager.getStockEvents();
+            if (mode.equals("counting")) {
+                events.subscribe(event -> delivered.incrementAndGet());
+                events.onLowStockInCategory("Category 0", openingStock * 2 / 3, event -> alerts.incrementAndGet());
+            } else if (mode.equals("slow")) {
+                events.subscribe(event -> {
+                    delivered.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            AtomicInteger nextPrescriptionId = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        manager.dispensePrescription(nextPrescriptionId.incrementAndGet(), 1, 1, "17/10/2026",
+                                new int[] { random.nextInt(medicineCount) }, new int[] { 1 });
+                    }
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            manager.close();
+            if (mode.equals("warmup")) {
+                continue;
+            }
+            System.out.printf("stock-events %-8s: %.0f dispenses/s, %d delivered, %d dropped, %d category alerts%n",
+                    mode, (double) threads * perThread * 1e9 / elapsed, delivered.get(), events.getDroppedEvents(),
+                    alerts.get());
+        }
+    }
+
+    // A supplier delivery booked into a journaled manager line by line through
+    // InventoryManager.updateStock, then as one receiveDelivery batch; final stock must match
+    static void delivery(int lines, int medicineCount) throws Exception {
+        int[] medicineIds = new int[lines];
+        int[] quantities = new int[lines];
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < lines; i++) {
+            medicineIds[i] = random.nextInt(medicineCount);
+            quantities[i] = 1 + random.nextInt(100);
+        }
+        long[] elapsed = new long[2];
+        long[] stockTotals = new long[2];
+        for (int mode = 0; mode < 2; mode++) {
+            Path file = Files.createTempFile("pharmacy-delivery", ".journal");
+            PharmacyManager manager = new PharmacyManager(file);
+            for (int id = 0; id < medicineCount; id++) {
+                manager.addMedicine(new Medicine(id, "Medicine " + id, "Category " + (id % 20), 0, 1.0));
+            }
+            InventoryManager inventory = manager.getInventoryManager();
+            long begin = System.nanoTime();
+            if (mode == 0) {
+                // updateStock reports each line on stdout; keep that out of the measurement
+                java.io.PrintStream console = System.out;
+                System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+                try {
+                    for (int i = 0; i < lines; i++) {
+                        inventory.updateStock(medicineIds[i], quantities[i]);
+                    }
+                } finally {
+                    System.setOut(console);
+                }
+            } else {
+                inventory.receiveDelivery(medicineIds, quantities);
+            }
+            elapsed[mode] = System.nanoTime() - begin;
+            for (Medicine medicine : manager.getMedicines()) {
+                stockTotals[mode] += medicine.getQuantity();
+            }
+            manager.close();
+            Files.delete(file);
+        }
+        if (stockTotals[0] != stockTotals[1]) {
+            throw new IllegalStateException("Delivery totals differ: " + stockTotals[0] + " vs " + stockTotals[1]);
+        }
+        // Two lines that only overflow the stock together must both be refused
+        PharmacyManager overflow = new PharmacyManager();
+        overflow.addMedicine(new Medicine(1, "Medicine 1", "Category 1", 10, 1.0));
+        for (InventoryManager.RestockResult line : overflow.getInventoryManager()
+                .receiveDelivery(new int[] { 1, 1 }, new int[] { 2_000_000_000, 2_000_000_000 })) {
+            if (line.isApplied()) {
+                throw new IllegalStateException("Overflowing delivery line applied: " + line);
+            }
+        }
+        if (overflow.findMedicine(1).getQuantity() != 10) {
+            throw new IllegalStateException("Overflowing delivery changed stock to "
+                    + overflow.findMedicine(1).getQuantity());
+        }
+        System.out.printf("delivery: %d lines over %d medicines%n", lines, medicineCount);
+        System.out.printf("  updateStock loop: %.1f ms%n", elapsed[0] / 1e6);
+        System.out.printf("  receiveDelivery:  %.1f ms%n", elapsed[1] / 1e6);
+    }
+
+    // Full-history sales and usage aggregation, sequential against fork/join. Both modes must
+    // agree exactly, and usage must match the manager's running totals.
+    static void parallelReports(int prescriptionCount, int passes) {
+        PharmacyManager manager = new PharmacyManager();
+        populate(manager, prescriptionCount);
+        ReportGenerator reports = new ReportGenerator(manager);
+        long fromDay = Long.MIN_VALUE;
+        long toDay = Long.MAX_VALUE;
+
+        ReportEngine.Totals[] results = new ReportEngine.Totals[2];
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        ReportEngine.Mode[] modes = { ReportEngine.Mode.SEQUENTIAL, ReportEngine.Mode.PARALLEL };
+        for (int pass = 0; pass <= passes; pass++) {
+            for (int m = 0; m < modes.length; m++) {
+                reports.setMode(modes[m]);
+                long begin = System.nanoTime();
+                results[m] = reports.totalsBetween(fromDay, toDay);
+                long elapsed = System.nanoTime() - begin;
+                // Pass 0 warms up the JIT and is not counted
+                if (pass > 0) {
+                    best[m] = Math.min(best[m], elapsed);
+                }
+            }
+        }
+        ReportEngine.Totals sequential = results[0];
+        ReportEngine.Totals parallel = results[1];
+        if (sequential.getPrescriptions() != parallel.getPrescriptions()
+                || sequential.getSalesSen() != parallel.getSalesSen()) {
+            throw new IllegalStateException("Sequential and parallel totals differ");
+        }
+        for (Medicine medicine : manager.getMedicines()) {
+            int id = medicine.getMedicineId();
+            if (sequential.getUsage(id) != parallel.getUsage(id)
+                    || parallel.getUsage(id) != manager.getPrescribedTotal(id)) {
+                throw new IllegalStateException("Usage differs for medicine " + id);
+            }
+        }
+        System.out.printf("reports: %d prescriptions, sales RM%.2f, %d cores%n", sequential.getPrescriptions(),
+                sequential.getSales(), Runtime.getRuntime().availableProcessors());
+        System.out.printf("  sequential: %.1f ms%n", best[0] / 1e6);
+        System.out.printf("  parallel:   %.1f ms (%.2fx)%n", best[1] / 1e6, (double) best[0] / best[1]);
+    }
+
+    // The category report from the running totals and as the full rescan a ReportGenerator
+    // built from plain lists falls back to; the two must agree line for line
+    static void categoryReport(int prescriptionCount, int passes) {
+        PharmacyManager manager = new PharmacyManager();
+        populate(manager, prescriptionCount);
+        ReportGenerator rollups = new ReportGenerator(manager);
+        ReportGenerator rescan = new ReportGenerator(manager.getPrescriptions(), manager.getMedicines());
+        long bestRollups = Long.MAX_VALUE;
+        long bestRescan = Long.MAX_VALUE;
+        java.util.List<ReportGenerator.CategoryLine> fromRollups = null;
+        java.util.List<ReportGenerator.CategoryLine> fromRescan = null;
+        for (int pass = 0; pass <= passes; pass++) {
+            long begin = System.nanoTime();
+            fromRollups = rollups.categoryReport();
+            long middle = System.nanoTime();
+            fromRescan = rescan.categoryReport();
+            long end = System.nanoTime();
+            // Pass 0 warms up the JIT and is not counted
+            if (pass > 0) {
+                bestRollups = Math.min(bestRollups, middle - begin);
+                bestRescan = Math.min(bestRescan, end - middle);
+            }
+        }
+        if (fromRollups.size() != fromRescan.size()) {
+            throw new IllegalStateException("Category reports differ in length");
+        }
+        long salesSen = 0;
+        for (int i = 0; i < fromRollups.size(); i++) {
+            ReportGenerator.CategoryLine a = fromRollups.get(i);
+            ReportGenerator.CategoryLine b = fromRescan.get(i);
+            if (!a.getCategory().equals(b.getCategory()) || a.getMedicines() != b.getMedicines()
+                    || a.getStockUnits() != b.getStockUnits() || a.getUnitsSold() != b.getUnitsSold()
+                    || a.getSalesSen() != b.getSalesSen()) {
+                throw new IllegalStateException("Category " + a.getCategory() + " differs");
+            }
+            salesSen += a.getSalesSen();
+        }
+        System.out.printf("category-report: %d prescriptions, %d categories, sales %s%n", prescriptionCount,
+                fromRollups.size(), Money.format(salesSen));
+        System.out.printf("  running totals: %.1f us%n", bestRollups / 1e3);
+        System.out.printf("  rescan:         %.1f ms (%.0fx)%n", bestRescan / 1e6, (double) bestRescan / bestRollups);
+    }
+
+    // Two years of history, then everything before the last six months moved to the archive.
+    // Reports the live heap, the archive's size on disk and query latencies with all history
+    // live and after archiving: sales for a recent day, sales for an archived day (only its blocks
+    // decoded), a patient's history, a lookup by prescription ID, and adding a prescription,
+    // whose duplicate-ID check must not get slower as the archive grows.
+    static void archive(int prescriptionCount, int queries) throws Exception {
+        PharmacyManager manager = new PharmacyManager();
+        populate(manager, prescriptionCount);
+        int patientCount = Math.max(1, prescriptionCount / 10);
+        long firstDay = java.time.LocalDate.of(2024, 1, 1).toEpochDay();
+        java.time.LocalDate cutoff = java.time.LocalDate.of(2025, 7, 1);
+        long heapBefore = usedHeap();
+        archiveQueries(manager, "all live", queries, firstDay, cutoff.toEpochDay(), patientCount, prescriptionCount);
+
+        Path dir = Files.createTempDirectory("pharmacy-archive");
+        manager.openArchive(dir);
+        long begin = System.nanoTime();
+        int moved = manager.archivePrescriptionsBefore(cutoff);
+        long elapsed = System.nanoTime() - begin;
+        long heapAfter = usedHeap();
+        PrescriptionArchive archive = manager.getArchive();
+        System.out.printf("archive: %d of %d prescriptions moved in %d ms to %d segments, %.1f MB on disk (%.1f B each)%n",
+                moved, prescriptionCount, elapsed / 1_000_000, archive.getSegmentCount(), archive.getBytes() / 1e6,
+                (double) archive.getBytes() / moved);
+        System.out.printf("  heap in use: %d MB before, %d MB after%n", heapBefore >> 20, heapAfter >> 20);
+        archiveQueries(manager, "archived", queries, firstDay, cutoff.toEpochDay(), patientCount, prescriptionCount);
+        manager.close();
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void archiveQueries(PharmacyManager manager, String label, int queries, long firstDay,
+            long cutoffDay, int patientCount, int prescriptionCount) {
+        ReportGenerator reports = new ReportGenerator(manager);
+        PrescriptionArchive archive = manager.getArchive();
+        String[] kinds = { "recent day sales", "old day sales", "patient history", "find by ID",
+                "add prescription" };
+        // New IDs above every existing one, different for the two runs
+        int nextId = prescriptionCount + (archive == null ? 0 : 2 * kinds.length * queries);
+        java.util.SplittableRandom random = new java.util.SplittableRandom(25);
+        for (int round = 0; round < 2; round++) {
+            for (int kind = 0; kind < kinds.length; kind++) {
+                LatencyHistogram latency = new LatencyHistogram(1);
+                long readsBefore = archive == null ? 0 : archive.getBlockReads();
+                for (int q = 0; q < queries; q++) {
+                    long day = kind == 0 ? cutoffDay + random.nextInt(180) : firstDay + random.nextInt(547);
+                    int patientId = random.nextInt(patientCount);
+                    int prescriptionId = random.nextInt(prescriptionCount);
+                    manager.getReportCache().clear();
+                    long start = System.nanoTime();
+                    switch (kind) {
+                        case 0, 1 -> reports.salesBetween(day, day);
+                        case 2 -> manager.getPrescriptionsByPatient(patientId);
+                        case 3 -> manager.findPrescription(prescriptionId);
+                        default -> {
+                            Prescription added = new Prescription(nextId++, 0, patientId,
+                                    java.time.LocalDate.ofEpochDay(cutoffDay));
+                            added.addLine(0, 1, 100);
+                            manager.addPrescription(added);
+                        }
+                    }
+                    latency.record(System.nanoTime() - start);
+                }
+                if (round == 1) {
+                    LatencyHistogram.Snapshot snapshot = latency.snapshot();
+                    System.out.printf("  %-8s %-16s p50 %8.1f us   p99 %8.1f us   blocks read %d%n", label,
+                            kinds[kind], snapshot.getPercentile(50) / 1e3, snapshot.getPercentile(99) / 1e3,
+                            archive == null ? 0 : archive.getBlockReads() - readsBefore);
+                }
+            }
+        }
+    }
+
+    // A day of repeated report requests: daily sales for the last 30 days, the current month and
+    // the usage report, with a dispense dated today after every 20th request. Run once with the
+    // cache cleared before every request and once with it left in place.
+    static void reportCache(int prescriptionCount, int queries) {
+        PharmacyManager manager = new PharmacyManager();
+        populate(manager, prescriptionCount);
+        long today = java.time.LocalDate.of(2025, 12, 31).toEpochDay();
+        ReportGenerator reports = new ReportGenerator(manager);
+        ReportCache cache = manager.getReportCache();
+        AtomicInteger nextPrescriptionId = new AtomicInteger(prescriptionCount);
+        for (boolean cached : new boolean[] { false, true }) {
+            cache.clear();
+            long hitsBefore = cache.getHits();
+            long missesBefore = cache.getMisses();
+            java.util.Random random = new java.util.Random(5);
+            long begin = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                if (!cached) {
+                    cache.clear();
+                }
+                int kind = random.nextInt(10);
+                if (kind < 8) {
+                    long day = today - random.nextInt(30);
+                    reports.salesBetween(day, day);
+                } else if (kind < 9) {
+                    reports.salesBetween(today - 30, today);
+                } else {
+                    reports.usageReport();
+                }
+                if (q % 20 == 19) {
+                    manager.dispensePrescription(nextPrescriptionId.incrementAndGet(), 0, 0,
+                            java.time.LocalDate.ofEpochDay(today), new int[] { random.nextInt(1_000) },
+                            new int[] { 1 });
+                }
+            }
+            long elapsed = System.nanoTime() - begin;
+            System.out.printf("report-cache %-8s: %d requests in %.1f ms, %d hits, %d misses%n",
+                    cached ? "cached" : "uncached", queries, elapsed / 1e6, cache.getHits() - hitsBefore,
+                    cache.getMisses() - missesBefore);
+        }
+    }
+
+    // Sales totals over a history with arbitrary cent prices: the double loop the reports used
+    // before prices were stored in sen, against the sen engine with and without per-medicine
+    // sums. The per-medicine revenue must add up to the sales total exactly.
+    static void moneyAggregation(int prescriptionCount, int passes) {
+        int medicineCount = 1_000;
+        java.util.ArrayList<Prescription> history = new java.util.ArrayList<>(prescriptionCount);
+        java.util.Random random = new java.util.Random(18);
+        java.time.LocalDate day = java.time.LocalDate.of(2025, 1, 1);
+        for (int id = 0; id < prescriptionCount; id++) {
+            Prescription prescription = new Prescription(id, 0, 0, day);
+            int lines = 1 + random.nextInt(3);
+            for (int l = 0; l < lines; l++) {
+                prescription.addLine(random.nextInt(medicineCount), 1 + random.nextInt(5), 1 + random.nextInt(20_000));
+            }
+            history.add(prescription);
+        }
+        java.util.List<java.util.List<Prescription>> partitions = java.util.List.of(history);
+        long fromDay = day.toEpochDay();
+        long toDay = day.toEpochDay();
+
+        double doubleTotal = 0;
+        ReportEngine.Totals sales = null;
+        ReportEngine.Totals detailed = null;
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int pass = 0; pass <= passes; pass++) {
+            long begin = System.nanoTime();
+            doubleTotal = 0;
+            for (Prescription prescription : history) {
+                long epochDay = prescription.getEpochDay();
+                if (epochDay < fromDay || epochDay > toDay) {
+                    continue;
+                }
+                for (int line = 0; line < prescription.getLineCount(); line++) {
+                    doubleTotal += prescription.getLinePrice(line) * prescription.getLineQuantity(line);
+                }
+            }
+            long t1 = System.nanoTime();
+            sales = ReportEngine.aggregate(partitions, fromDay, toDay, false,
+                    ReportEngine.Mode.SEQUENTIAL);
+            long t2 = System.nanoTime();
+            detailed = ReportEngine.aggregate(partitions, fromDay, toDay, true,
+                    ReportEngine.Mode.SEQUENTIAL);
+            long t3 = System.nanoTime();
+            // Pass 0 warms up the JIT and is not counted
+            if (pass > 0) {
+                best[0] = Math.min(best[0], t1 - begin);
+                best[1] = Math.min(best[1], t2 - t1);
+                best[2] = Math.min(best[2], t3 - t2);
+            }
+        }
+        long revenueSen = 0;
+        for (int id = 0; id < medicineCount; id++) {
+            revenueSen += detailed.getRevenueSen(id);
+        }
+        if (sales.getSalesSen() != detailed.getSalesSen() || revenueSen != detailed.getSalesSen()) {
+            throw new IllegalStateException("Sen totals disagree");
+        }
+        System.out.printf("money: %d prescriptions, exact sales %s, double loop %.6f (off by %d sen)%n",
+                prescriptionCount, Money.format(sales.getSalesSen()), doubleTotal,
+                Math.round(doubleTotal * 100) - sales.getSalesSen());
+        System.out.printf("  double loop:            %.1f ms%n", best[0] / 1e6);
+        System.out.printf("  sen, sales only:        %.1f ms%n", best[1] / 1e6);
+        System.out.printf("  sen, with per-medicine: %.1f ms%n", best[2] / 1e6);
+    }
+
+    // Loads a generated history, then replays a timed mix of reads, dispenses, restocks and reports
+    static void workload(int prescriptionCount, int seconds, int threads, String mix) {
+        WorkloadGenerator generator = WorkloadGenerator.scaled(20, prescriptionCount);
+        PharmacyManager manager = new PharmacyManager();
+        long begin = System.nanoTime();
+        generator.populate(manager);
+        System.out.printf("workload: %d prescriptions, %d patients, %d doctors, %d medicines loaded in %d ms%n",
+                prescriptionCount, generator.getPatientCount(), generator.getDoctorCount(),
+                generator.getMedicineCount(), (System.nanoTime() - begin) / 1_000_000);
+        WorkloadReplay.Result result = new WorkloadReplay(manager, generator).run(threads, seconds,
+                java.util.concurrent.TimeUnit.SECONDS, WorkloadReplay.Mix.parse(mix));
+        System.out.println("  " + threads + " threads, mix " + mix + ": " + result);
+        manager.close();
+    }
+
+    // Streams generated prescriptions without keeping them, tracking heap use and line totals
+    static void workloadStream(long prescriptionCount) {
+        WorkloadGenerator generator = WorkloadGenerator.scaled(20, prescriptionCount);
+        long[] lines = new long[1];
+        long[] topMedicineLines = new long[1];
+        long[] peakHeap = new long[1];
+        Runtime runtime = Runtime.getRuntime();
+        long begin = System.nanoTime();
+        long produced = generator.forEachPrescription(prescription -> {
+            lines[0] += prescription.getLineCount();
+            for (int l = 0; l < prescription.getLineCount(); l++) {
+                if (prescription.getLineMedicineId(l) == 0) {
+                    topMedicineLines[0]++;
+                }
+            }
+            if ((prescription.getPrescriptionId() & 0xFFFFF) == 0) {
+                peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+            }
+        });
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("workload-stream: %d prescriptions, %d lines in %.1f s (%.0f prescriptions/s)%n",
+                produced, lines[0], elapsed / 1e9, produced * 1e9 / elapsed);
+        System.out.printf("  most popular medicine on %.1f%% of lines; peak heap %d MB (max %d MB)%n",
+                100.0 * topMedicineLines[0] / lines[0], peakHeap[0] >> 20, runtime.maxMemory() >> 20);
+    }
+
+    // Displaying every prescription: println(toString()) per entity, as the display screens did,
+    // against the page renderer, both into a discarding stream so only formatting and writing count
+    static void render(int prescriptionCount, int passes) {
+        PharmacyManager manager = new PharmacyManager();
+        WorkloadGenerator.scaled(22, prescriptionCount).populate(manager);
+        java.util.ArrayList<Prescription> prescriptions = manager.getPrescriptions();
+        CountingStream printed = new CountingStream();
+        CountingStream rendered = new CountingStream();
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int pass = 0; pass <= passes; pass++) {
+            printed.count = 0;
+            rendered.count = 0;
+            long begin = System.nanoTime();
+            java.io.PrintStream out = new java.io.PrintStream(printed, true);
+            for (Prescription prescription : prescriptions) {
+                out.println(prescription);
+            }
+            long t1 = System.nanoTime();
+            EntityRenderer renderer = new EntityRenderer(new java.io.BufferedWriter(
+                    new java.io.OutputStreamWriter(rendered), 64 * 1024), true);
+            for (int cursor = 0; cursor != EntityRenderer.END;) {
+                cursor = renderer.page(prescriptions, cursor, EntityRenderer.DEFAULT_PAGE_SIZE,
+                        EntityRenderer::prescription);
+            }
+            long t2 = System.nanoTime();
+            // Pass 0 warms up the JIT and is not counted
+            if (pass > 0) {
+                best[0] = Math.min(best[0], t1 - begin);
+                best[1] = Math.min(best[1], t2 - t1);
+            }
+        }
+        System.out.printf("render: %d prescriptions, %d MB of text%n", prescriptions.size(), rendered.count >> 20);
+        System.out.printf("  println(toString): %d ms%n", best[0] / 1_000_000);
+        System.out.printf("  renderer, %d-row pages: %d ms (%.1fx)%n", EntityRenderer.DEFAULT_PAGE_SIZE,
+                best[1] / 1_000_000, (double) best[0] / best[1]);
+        if (printed.count != rendered.count) {
+            System.out.println("  output sizes differ: " + printed.count + " vs " + rendered.count);
+        }
+        manager.close();
+    }
+
+    // Top-10 name searches over a patient register. Words are drawn from a 30,000-word vocabulary
+    // with a skewed (log-uniform) frequency, so a few surnames are very common, as in a real
+    // register. Each query kind runs twice; the second round is reported. Deleted patients
+    // must never come back, and a plain scan over the names shows what the index saves.
+    static void nameSearch(int patientCount, int queries) {
+        java.util.SplittableRandom random = new java.util.SplittableRandom(23);
+        String[] syllables = { "ka", "lo", "mi", "ra", "ten", "su", "an", "bel", "dor", "fi", "gan", "ha", "jo",
+                "kel", "lin", "mar", "nu", "or", "pe", "qui", "ros", "sa", "tor", "ul", "va", "wen", "xi", "ya",
+                "zen", "chi" };
+        java.util.LinkedHashSet<String> words = new java.util.LinkedHashSet<>();
+        while (words.size() < 30_000) {
+            StringBuilder word = new StringBuilder();
+            for (int i = 2 + random.nextInt(3); i > 0; i--) {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            words.add(word.toString());
+        }
+        String[] vocabulary = words.toArray(new String[0]);
+        PharmacyManager manager = new PharmacyManager();
+        String[] names = new String[patientCount];
+        long begin = System.nanoTime();
+        for (int id = 0; id < patientCount; id++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 2 + random.nextInt(2); i > 0; i--) {
+                name.append(name.length() == 0 ? "" : " ")
+                        .append(vocabulary[(int) Math.pow(vocabulary.length, random.nextDouble()) - 1]);
+            }
+            names[id] = name.toString();
+            manager.addPatient(new Patient(id, names[id], 30, "000", "Nowhere"));
+        }
+        System.out.printf("name-search: %d patients registered and indexed in %d ms%n", patientCount,
+                (System.nanoTime() - begin) / 1_000_000);
+        for (int id = 0; id < patientCount; id += 100) {
+            manager.deletePatient(id);
+        }
+
+        String[] kinds = { "3-letter prefix", "exact word", "one typo", "word + prefix", "two typos" };
+        for (int round = 0; round < 2; round++) {
+            for (int kind = 0; kind < kinds.length; kind++) {
+                LatencyHistogram latency = new LatencyHistogram(1);
+                for (int q = 0; q < queries; q++) {
+                    String[] parts = names[random.nextInt(patientCount)].split(" ");
+                    String query = switch (kind) {
+                        case 0 -> parts[0].substring(0, 3);
+                        case 1 -> parts[1];
+                        case 2 -> typo(random, parts[0]);
+                        case 3 -> parts[0] + " " + parts[1].substring(0, 2);
+                        default -> typo(random, parts[0]) + " " + typo(random, parts[1]);
+                    };
+                    long start = System.nanoTime();
+                    java.util.ArrayList<Patient> found = manager.searchPatientsByName(query, 10);
+                    latency.record(System.nanoTime() - start);
+                    for (Patient patient : found) {
+                        if (patient.getPatientId() % 100 == 0) {
+                            throw new IllegalStateException("Deleted patient " + patient.getPatientId() + " found");
+                        }
+                    }
+                }
+                if (round == 1) {
+                    LatencyHistogram.Snapshot snapshot = latency.snapshot();
+                    System.out.printf("  %-16s p50 %7.1f us   p99 %7.1f us   max %8.1f us%n", kinds[kind],
+                            snapshot.getPercentile(50) / 1e3, snapshot.getPercentile(99) / 1e3,
+                            snapshot.getMax() / 1e3);
+                }
+            }
+        }
+
+        long scanBegin = System.nanoTime();
+        int scans = 20;
+        int matches = 0;
+        for (int q = 0; q < scans; q++) {
+            String word = names[random.nextInt(patientCount)].split(" ")[1].toLowerCase();
+            for (Patient patient : manager.getPatients()) {
+                if (patient.getName().toLowerCase().contains(word)) {
+                    matches++;
+                }
+            }
+        }
+        System.out.printf("  plain scan over every name (substring only): %.1f us per query, %d matches%n",
+                (System.nanoTime() - scanBegin) / 1e3 / scans, matches);
+        manager.close();
+    }
+
+    // One substitution, deletion or adjacent swap
+    private static String typo(java.util.SplittableRandom random, String word) {
+        char[] chars = word.toCharArray();
+        int i = random.nextInt(chars.length - 1);
+        switch (random.nextInt(3)) {
+            case 0 -> chars[i] = (char) ('a' + random.nextInt(26));
+            case 1 -> {
+                return word.substring(0, i) + word.substring(i + 1);
+            }
+            default -> {
+                char swapped = chars[i];
+                chars[i] = chars[i + 1];
+                chars[i + 1] = swapped;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static class CountingStream extends java.io.OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
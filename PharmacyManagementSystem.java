@@ -1,25 +1,148 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+
+class Money {
+    // Amounts are held as long sen (1/100 ringgit) so that sums are exact; doubles appear only
+    // where prices enter (user input, imports) or leave for display
+    private Money() {
+    }
+
+    // Nearest sen to an amount in ringgit
+    static long toSen(double ringgit) {
+        return Math.round(ringgit * 100);
+    }
+
+    static double toRinggit(long sen) {
+        return sen / 100.0;
+    }
 
+    // "RM12.30" straight from the integer amount
+    static String format(long sen) {
+        long abs = Math.abs(sen);
+        long cents = abs % 100;
+        return (sen < 0 ? "-RM" : "RM") + abs / 100 + (cents < 10 ? ".0" : ".") + cents;
+    }
+}
 
 class Medicine {
     public static final String ORANGE = "\u001B[38;5;214m"; 
+    public static final String RED = "\u001B[31m";
     private final int medicineId;
     private final String name;
-    private final String category;
-    private int quantity;
-    private double price;
+    private String category;
+    private volatile int quantity;
+    private long priceSen;
+    // While registered with a PharmacyManager, quantity and price live in its InventoryStore
+    // slot and the two fields above are unused. The slot also holds the category's dictionary
+    // code, and category is swapped for the dictionary's shared copy of the name.
+    private volatile InventoryStore store;
+    // The slot in the low half, the store's ownership stamp for this attach in the high half
+    private volatile long binding;
+
+    // Stock is reserved and released with CAS so concurrent dispensers never oversell
+    private static final VarHandle QUANTITY;
+    // Left in quantity by an attach that is moving the stock into its store; changes wait for
+    // the binding and go to the slot
+    private static final int MOVED = Integer.MIN_VALUE;
+
+    static {
+        try {
+            QUANTITY = MethodHandles.lookup().findVarHandle(Medicine.class, "quantity", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public Medicine(int medicineId, String name, String category, int quantity, double price) {
         this.medicineId = medicineId;
         this.name = name;
         this.category = category;
         this.quantity = quantity;
-        this.price = price;
+        this.priceSen = Money.toSen(price);
     }
 
     // Getters and setters
@@ -35,26 +158,158 @@ class Medicine {
         return category;
     }
 
+    // The category's CategoryDictionary code, or -1 while not registered
+    int getCategoryCode() {
+        InventoryStore bound = store;
+        return bound != null ? bound.categoryCode((int) binding) : -1;
+    }
+
     public int getQuantity() {
-        return quantity;
+        while (true) {
+            InventoryStore bound = store;
+            if (bound != null) {
+                return bound.quantity((int) binding);
+            }
+            int current = quantity;
+            if (current != MOVED) {
+                return current;
+            }
+            Thread.onSpinWait();
+        }
     }
 
     public double getPrice() {
-        return price;
+        return Money.toRinggit(getPriceSen());
+    }
+
+    public long getPriceSen() {
+        InventoryStore bound = store;
+        return bound != null ? bound.priceSen((int) binding) : priceSen;
     }
 
+    // The store refuses a change (DETACHED) once the medicine has left its slot, even if this
+    // call read the binding before it did; the change then goes to the fields here, or to the
+    // next binding, once the detach has copied the slot back
     public void setQuantity(int quantity) {
-        this.quantity = quantity;
+        while (true) {
+            InventoryStore bound = store;
+            if (bound != null) {
+                long seen = binding;
+                if (bound.setQuantity(this, seen, quantity)) {
+                    return;
+                }
+                awaitUnbind(bound, seen);
+                continue;
+            }
+            int current = this.quantity;
+            if (current == MOVED) {
+                Thread.onSpinWait();
+            } else if (QUANTITY.compareAndSet(this, current, quantity)) {
+                return;
+            }
+        }
+    }
+
+    // Atomically takes amount from stock; fails without side effects if there is not enough
+    public boolean tryReserve(int amount) {
+        while (true) {
+            InventoryStore bound = store;
+            if (bound != null) {
+                long seen = binding;
+                int reserved = bound.tryReserve(this, seen, amount);
+                if (reserved != InventoryStore.DETACHED) {
+                    return reserved > 0;
+                }
+                awaitUnbind(bound, seen);
+                continue;
+            }
+            int current = quantity;
+            if (current == MOVED) {
+                Thread.onSpinWait();
+            } else if (current < amount) {
+                return false;
+            } else if (QUANTITY.compareAndSet(this, current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    // Atomically adds delta (positive for restock/release) and returns the new quantity
+    public int addQuantity(int delta) {
+        while (true) {
+            InventoryStore bound = store;
+            if (bound != null) {
+                long seen = binding;
+                int updated = bound.addQuantity(this, seen, delta);
+                if (updated != InventoryStore.DETACHED) {
+                    return updated;
+                }
+                awaitUnbind(bound, seen);
+                continue;
+            }
+            int current = quantity;
+            if (current == MOVED) {
+                Thread.onSpinWait();
+            } else if (QUANTITY.compareAndSet(this, current, current + delta)) {
+                return current + delta;
+            }
+        }
     }
 
     public void setPrice(double price) {
-        this.price = price;
+        setPriceSen(Money.toSen(price));
+    }
+
+    public void setPriceSen(long priceSen) {
+        for (InventoryStore bound = store; bound != null; bound = store) {
+            long seen = binding;
+            if (bound.setPriceSen(seen, priceSen)) {
+                return;
+            }
+            awaitUnbind(bound, seen);
+        }
+        this.priceSen = priceSen;
+    }
+
+    // A refused change means a detach is under way; it ends with unbind, which moves the
+    // binding on in a few instructions
+    private void awaitUnbind(InventoryStore bound, long seen) {
+        while (store == bound && binding == seen) {
+            Thread.onSpinWait();
+        }
+    }
+
+    // Takes the stock for an attach, leaving MOVED until bind publishes the slot holding it
+    int moveQuantity() {
+        int current = store == null ? (int) QUANTITY.getAndSet(this, MOVED) : MOVED;
+        if (current == MOVED) {
+            throw new IllegalArgumentException(RED + "Medicine " + medicineId + " is already registered");
+        }
+        return current;
+    }
+
+    void bind(InventoryStore target, long targetBinding) {
+        binding = targetBinding;
+        category = target.category((int) targetBinding);
+        store = target;
+    }
+
+    // The binding held in target (slot in the low half), or -1 if not registered there
+    long bindingIn(InventoryStore target) {
+        return store == target ? binding : -1;
+    }
+
+    // Takes the slot's final stock and price back onto this object
+    void unbind(int finalQuantity, long finalPriceSen) {
+        quantity = finalQuantity;
+        priceSen = finalPriceSen;
+        store = null;
     }
 
     @Override
     public String toString() {
         return String.format(ORANGE + "Medicine ID: %d, Name: %s, Category: %s, Quantity: %d, Price: RM%.2f",
-                medicineId, name, category, quantity, price);
+                medicineId, name, category, getQuantity(), getPrice());
     }
 }
 
@@ -62,23 +317,38 @@ class Prescription {
     public static final String RED = "\u001B[31m";
     public static final String BRIGHT_PURPLE = "\u001B[95m";
     public static final String ORANGE = "\u001B[38;5;214m"; 
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
     private int prescriptionId;
     private int doctorId;
     private int patientId;
     private LocalDate date;
-    private ArrayList<Medicine> medicines;
+    // Line items packed two longs per line: (medicineId << 32 | quantity), then the unit price
+    // at dispense time in sen. Replaces one Medicine copy per dispensed line.
+    private long[] lines = NO_LINES;
+    private int lineCount;
     private String status; // PENDING, FILLED, CANCELLED
+    // Resolves medicine names for the getMedicines() view; set when the prescription is registered
+    private PharmacyManager catalogue;
+
+    private static final long[] NO_LINES = new long[0];
 
     public Prescription(int prescriptionId, int doctorId, int patientId, String dateStr) {
         this.prescriptionId = prescriptionId;
         this.doctorId = doctorId;
         this.patientId = patientId;
         try {
-            this.date = LocalDate.parse(dateStr, DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+            this.date = LocalDate.parse(dateStr, DATE_FORMAT);
         } catch (DateTimeParseException e) {
             throw new IllegalArgumentException(RED + "Invalid date format. Please use DD/MM/YYYY");
         }
-        this.medicines = new ArrayList<>();
+        this.status = "PENDING";
+    }
+
+    public Prescription(int prescriptionId, int doctorId, int patientId, LocalDate date) {
+        this.prescriptionId = prescriptionId;
+        this.doctorId = doctorId;
+        this.patientId = patientId;
+        this.date = date;
         this.status = "PENDING";
     }
 
@@ -99,17 +369,82 @@ class Prescription {
         return status;
     }
 
+    // Compatibility view: a fresh Medicine per line, named from the catalogue. Changes to the
+    // returned list or its elements do not affect the prescription.
     public ArrayList<Medicine> getMedicines() {
-        return medicines;
+        ArrayList<Medicine> view = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            Medicine medicine = getLineCatalogueMedicine(i);
+            view.add(new Medicine(getLineMedicineId(i), medicine == null ? "Unknown" : medicine.getName(),
+                    medicine == null ? "" : medicine.getCategory(), getLineQuantity(i), getLinePrice(i)));
+        }
+        return view;
+    }
+
+    // The registered medicine a line refers to; null if it is unknown or was deleted
+    Medicine getLineCatalogueMedicine(int line) {
+        return catalogue == null ? null : catalogue.findMedicine(getLineMedicineId(line));
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLineMedicineId(int line) {
+        return (int) (lines[2 * line] >>> 32);
+    }
+
+    public int getLineQuantity(int line) {
+        return (int) lines[2 * line];
+    }
+
+    public double getLinePrice(int line) {
+        return Money.toRinggit(getLinePriceSen(line));
+    }
+
+    public long getLinePriceSen(int line) {
+        return lines[2 * line + 1];
+    }
+
+    // Sum of quantity * unit price over all lines, in sen
+    public long getValueSen() {
+        long[] packed = lines;
+        long total = 0;
+        for (int i = 0, end = 2 * lineCount; i < end; i += 2) {
+            total += (int) packed[i] * packed[i + 1];
+        }
+        return total;
     }
 
     public String getDate() {
-        return date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+        return date.format(DATE_FORMAT);
+    }
+
+    public LocalDate getLocalDate() {
+        return date;
+    }
+
+    public long getEpochDay() {
+        return date.toEpochDay();
     }
 
     // Methods
     public void addMedicine(Medicine medicine) {
-        medicines.add(medicine);
+        addLine(medicine.getMedicineId(), medicine.getQuantity(), medicine.getPriceSen());
+    }
+
+    public void addLine(int medicineId, int quantity, long unitPriceSen) {
+        if (2 * lineCount == lines.length) {
+            // Most prescriptions have one to three lines, so grow one line at a time
+            lines = Arrays.copyOf(lines, 2 * lineCount + 2);
+        }
+        lines[2 * lineCount] = (long) medicineId << 32 | (quantity & 0xFFFFFFFFL);
+        lines[2 * lineCount + 1] = unitPriceSen;
+        lineCount++;
+    }
+
+    void setCatalogue(PharmacyManager catalogue) {
+        this.catalogue = catalogue;
     }
 
     public void setStatus(String status) {
@@ -121,7 +456,7 @@ class Prescription {
         StringBuilder details = new StringBuilder(String.format(
                 ORANGE + "Prescription ID: %d, Doctor ID: %d, Patient ID: %d, Date: %s, Status: %s\nMedicines:\n" ,
                 prescriptionId, doctorId, patientId, getDate(), status));
-        for (Medicine medicine : medicines) {
+        for (Medicine medicine : getMedicines()) {
             details.append(medicine).append("\n");
         }
         return details.toString();
@@ -154,6 +489,10 @@ class Doctor {
         return specialty;
     }
 
+    public String getContactNumber() {
+        return contactNumber;
+    }
+
     @Override
     public String toString() {
         return String.format(ORANGE + "Doctor ID: %d, Name: %s, Specialty: %s, Contact: %s" ,
@@ -186,6 +525,18 @@ class Patient {
         return name;
     }
 
+    public int getAge() {
+        return age;
+    }
+
+    public String getContactNumber() {
+        return contactNumber;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
     @Override
     public String toString() {
         return String.format(ORANGE + "Patient ID: %d, Name: %s, Age: %d, Contact: %s, Address: %s",
@@ -199,29 +550,174 @@ class InventoryManager {
     public static final String CYAN = "\u001B[36m";
 
     private ArrayList<Medicine> medicines;
+    // When built from a PharmacyManager, stock updates go through it (ID index and journal)
+    private PharmacyManager manager;
 
     public InventoryManager(ArrayList<Medicine> medicines) {
         this.medicines = medicines;
     }
 
-    public void checkLowStock(int threshold) {
-        System.out.println(RED + "\n=== Low Stock Alert ===" );
-        boolean hasLowStock = false;
+    public InventoryManager(PharmacyManager manager) {
+        this(manager.getMedicines());
+        this.manager = manager;
+    }
+
+    public ArrayList<Medicine> findLowStock(int threshold) {
+        if (manager != null) {
+            OperationMetrics.Timer timer = manager.getMetrics().timer(OperationMetrics.Operation.LOW_STOCK);
+            long start = timer.begin();
+            ArrayList<Medicine> lowStock = manager.getInventory().findAtOrBelow(threshold);
+            timer.end(start);
+            return lowStock;
+        }
+        ArrayList<Medicine> lowStock = new ArrayList<>();
         for (Medicine medicine : medicines) {
             if (medicine.getQuantity() <= threshold) {
-                System.out.println(RED + medicine.getName() + " is low on stock. Current quantity: " + medicine.getQuantity() );
-                hasLowStock = true;
+                lowStock.add(medicine);
             }
         }
+        return lowStock;
+    }
+
+    public void checkLowStock(int threshold) {
+        System.out.println(RED + "\n=== Low Stock Alert ===" );
+        boolean hasLowStock = false;
+        for (Medicine medicine : findLowStock(threshold)) {
+            System.out.println(RED + medicine.getName() + " is low on stock. Current quantity: " + medicine.getQuantity() );
+            hasLowStock = true;
+        }
         if (!hasLowStock) {
             System.out.println(MINT_GREEN + "No medicines are below the threshold quantity." );
         }
     }
 
+    public static class RestockResult {
+        private final int medicineId;
+        private final int quantity;
+        private final int stockAfter;
+        private final String error; // null when the line was applied
+
+        RestockResult(int medicineId, int quantity, int stockAfter, String error) {
+            this.medicineId = medicineId;
+            this.quantity = quantity;
+            this.stockAfter = stockAfter;
+            this.error = error;
+        }
+
+        public int getMedicineId() {
+            return medicineId;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        // Stock once the whole delivery is applied (lines for the same medicine share it)
+        public int getStockAfter() {
+            return stockAfter;
+        }
+
+        public boolean isApplied() {
+            return error == null;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return isApplied() ? "Medicine " + medicineId + " +" + quantity + " -> " + stockAfter
+                    : "Medicine " + medicineId + " +" + quantity + " rejected: " + error;
+        }
+    }
+
+    // Books in a supplier delivery of (medicineId, quantity) lines in one pass and returns a
+    // result per line, in input order. Lines with an unknown medicine or a quantity below 1 are
+    // rejected, as are all lines of a medicine whose stock they would overflow; the rest are
+    // applied together.
+    public ArrayList<RestockResult> receiveDelivery(int[] medicineIds, int[] quantities) {
+        int[] stockAfter;
+        if (manager != null) {
+            stockAfter = manager.restockMedicines(medicineIds, quantities);
+        } else {
+            stockAfter = restockList(medicineIds, quantities);
+        }
+        ArrayList<RestockResult> results = new ArrayList<>(medicineIds.length);
+        for (int i = 0; i < medicineIds.length; i++) {
+            String error = null;
+            if (quantities[i] <= 0) {
+                error = "Quantity must be positive";
+            } else if (stockAfter[i] == PharmacyManager.NOT_RESTOCKED) {
+                error = isKnown(medicineIds[i]) ? "Stock would overflow" : "Medicine not found";
+            }
+            results.add(new RestockResult(medicineIds[i], quantities[i], stockAfter[i], error));
+        }
+        return results;
+    }
+
+    // Only asked about rejected lines, so the scan of a list-backed catalogue stays off the
+    // common path
+    private boolean isKnown(int medicineId) {
+        if (manager != null) {
+            return manager.findMedicine(medicineId) != null;
+        }
+        for (Medicine medicine : medicines) {
+            if (medicine.getMedicineId() == medicineId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // List-backed inventory: index the catalogue once instead of scanning it per line
+    private int[] restockList(int[] medicineIds, int[] quantities) {
+        IdIndex<Medicine> byId = new IdIndex<>();
+        byId.ensureCapacity(medicines.size());
+        for (Medicine medicine : medicines) {
+            byId.put(medicine.getMedicineId(), medicine);
+        }
+        // A medicine whose lines together would overflow its stock gets none of them
+        IdCounter totals = new IdCounter();
+        for (int i = 0; i < medicineIds.length; i++) {
+            if (quantities[i] > 0) {
+                totals.add(medicineIds[i], quantities[i]);
+            }
+        }
+        boolean[] accepted = new boolean[medicineIds.length];
+        for (int i = 0; i < medicineIds.length; i++) {
+            Medicine medicine = byId.get(medicineIds[i]);
+            accepted[i] = medicine != null && quantities[i] > 0
+                    && medicine.getQuantity() + totals.get(medicineIds[i]) <= Integer.MAX_VALUE;
+        }
+        for (int i = 0; i < medicineIds.length; i++) {
+            if (accepted[i]) {
+                byId.get(medicineIds[i]).addQuantity(quantities[i]);
+            }
+        }
+        int[] stockAfter = new int[medicineIds.length];
+        for (int i = 0; i < medicineIds.length; i++) {
+            stockAfter[i] = accepted[i] ? byId.get(medicineIds[i]).getQuantity() : PharmacyManager.NOT_RESTOCKED;
+        }
+        return stockAfter;
+    }
+
     public void updateStock(int medicineId, int quantity) {
+        if (manager != null) {
+            try {
+                if (manager.restockMedicine(medicineId, quantity)) {
+                    System.out.println(MINT_GREEN + "Stock updated successfully for " + manager.findMedicine(medicineId).getName());
+                } else {
+                    System.out.println(RED + "Medicine not found!");
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
         for (Medicine medicine : medicines) {
             if (medicine.getMedicineId() == medicineId) {
-                medicine.setQuantity(medicine.getQuantity() + quantity);
+                medicine.addQuantity(quantity);
                 System.out.println(MINT_GREEN + "Stock updated successfully for " + medicine.getName());
                 return;
             }
@@ -266,142 +762,7213 @@ class ReportGenerator {
 
     public static final String CYAN = "\u001B[36m";
     public static final String PEACH = "\u001B[38;2;255;218;185m";
+    public static final String RED = "\u001B[31m";
 
     private ArrayList<Prescription> prescriptions;
     private ArrayList<Medicine> medicines;
+    // When built from a PharmacyManager, reports read its maintained aggregates
+    // instead of rescanning the prescription history
+    private PharmacyManager manager;
+    private ReportEngine.Mode mode = ReportEngine.Mode.AUTO;
+    // The manager's report timers; null without a manager
+    private OperationMetrics.Timer salesTimer;
+    private OperationMetrics.Timer salesComputeTimer;
+    private OperationMetrics.Timer usageTimer;
+    private OperationMetrics.Timer usageComputeTimer;
 
     public ReportGenerator(ArrayList<Prescription> prescriptions, ArrayList<Medicine> medicines) {
         this.prescriptions = prescriptions;
         this.medicines = medicines;
     }
 
-    public void generateDailySalesReport(String date) {
-        System.out.println(CYAN + "\n=== Daily Sales Report for " + date + " ===");
-        double totalSales = 0.0;
-        int totalPrescriptions = 0;
+    public ReportGenerator(PharmacyManager manager) {
+        this(manager.getPrescriptions(), manager.getMedicines());
+        this.manager = manager;
+        OperationMetrics metrics = manager.getMetrics();
+        salesTimer = metrics.timer(OperationMetrics.Operation.SALES_REPORT);
+        salesComputeTimer = metrics.timer(OperationMetrics.Operation.SALES_REPORT_COMPUTE);
+        usageTimer = metrics.timer(OperationMetrics.Operation.USAGE_REPORT);
+        usageComputeTimer = metrics.timer(OperationMetrics.Operation.USAGE_REPORT_COMPUTE);
+    }
 
-        for (Prescription prescription : prescriptions) {
-            if (prescription.getDate().equals(date)) {
-                totalPrescriptions++;
-                for (Medicine medicine : prescription.getMedicines()) {
-                    totalSales += medicine.getPrice() * medicine.getQuantity();
-                }
-            }
-        }
+    // Sequential or fork/join aggregation; results are identical either way
+    public void setMode(ReportEngine.Mode mode) {
+        this.mode = mode;
+    }
 
-        System.out.println("Total Prescriptions: " + totalPrescriptions);
-        System.out.printf("Total Sales: RM%.2f%n", totalSales);
+    public ReportEngine.Mode getMode() {
+        return mode;
     }
 
-    public void generateMedicineUsageReport() {
-        System.out.println(PEACH + "\n=== Medicine Usage Report ===");
-        for (Medicine medicine : medicines) {
-            int totalPrescribed = 0;
-            for (Prescription prescription : prescriptions) {
-                for (Medicine prescribedMed : prescription.getMedicines()) {
-                    if (prescribedMed.getMedicineId() == medicine.getMedicineId()) {
-                        totalPrescribed += prescribedMed.getQuantity();
-                    }
-                }
-            }
-            System.out.println(medicine.getName() + " - Total Prescribed: " + totalPrescribed +
-                    ", Remaining Stock: " + medicine.getQuantity());
-        }
+    public void generateDailySalesReport(String date) {
+        LocalDate day = parseReportDate(date);
+        if (day == null)
+            return;
+        printSalesReport("Daily Sales Report for " + date, day.toEpochDay(), day.toEpochDay());
     }
-}
 
-class PharmacyManager {
-    public static final String RED = "\u001B[31m";
-    public static final String MINT_GREEN = "\u001B[38;2;152;251;152m"; 
-    public static final String YELLOW = "\u001B[33m"; 
-    public static final String PEACH = "\u001B[38;2;255;218;185m";   
-    public static final String SKY_BLUE = "\u001B[38;2;135;206;235m"; 
-    public static final String GREEN = "\u001B[32m";      
-    public static final String BRIGHT_PURPLE = "\u001B[95m"; 
-    public static final String CYAN = "\u001B[36m";
-    public static final String BRIGHT_CORAL = "\u001B[38;2;255;127;80m"; 
-    public static final String ORANGE = "\u001B[38;5;214m"; 
+    // Seven days starting from the given date
+    public void generateWeeklySalesReport(String startDate) {
+        LocalDate start = parseReportDate(startDate);
+        if (start == null)
+            return;
+        LocalDate end = start.plusDays(6);
+        printSalesReport("Weekly Sales Report for " + startDate + " - " + end.format(Prescription.DATE_FORMAT),
+                start.toEpochDay(), end.toEpochDay());
+    }
 
-    private ArrayList<Doctor> doctors;
-    private ArrayList<Patient> patients;
-    private ArrayList<Medicine> medicines;
-    private ArrayList<Prescription> prescriptions;
-    private ArrayList<Pharmacist> pharmacists;
-    private Scanner scanner;
-    public PharmacyManager() {
-        doctors = new ArrayList<>();
-        patients = new ArrayList<>();
-        medicines = new ArrayList<>();
-        prescriptions = new ArrayList<>();
-        pharmacists = new ArrayList<>();
-        scanner = new Scanner(System.in);
-        scanner = new Scanner(System.in);
+    // Any date inside the month selects the whole month
+    public void generateMonthlySalesReport(String dateInMonth) {
+        LocalDate day = parseReportDate(dateInMonth);
+        if (day == null)
+            return;
+        LocalDate first = day.withDayOfMonth(1);
+        LocalDate last = day.withDayOfMonth(day.lengthOfMonth());
+        printSalesReport("Monthly Sales Report for " + first.format(DateTimeFormatter.ofPattern("MM/yyyy")),
+                first.toEpochDay(), last.toEpochDay());
     }
 
-    // Direct object addition methods
-    public void addDoctor(Doctor doctor) {
-        if (findDoctor(doctor.getDoctorId()) != null) {
-            throw new IllegalArgumentException(RED + "Doctor ID already exists");
+    public void generateSalesReport(String fromDate, String toDate) {
+        LocalDate from = parseReportDate(fromDate);
+        LocalDate to = parseReportDate(toDate);
+        if (from == null || to == null)
+            return;
+        if (to.isBefore(from)) {
+            System.out.println(RED + "End date is before start date!");
+            return;
         }
-        doctors.add(doctor);
+        printSalesReport("Sales Report for " + fromDate + " - " + toDate, from.toEpochDay(), to.toEpochDay());
     }
 
-    public void addPatient(Patient patient) {
-        if (findPatient(patient.getPatientId()) != null) {
-            throw new IllegalArgumentException(RED + "Patient ID already exists");
+    private LocalDate parseReportDate(String date) {
+        try {
+            return LocalDate.parse(date.trim(), Prescription.DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            System.out.println(RED + "Invalid date format. Please use DD/MM/YYYY");
+            return null;
         }
-        patients.add(patient);
     }
 
-    public void addMedicine(Medicine medicine) {
-        if (findMedicine(medicine.getMedicineId()) != null) {
-            throw new IllegalArgumentException(RED + "Medicine ID already exists");
-        }
-        medicines.add(medicine);
+    private void printSalesReport(String title, long fromDay, long toDay) {
+        System.out.println(CYAN + "\n=== " + title + " ===");
+        SalesSummary summary = salesBetween(fromDay, toDay);
+        System.out.println("Total Prescriptions: " + summary.getPrescriptions());
+        System.out.println("Total Sales: " + Money.format(summary.getSalesSen()));
     }
 
-    public void addPrescription(Prescription prescription) {
-        if (findPrescription(prescription.getPrescriptionId()) != null) {
-            throw new IllegalArgumentException(RED + "Prescription ID already exists");
+    public static class SalesSummary {
+        private final int prescriptions;
+        private final long salesSen;
+
+        SalesSummary(int prescriptions, long salesSen) {
+            this.prescriptions = prescriptions;
+            this.salesSen = salesSen;
         }
-        prescriptions.add(prescription);
-    }
 
-    // Interactive addition methods
-    public void addPharmacistInteractive() {
-        try {
-            System.out.println(MINT_GREEN + "\nEnter Pharmacist Details:");
-            System.out.print("ID: ");
-            int id = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
+        public int getPrescriptions() {
+            return prescriptions;
+        }
 
-            if (findPharmacist(id) != null) {
-                System.out.println(RED + "Pharmacist ID already exists!");
-                return;
-            }
+        public long getSalesSen() {
+            return salesSen;
+        }
 
-            System.out.print(MINT_GREEN + "Name: ");
-            String name = scanner.nextLine();
-            System.out.print(MINT_GREEN + "Shift: ");
-            String shift = scanner.nextLine();
+        public double getSales() {
+            return Money.toRinggit(salesSen);
+        }
+    }
 
-            pharmacists.add(new Pharmacist(id, name, shift));
-            System.out.println(YELLOW + "Pharmacist added successfully!");
-        } catch (InputMismatchException e) {
-            System.out.println(RED + "Invalid input! Please enter correct data types.");
-            scanner.nextLine(); // Clear the scanner
+    // Prescription count and sales between two epoch days (inclusive); cached per range
+    // when built from a manager
+    public SalesSummary salesBetween(long fromDay, long toDay) {
+        if (manager == null) {
+            return computeSales(fromDay, toDay);
         }
+        long start = OperationMetrics.FINE_GRAINED ? salesTimer.begin() : OperationMetrics.NOT_TIMED;
+        ReportCache cache = manager.getReportCache();
+        ReportCache.Key key = ReportCache.Key.sales(fromDay, toDay);
+        SalesSummary summary = (SalesSummary) cache.get(key);
+        if (summary == null) {
+            long version = cache.version();
+            long computeStart = salesComputeTimer.begin();
+            summary = computeSales(fromDay, toDay);
+            salesComputeTimer.end(computeStart);
+            cache.put(key, summary, version);
+        }
+        salesTimer.end(start);
+        return summary;
     }
-    public void addDoctorInteractive() {
-        try {
-            System.out.println(MINT_GREEN + "\nEnter Doctor Details:");
-            System.out.print(MINT_GREEN + "ID: ");
-            int id = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
 
-            if (findDoctor(id) != null) {
-                System.out.println(RED + "Doctor ID already exists!");
-                return;
+    private SalesSummary computeSales(long fromDay, long toDay) {
+        ReportEngine.Totals totals = aggregate(fromDay, toDay, false);
+        return new SalesSummary(totals.getPrescriptions(), totals.getSalesSen());
+    }
+
+    // Count, sales and per-medicine quantities prescribed between two epoch days (inclusive)
+    public ReportEngine.Totals totalsBetween(long fromDay, long toDay) {
+        return aggregate(fromDay, toDay, true);
+    }
+
+    // With a manager only the day partitions and archive blocks inside the range are visited
+    private ReportEngine.Totals aggregate(long fromDay, long toDay, boolean withUsage) {
+        if (manager != null) {
+            return manager.totalsByDay(fromDay, toDay, withUsage, mode);
+        }
+        return ReportEngine.aggregate(List.of(prescriptions), fromDay, toDay, withUsage, mode);
+    }
+
+    public static class UsageLine {
+        private final int medicineId;
+        private final String name;
+        private final long totalPrescribed;
+        private final int remainingStock;
+
+        UsageLine(int medicineId, String name, long totalPrescribed, int remainingStock) {
+            this.medicineId = medicineId;
+            this.name = name;
+            this.totalPrescribed = totalPrescribed;
+            this.remainingStock = remainingStock;
+        }
+
+        public int getMedicineId() {
+            return medicineId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTotalPrescribed() {
+            return totalPrescribed;
+        }
+
+        public int getRemainingStock() {
+            return remainingStock;
+        }
+    }
+
+    // Quantity prescribed and stock left for every medicine; cached when built from a manager
+    public List<UsageLine> usageReport() {
+        if (manager == null) {
+            return computeUsage();
+        }
+        long start = OperationMetrics.FINE_GRAINED ? usageTimer.begin() : OperationMetrics.NOT_TIMED;
+        ReportCache cache = manager.getReportCache();
+        @SuppressWarnings("unchecked")
+        List<UsageLine> report = (List<UsageLine>) cache.get(ReportCache.Key.usage());
+        if (report == null) {
+            long version = cache.version();
+            long computeStart = usageComputeTimer.begin();
+            report = computeUsage();
+            usageComputeTimer.end(computeStart);
+            cache.put(ReportCache.Key.usage(), report, version);
+        }
+        usageTimer.end(start);
+        return report;
+    }
+
+    private List<UsageLine> computeUsage() {
+        if (manager != null) {
+            // The medicine list and running totals change under the manager's lock
+            synchronized (manager) {
+                return usageLines(null);
+            }
+        }
+        // Without a manager's running totals, aggregate the whole history once
+        return usageLines(totalsBetween(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    private List<UsageLine> usageLines(ReportEngine.Totals totals) {
+        ArrayList<UsageLine> lines = new ArrayList<>(medicines.size());
+        for (Medicine medicine : medicines) {
+            long totalPrescribed = totals == null
+                    ? manager.getPrescribedTotal(medicine.getMedicineId())
+                    : totals.getUsage(medicine.getMedicineId());
+            lines.add(new UsageLine(medicine.getMedicineId(), medicine.getName(), totalPrescribed,
+                    medicine.getQuantity()));
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    public void generateMedicineUsageReport() {
+        System.out.println(PEACH + "\n=== Medicine Usage Report ===");
+        for (UsageLine line : usageReport()) {
+            System.out.println(line.getName() + " - Total Prescribed: " + line.getTotalPrescribed() +
+                    ", Remaining Stock: " + line.getRemainingStock());
+        }
+    }
+
+    public static class CategoryLine {
+        private final String category;
+        private final long medicines;
+        private final long stockUnits;
+        private final long unitsSold;
+        private final long salesSen;
+
+        CategoryLine(String category, long medicines, long stockUnits, long unitsSold, long salesSen) {
+            this.category = category;
+            this.medicines = medicines;
+            this.stockUnits = stockUnits;
+            this.unitsSold = unitsSold;
+            this.salesSen = salesSen;
+        }
+
+        CategoryLine(CategoryDictionary.Totals totals) {
+            this(totals.getName(), totals.getMedicines(), totals.getStockUnits(), totals.getUnitsSold(),
+                    totals.getSalesSen());
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public long getMedicines() {
+            return medicines;
+        }
+
+        public long getStockUnits() {
+            return stockUnits;
+        }
+
+        public long getUnitsSold() {
+            return unitsSold;
+        }
+
+        public long getSalesSen() {
+            return salesSen;
+        }
+
+        public double getSales() {
+            return Money.toRinggit(salesSen);
+        }
+    }
+
+    // Medicines, stock and sales for every category with medicines in the catalogue, by name.
+    // With a manager this reads its running category totals: O(categories), no matter how many
+    // medicines or prescriptions there are.
+    public List<CategoryLine> categoryReport() {
+        if (manager == null) {
+            return computeCategories();
+        }
+        CategoryDictionary categories = manager.getCategories();
+        ArrayList<CategoryLine> lines = new ArrayList<>();
+        for (int code = 0; code < categories.size(); code++) {
+            CategoryDictionary.Totals totals = categories.totals(code);
+            if (totals.getMedicines() > 0) {
+                lines.add(new CategoryLine(totals));
+            }
+        }
+        lines.sort(Comparator.comparing(CategoryLine::getCategory));
+        return lines;
+    }
+
+    // A single category, or null if no medicine has it
+    public CategoryLine categoryReport(String category) {
+        if (manager == null) {
+            for (CategoryLine line : computeCategories()) {
+                if (line.getCategory().equals(category)) {
+                    return line;
+                }
+            }
+            return null;
+        }
+        CategoryDictionary categories = manager.getCategories();
+        int code = categories.find(category);
+        if (code < 0 || categories.totals(code).getMedicines() == 0) {
+            return null;
+        }
+        return new CategoryLine(categories.totals(code));
+    }
+
+    // Without running totals, one pass over the medicines and one over the whole history
+    private List<CategoryLine> computeCategories() {
+        HashMap<Integer, Medicine> byId = new HashMap<>();
+        TreeMap<String, long[]> totals = new TreeMap<>();
+        for (Medicine medicine : medicines) {
+            byId.put(medicine.getMedicineId(), medicine);
+            long[] entry = totals.computeIfAbsent(medicine.getCategory(), category -> new long[4]);
+            entry[0]++;
+            entry[1] += medicine.getQuantity();
+        }
+        for (Prescription prescription : prescriptions) {
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                Medicine medicine = byId.get(prescription.getLineMedicineId(i));
+                if (medicine != null) {
+                    long[] entry = totals.get(medicine.getCategory());
+                    entry[2] += prescription.getLineQuantity(i);
+                    entry[3] += prescription.getLineQuantity(i) * prescription.getLinePriceSen(i);
+                }
+            }
+        }
+        ArrayList<CategoryLine> lines = new ArrayList<>(totals.size());
+        totals.forEach((category, entry) -> lines.add(new CategoryLine(category, entry[0], entry[1], entry[2],
+                entry[3])));
+        return lines;
+    }
+
+    public void generateCategoryReport() {
+        System.out.println(PEACH + "\n=== Category Report ===");
+        for (CategoryLine line : categoryReport()) {
+            System.out.println(line.getCategory() + " - Medicines: " + line.getMedicines() + ", Stock: "
+                    + line.getStockUnits() + ", Units Sold: " + line.getUnitsSold() + ", Sales: "
+                    + Money.format(line.getSalesSen()));
+        }
+    }
+}
+
+class ReportEngine {
+    // Aggregates prescription count, sales and per-medicine usage and revenue over a prescription history
+    // held as a list of partitions (the manager's day lists, or one flat list). The history is
+    // addressed by a global index and split in halves down to LEAF_SIZE prescriptions; leaves
+    // run as fork/join tasks and partial totals are merged on the way back up. Line prices are
+    // stored in sen, so every sum is an exact integer and every mode and split yields the same
+    // totals. Sales-only leaves sum each prescription's packed line array directly.
+    public enum Mode {
+        SEQUENTIAL, PARALLEL,
+        AUTO // parallel once the range holds at least AUTO_PARALLEL_THRESHOLD prescriptions
+    }
+
+    static final int LEAF_SIZE = 16_384;
+    static final int AUTO_PARALLEL_THRESHOLD = 100_000;
+
+    public static class Totals {
+        private int prescriptions;
+        private long salesSen;
+        private final IdCounter usage; // null when usage was not requested
+        private final IdCounter revenue; // sen per medicine; null with usage
+
+        Totals(boolean withUsage) {
+            usage = withUsage ? new IdCounter() : null;
+            revenue = withUsage ? new IdCounter() : null;
+        }
+
+        public int getPrescriptions() {
+            return prescriptions;
+        }
+
+        public long getSalesSen() {
+            return salesSen;
+        }
+
+        public double getSales() {
+            return Money.toRinggit(salesSen);
+        }
+
+        public long getUsage(int medicineId) {
+            return usage == null ? 0 : usage.get(medicineId);
+        }
+
+        public long getRevenueSen(int medicineId) {
+            return revenue == null ? 0 : revenue.get(medicineId);
+        }
+
+        Totals merge(Totals other) {
+            prescriptions += other.prescriptions;
+            salesSen += other.salesSen;
+            if (usage != null) {
+                usage.addAll(other.usage);
+                revenue.addAll(other.revenue);
+            }
+            return this;
+        }
+    }
+
+    // Value of one line in sen
+    static long lineValueSen(Prescription prescription, int line) {
+        return prescription.getLinePriceSen(line) * prescription.getLineQuantity(line);
+    }
+
+    // Prescriptions dated fromDay..toDay (inclusive epoch days) across all partitions
+    public static Totals aggregate(Collection<? extends List<Prescription>> partitions, long fromDay, long toDay,
+            boolean withUsage, Mode mode) {
+        List<List<Prescription>> parts = new ArrayList<>(partitions);
+        // offsets[i] is the global index of the first prescription in parts[i]
+        long[] offsets = new long[parts.size() + 1];
+        for (int i = 0; i < parts.size(); i++) {
+            offsets[i + 1] = offsets[i] + parts.get(i).size();
+        }
+        long total = offsets[parts.size()];
+        AggregateTask task = new AggregateTask(parts, offsets, 0, total, fromDay, toDay, withUsage);
+        boolean parallel = mode == Mode.PARALLEL || (mode == Mode.AUTO && total >= AUTO_PARALLEL_THRESHOLD);
+        return parallel ? ForkJoinPool.commonPool().invoke(task) : task.leaf();
+    }
+
+    private static class AggregateTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<List<Prescription>> parts;
+        private final long[] offsets;
+        private final long from;
+        private final long to;
+        private final long fromDay;
+        private final long toDay;
+        private final boolean withUsage;
+
+        AggregateTask(List<List<Prescription>> parts, long[] offsets, long from, long to, long fromDay, long toDay,
+                boolean withUsage) {
+            this.parts = parts;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.withUsage = withUsage;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= LEAF_SIZE) {
+                return leaf();
+            }
+            long middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(parts, offsets, from, middle, fromDay, toDay, withUsage);
+            AggregateTask right = new AggregateTask(parts, offsets, middle, to, fromDay, toDay, withUsage);
+            left.fork();
+            Totals rightTotals = right.compute();
+            return left.join().merge(rightTotals);
+        }
+
+        Totals leaf() {
+            Totals totals = new Totals(withUsage);
+            if (from >= to) {
+                return totals;
+            }
+            // Last partition starting at or before 'from'
+            int part = Arrays.binarySearch(offsets, from);
+            if (part < 0) {
+                part = -part - 2;
+            }
+            while (part < parts.size() - 1 && offsets[part + 1] <= from) {
+                part++; // skip empty partitions
+            }
+            long index = from;
+            while (index < to) {
+                List<Prescription> list = parts.get(part);
+                int end = (int) (Math.min(to, offsets[part + 1]) - offsets[part]);
+                for (int i = (int) (index - offsets[part]); i < end; i++) {
+                    add(totals, list.get(i));
+                }
+                index = offsets[part + 1];
+                part++;
+            }
+            return totals;
+        }
+
+        private void add(Totals totals, Prescription prescription) {
+            long epochDay = prescription.getEpochDay();
+            if (epochDay < fromDay || epochDay > toDay) {
+                return;
+            }
+            totals.prescriptions++;
+            if (totals.usage == null) {
+                totals.salesSen += prescription.getValueSen();
+                return;
+            }
+            for (int line = 0; line < prescription.getLineCount(); line++) {
+                int medicineId = prescription.getLineMedicineId(line);
+                long value = lineValueSen(prescription, line);
+                totals.salesSen += value;
+                totals.usage.add(medicineId, prescription.getLineQuantity(line));
+                totals.revenue.add(medicineId, value);
+            }
+        }
+    }
+}
+
+class ReportCache {
+    // Results of repeated reports, keyed by report type and parameters, in a size-bounded LRU.
+    // PharmacyManager bumps the store version on every mutation a report depends on and evicts
+    // only the entries that mutation affects: a prescription dated D evicts the sales ranges
+    // containing D and the usage report; stock and catalogue changes evict only the usage
+    // report. A result is cached only if the version did not move while it was computed, so a
+    // report racing a mutation is returned but never stored.
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public enum Type {
+        SALES, USAGE
+    }
+
+    public static final class Key {
+        private final Type type;
+        private final long fromDay;
+        private final long toDay;
+
+        private Key(Type type, long fromDay, long toDay) {
+            this.type = type;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+        }
+
+        public static Key sales(long fromDay, long toDay) {
+            return new Key(Type.SALES, fromDay, toDay);
+        }
+
+        public static Key usage() {
+            return new Key(Type.USAGE, 0, 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return type == key.type && fromDay == key.fromDay && toDay == key.toDay;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + Long.hashCode(fromDay)) * 31 + Long.hashCode(toDay);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Object> entries;
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ReportCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ReportCache(int capacity) {
+        this.capacity = capacity;
+        // Access order, so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > ReportCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Read before computing a report; pass to put() with the result
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized Object get(Key key) {
+        Object value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    public synchronized void put(Key key, Object value, long computedAtVersion) {
+        if (computedAtVersion == version) {
+            entries.put(key, value);
+        }
+    }
+
+    // A prescription dated epochDay was added or removed
+    public synchronized void invalidateDay(long epochDay) {
+        version++;
+        if (entries.isEmpty()) {
+            return;
+        }
+        entries.keySet().removeIf(key -> key.type == Type.USAGE
+                || (key.type == Type.SALES && key.fromDay <= epochDay && epochDay <= key.toDay));
+    }
+
+    // Stock or the medicine catalogue changed
+    public synchronized void invalidateUsage() {
+        version++;
+        if (entries.isEmpty()) {
+            return;
+        }
+        entries.remove(Key.usage());
+    }
+
+    public synchronized void clear() {
+        version++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Report cache: " + entries.size() + "/" + capacity + " entries, " + hits + " hits, " + misses
+                + " misses, " + evictions + " evictions";
+    }
+}
+
+class IdIndex<T> {
+    // Open-addressing int -> object map used for the ID lookups in PharmacyManager.
+    // Keys stay primitive so lookups never box; a null value marks an empty slot.
+    // Writers take the write side of a StampedLock; get is an optimistic read that is retried
+    // under the read lock if a put, remove or resize overlapped it, so a lookup racing a resize
+    // or backward shift never misses a present key. Resizes publish the new arrays and mask as
+    // one Table, so a racing probe never mixes the old and new tables.
+    //
+    // Each entry can also carry an int position, e.g. where the entity sits in a list kept
+    // alongside, so the list can swap-remove it instead of searching for it.
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int[] positions;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            positions = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private int[] keys;
+    private Object[] values;
+    private int[] positions;
+    private volatile int size;
+    private int mask;
+
+    public IdIndex() {
+        this(16);
+    }
+
+    public IdIndex(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        publish(new Table(capacity));
+    }
+
+    private void publish(Table next) {
+        keys = next.keys;
+        values = next.values;
+        positions = next.positions;
+        mask = next.mask;
+        table = next;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int key) {
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int i = probe(current, key);
+        T value = i < 0 ? null : (T) current.values[i];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                i = probe(current, key);
+                value = i < 0 ? null : (T) current.values[i];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    // The position stored with the key, or -1 if the key is absent
+    public int position(int key) {
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int i = probe(current, key);
+        int position = i < 0 ? -1 : current.positions[i];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                i = probe(current, key);
+                position = i < 0 ? -1 : current.positions[i];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return position;
+    }
+
+    // Index of the key's slot, or -1. The table is never more than half full, so a probe always
+    // reaches an empty slot.
+    private static int probe(Table table, int key) {
+        int[] keys = table.keys;
+        Object[] values = table.values;
+        int i = slot(key, table.mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & table.mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public T put(int key, T value) {
+        return put(key, value, 0);
+    }
+
+    public T put(int key, T value, int position) {
+        if (value == null) {
+            throw new IllegalArgumentException("IdIndex does not accept null values");
+        }
+        long stamp = lock.writeLock();
+        try {
+            return insert(key, value, position);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Moves an existing key's position; false if the key is absent
+    public boolean setPosition(int key, int position) {
+        long stamp = lock.writeLock();
+        try {
+            int i = probe(table, key);
+            if (i < 0) {
+                return false;
+            }
+            positions[i] = position;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T insert(int key, T value, int position) {
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                T previous = (T) values[i];
+                values[i] = value;
+                positions[i] = position;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        positions[i] = position;
+        if (++size * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    public T remove(int key) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T delete(int key) {
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                T previous = (T) values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int hole) {
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                break;
+            }
+            int home = slot(keys[j], mask);
+            boolean stays = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (stays) {
+                continue;
+            }
+            keys[hole] = keys[j];
+            values[hole] = values[j];
+            positions[hole] = positions[j];
+            hole = j;
+        }
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldPositions = positions;
+        Table next = new Table(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i], next.mask);
+                while (next.values[j] != null) {
+                    j = (j + 1) & next.mask;
+                }
+                next.keys[j] = oldKeys[i];
+                next.values[j] = oldValues[i];
+                next.positions[j] = oldPositions[i];
+            }
+        }
+        publish(next);
+    }
+
+    // Grows the table up front so a bulk load does not rehash repeatedly
+    public void ensureCapacity(int expectedSize) {
+        long stamp = lock.writeLock();
+        try {
+            int capacity = keys.length;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            if (capacity > keys.length) {
+                resize(capacity);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            java.util.Arrays.fill(values, null);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
+
+class IdCounter {
+    // Open-addressing int -> long counter, used for running totals keyed by ID
+    private int[] keys;
+    private long[] counts;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    public IdCounter() {
+        keys = new int[16];
+        counts = new long[16];
+        used = new boolean[16];
+        mask = 15;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public long get(int key) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0L;
+    }
+
+    public void add(int key, long delta) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                counts[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        counts[i] = delta;
+        if (++size * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        boolean[] oldUsed = used;
+        keys = new int[capacity];
+        counts = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slot(oldKeys[i], mask);
+                while (used[j]) {
+                    j = (j + 1) & mask;
+                }
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    // Missing keys count as zero, so a key whose total dropped back to 0 still matches
+    public boolean sameCounts(IdCounter other) {
+        return coveredBy(other) && other.coveredBy(this);
+    }
+
+    private boolean coveredBy(IdCounter other) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && counts[i] != other.get(keys[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void addAll(IdCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.used[i]) {
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public interface Visitor {
+        void visit(int key, long count);
+    }
+
+    // Every key whose count is not zero, in table order
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && counts[i] != 0) {
+                visitor.visit(keys[i], counts[i]);
+            }
+        }
+    }
+}
+
+class DayPartition {
+    // One day's prescriptions for range reports. Appends write past the end of the array, and
+    // growing or removing copies into a new one, so the first n slots of any array this has
+    // held never change. A snapshot is therefore an O(1) view of (array, size) that stays valid
+    // while prescriptions are added or removed, provided it was taken under the same lock the
+    // mutations run under.
+    private Prescription[] items = new Prescription[4];
+    private int size;
+
+    void add(Prescription prescription) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = prescription;
+    }
+
+    void removeIf(Set<Prescription> gone) {
+        Prescription[] kept = new Prescription[items.length];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (!gone.contains(items[i])) {
+                kept[n++] = items[i];
+            }
+        }
+        items = kept;
+        size = n;
+    }
+
+    void remove(Prescription prescription) {
+        Prescription[] kept = new Prescription[items.length];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (items[i] != prescription) {
+                kept[n++] = items[i];
+            }
+        }
+        items = kept;
+        size = n;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    List<Prescription> snapshot() {
+        return Arrays.asList(items).subList(0, size);
+    }
+}
+
+class NameIndex<T> {
+    // Name search over one entity type: case-insensitive, word-prefix and typo-tolerant, ranked
+    // top-k. Names are folded to lower case and split into words at anything that is not a letter
+    // or digit; each distinct word is a term. Entities get slots in insertion order, and every
+    // term keeps a sorted posting list of the slots whose name contains it. Typos are resolved
+    // against the terms rather than the entities: every one-edit variant of a misspelt word is
+    // looked up in the term dictionary, a few hundred hash probes however many names there are.
+    //
+    // A query matches an entity when every query word matches one of the entity's words: exactly
+    // (scores 3), as a prefix (2) or, for words of 3+ characters, one substitution, insertion,
+    // deletion or adjacent swap away (1). Results are ranked by total score, ties in the order
+    // found. The query word with the fewest postings drives the scan, through its exact term, then
+    // its prefix terms, then its typo terms; the scan stops once no unseen entity can beat the
+    // k-th result.
+    static final int EXACT = 3;
+    static final int PREFIX = 2;
+    static final int TYPO = 1;
+    private static final int PREFIX_ESTIMATE = 64;
+
+    private final ToIntFunction<T> idOf;
+    private final Function<T, String> nameOf;
+    // Term text -> term ID, hashed for lookups and sorted so prefix matches are a range
+    private final HashMap<String, Integer> termIds = new HashMap<>();
+    private final TreeMap<String, Integer> terms = new TreeMap<>();
+    private final ArrayList<String> termText = new ArrayList<>();
+    // Per term ID: slots containing it. Lists here are int arrays whose element 0 is the length.
+    private final ArrayList<int[]> postings = new ArrayList<>();
+    // Every character in some term; typo variants draw substitutions and insertions from it
+    private final StringBuilder alphabet = new StringBuilder();
+    private Object[] entities = new Object[16];
+    private int[][] slotTerms = new int[16][];
+    private int slotCount;
+    private int size;
+    // Entity ID -> slot + 1 (0 when absent)
+    private IdCounter slots = new IdCounter();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public NameIndex(ToIntFunction<T> idOf, Function<T, String> nameOf) {
+        this.idOf = idOf;
+        this.nameOf = nameOf;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(T entity) {
+        String[] words = words(nameOf.apply(entity));
+        lock.writeLock().lock();
+        try {
+            int id = idOf.applyAsInt(entity);
+            if (slots.get(id) != 0) {
+                removeSlot(id);
+            }
+            insert(entity, id, words);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(T entity, int id, String[] words) {
+        if (slotCount == entities.length) {
+            entities = Arrays.copyOf(entities, slotCount * 2);
+            slotTerms = Arrays.copyOf(slotTerms, slotCount * 2);
+        }
+        int slot = slotCount++;
+        int[] ids = new int[words.length];
+        int distinct = 0;
+        for (String word : words) {
+            int term = term(word);
+            if (indexOf(ids, distinct, term) < 0) {
+                ids[distinct++] = term;
+                postings.set(term, append(postings.get(term), slot));
+            }
+        }
+        entities[slot] = entity;
+        slotTerms[slot] = distinct == ids.length ? ids : Arrays.copyOf(ids, distinct);
+        slots.add(id, slot + 1);
+        size++;
+    }
+
+    public boolean remove(T entity) {
+        lock.writeLock().lock();
+        try {
+            return removeSlot(idOf.applyAsInt(entity));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Slots are not reused, so every posting list stays sorted; once dead slots outnumber live
+    // ones the index is compacted
+    private boolean removeSlot(int id) {
+        long stored = slots.get(id);
+        if (stored == 0) {
+            return false;
+        }
+        int slot = (int) stored - 1;
+        for (int term : slotTerms[slot]) {
+            int[] list = postings.get(term);
+            int at = Arrays.binarySearch(list, 1, list[0] + 1, slot);
+            System.arraycopy(list, at + 1, list, at, list[0] - at);
+            list[0]--;
+        }
+        entities[slot] = null;
+        slotTerms[slot] = null;
+        slots.add(id, -stored);
+        size--;
+        if (slotCount - size > Math.max(size, 64)) {
+            compact();
+        }
+        return true;
+    }
+
+    // Re-adds the live entities in slot order with the words they were indexed under, so ties
+    // still rank in insertion order, and drops the terms, alphabet characters and ID entries
+    // only removed entities used
+    @SuppressWarnings("unchecked")
+    private void compact() {
+        ArrayList<T> live = new ArrayList<>(size);
+        ArrayList<String[]> liveWords = new ArrayList<>(size);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (entities[slot] != null) {
+                live.add((T) entities[slot]);
+                String[] words = new String[slotTerms[slot].length];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = termText.get(slotTerms[slot][i]);
+                }
+                liveWords.add(words);
+            }
+        }
+        termIds.clear();
+        terms.clear();
+        termText.clear();
+        postings.clear();
+        alphabet.setLength(0);
+        int capacity = 16;
+        while (capacity < live.size()) {
+            capacity <<= 1;
+        }
+        entities = new Object[capacity];
+        slotTerms = new int[capacity][];
+        slotCount = 0;
+        size = 0;
+        slots = new IdCounter();
+        for (int i = 0; i < live.size(); i++) {
+            insert(live.get(i), idOf.applyAsInt(live.get(i)), liveWords.get(i));
+        }
+    }
+
+    private int term(String word) {
+        Integer existing = termIds.get(word);
+        if (existing != null) {
+            return existing;
+        }
+        int term = termText.size();
+        termIds.put(word, term);
+        terms.put(word, term);
+        termText.add(word);
+        postings.add(null);
+        for (int i = 0; i < word.length(); i++) {
+            if (alphabet.indexOf(String.valueOf(word.charAt(i))) < 0) {
+                alphabet.append(word.charAt(i));
+            }
+        }
+        return term;
+    }
+
+    // Up to 'limit' best matches, best first
+    public ArrayList<T> search(String query, int limit) {
+        String[] text = words(query);
+        ArrayList<T> results = new ArrayList<>();
+        if (text.length == 0 || limit <= 0) {
+            return results;
+        }
+        lock.readLock().lock();
+        try {
+            Word[] words = new Word[text.length];
+            int othersBest = 0;
+            for (int i = 0; i < text.length; i++) {
+                words[i] = new Word(text[i], this);
+                if (words[i].best == 0) {
+                    return results;
+                }
+                othersBest += words[i].best;
+            }
+            // The word with the fewest postings to scan drives
+            int driver = 0;
+            long fewest = words.length == 1 ? 0 : postingsToScan(words[0], Long.MAX_VALUE);
+            for (int i = 1; i < words.length && fewest > 0; i++) {
+                long postings = postingsToScan(words[i], fewest);
+                if (postings < fewest) {
+                    driver = i;
+                    fewest = postings;
+                }
+            }
+            Word driving = words[driver];
+            othersBest -= driving.best;
+            Top top = new Top(limit);
+
+            Integer exact = termIds.get(driving.text);
+            if (exact != null && !scan(exact, EXACT, words, driver, othersBest, top)) {
+                return top.results(entities, results);
+            }
+            for (Map.Entry<String, Integer> prefix : terms.subMap(driving.text, false,
+                    driving.text + Character.MAX_VALUE, false).entrySet()) {
+                if (!scan(prefix.getValue(), PREFIX, words, driver, othersBest, top)) {
+                    return top.results(entities, results);
+                }
+            }
+            for (int term : driving.typoTerms()) {
+                if (!scan(term, TYPO, words, driver, othersBest, top)) {
+                    break;
+                }
+            }
+            return top.results(entities, results);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Slots posted under the word's exact and prefix terms, or under its typo terms when it has
+    // no better match. Counting stops once past 'cap' or after PREFIX_ESTIMATE prefix terms; a
+    // word with that many is usually answered from its first few.
+    private long postingsToScan(Word word, long cap) {
+        long total = 0;
+        if (word.best == TYPO) {
+            for (int term : word.typoTerms()) {
+                total += postings.get(term)[0];
+            }
+            return total;
+        }
+        Integer exact = termIds.get(word.text);
+        if (exact != null) {
+            total += postings.get(exact)[0];
+        }
+        int counted = 0;
+        for (Map.Entry<String, Integer> prefix : terms.subMap(word.text, false,
+                word.text + Character.MAX_VALUE, false).entrySet()) {
+            if (total >= cap || ++counted > PREFIX_ESTIMATE) {
+                break;
+            }
+            total += postings.get(prefix.getValue())[0];
+        }
+        return total;
+    }
+
+    // IDs of the terms one substitution, insertion, deletion or adjacent swap away from the
+    // word, ascending; terms the word is a prefix of are left out, as they rank higher
+    private int[] typoTerms(String word) {
+        int n = word.length();
+        char[] chars = word.toCharArray();
+        char[] buffer = new char[n + 1];
+        int[] found = null;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(chars, 0, buffer, 0, i);
+            System.arraycopy(chars, i + 1, buffer, i, n - i - 1);
+            found = lookUp(found, buffer, n - 1, word);
+            if (i + 1 < n && chars[i] != chars[i + 1]) {
+                System.arraycopy(chars, 0, buffer, 0, n);
+                buffer[i] = chars[i + 1];
+                buffer[i + 1] = chars[i];
+                found = lookUp(found, buffer, n, word);
+            }
+        }
+        for (int i = 0; i <= n; i++) {
+            for (int a = 0; a < alphabet.length(); a++) {
+                char c = alphabet.charAt(a);
+                if (i < n && c != chars[i]) {
+                    System.arraycopy(chars, 0, buffer, 0, n);
+                    buffer[i] = c;
+                    found = lookUp(found, buffer, n, word);
+                }
+                System.arraycopy(chars, 0, buffer, 0, i);
+                buffer[i] = c;
+                System.arraycopy(chars, i, buffer, i + 1, n - i);
+                found = lookUp(found, buffer, n + 1, word);
+            }
+        }
+        if (found == null) {
+            return new int[0];
+        }
+        int[] sorted = Arrays.copyOfRange(found, 1, found[0] + 1);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private int[] lookUp(int[] found, char[] buffer, int length, String word) {
+        if (length == 0) {
+            return found;
+        }
+        String variant = new String(buffer, 0, length);
+        Integer term = termIds.get(variant);
+        return term == null || variant.startsWith(word) ? found : append(found, term);
+    }
+
+    // Scores the slots posted under one term of the driving word; false once nothing left can
+    // enter the top results
+    private boolean scan(int term, int tier, Word[] words, int driver, int othersBest, Top top) {
+        if (top.isFull() && top.lowest() >= tier + othersBest) {
+            return false;
+        }
+        int[] list = postings.get(term);
+        for (int i = 1; i <= list[0]; i++) {
+            int slot = list[i];
+            int[] nameTerms = slotTerms[slot];
+            int score = 0;
+            for (int w = 0; w < words.length; w++) {
+                int best = 0;
+                int first = -1;
+                for (int candidate : nameTerms) {
+                    int match = words[w].match(termText.get(candidate));
+                    if (match > best
+                            || (match == best && match > 0 && w == driver && scannedBefore(match, candidate, first))) {
+                        best = match;
+                        first = candidate;
+                    }
+                }
+                // Seen before under a better-matching or earlier term of the driving word
+                if (best == 0 || (w == driver && (best != tier || first != term))) {
+                    score = 0;
+                    break;
+                }
+                score += best;
+            }
+            if (score > 0) {
+                top.offer(slot, score);
+                if (top.isFull() && top.lowest() >= tier + othersBest) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Whether the scan reaches term a before term b when both match the driving word at 'tier':
+    // prefix terms come in text order, typo terms in ID order
+    private boolean scannedBefore(int tier, int a, int b) {
+        return tier == PREFIX ? termText.get(a).compareTo(termText.get(b)) < 0 : a < b;
+    }
+
+    private static final class Word {
+        final String text;
+        // Best tier any indexed term can reach; 0 when nothing matches
+        final int best;
+        private final NameIndex<?> index;
+        private int[] typoTerms;
+
+        Word(String text, NameIndex<?> index) {
+            this.text = text;
+            this.index = index;
+            if (index.termIds.containsKey(text)) {
+                best = EXACT;
+            } else {
+                String next = index.terms.higherKey(text);
+                best = next != null && next.startsWith(text) ? PREFIX : typoTerms().length > 0 ? TYPO : 0;
+            }
+        }
+
+        int[] typoTerms() {
+            if (typoTerms == null) {
+                typoTerms = text.length() < 3 ? new int[0] : index.typoTerms(text);
+            }
+            return typoTerms;
+        }
+
+        int match(String term) {
+            if (term.startsWith(text)) {
+                return term.length() == text.length() ? EXACT : PREFIX;
+            }
+            return text.length() >= 3 && oneEditApart(text, term) ? TYPO : 0;
+        }
+    }
+
+    // Fixed-size best-first list; an offer only displaces strictly lower scores
+    private static final class Top {
+        private final int[] slots;
+        private final int[] scores;
+        private int count;
+
+        Top(int limit) {
+            slots = new int[limit];
+            scores = new int[limit];
+        }
+
+        boolean isFull() {
+            return count == slots.length;
+        }
+
+        int lowest() {
+            return scores[count - 1];
+        }
+
+        void offer(int slot, int score) {
+            if (isFull() && score <= lowest()) {
+                return;
+            }
+            int at = isFull() ? count - 1 : count++;
+            while (at > 0 && scores[at - 1] < score) {
+                slots[at] = slots[at - 1];
+                scores[at] = scores[at - 1];
+                at--;
+            }
+            slots[at] = slot;
+            scores[at] = score;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> ArrayList<T> results(Object[] entities, ArrayList<T> into) {
+            for (int i = 0; i < count; i++) {
+                into.add((T) entities[slots[i]]);
+            }
+            return into;
+        }
+    }
+
+    // Lower-case words split at anything that is not a letter or digit
+    static String[] words(String name) {
+        if (name == null) {
+            return new String[0];
+        }
+        ArrayList<String> words = new ArrayList<>(4);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= name.length(); i++) {
+            char c = i < name.length() ? name.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    // Whether the strings differ by exactly one substitution, insertion, deletion or adjacent swap
+    static boolean oneEditApart(String a, String b) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > 1) {
+            return false;
+        }
+        int i = 0;
+        while (i < n && i < m && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (n > m) {
+            return a.regionMatches(i + 1, b, i, m - i);
+        }
+        if (m > n) {
+            return b.regionMatches(i + 1, a, i, n - i);
+        }
+        if (i == n) {
+            return false;
+        }
+        return a.regionMatches(i + 1, b, i + 1, n - i - 1) || (i + 1 < n && a.charAt(i) == b.charAt(i + 1)
+                && a.charAt(i + 1) == b.charAt(i) && a.regionMatches(i + 2, b, i + 2, n - i - 2));
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(int[] list, int value) {
+        if (list == null) {
+            list = new int[4];
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[++list[0]] = value;
+        return list;
+    }
+}
+
+class CategoryDictionary {
+    // Category names interned to small int codes in first-seen order, each with running stock
+    // and sales totals. Codes are never reused, so a code stored in an inventory slot stays valid.
+    // Stock totals follow every quantity change in the InventoryStore and sales totals follow
+    // prescriptions as they are registered and deleted, so a category report reads one entry per
+    // category instead of scanning medicines or prescriptions.
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    // Grown by doubling; entries below count are final once published
+    private volatile Totals[] totals = new Totals[8];
+    private volatile int count;
+
+    public static class Totals {
+        private final int code;
+        private final String name;
+        private final LongAdder medicines = new LongAdder();
+        private final LongAdder stockUnits = new LongAdder();
+        private final LongAdder unitsSold = new LongAdder();
+        private final LongAdder salesSen = new LongAdder();
+
+        Totals(int code, String name) {
+            this.code = code;
+            this.name = name;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getMedicines() {
+            return medicines.sum();
+        }
+
+        public long getStockUnits() {
+            return stockUnits.sum();
+        }
+
+        public long getUnitsSold() {
+            return unitsSold.sum();
+        }
+
+        public long getSalesSen() {
+            return salesSen.sum();
+        }
+    }
+
+    // Code for the name, assigning the next one the first time it is seen
+    public synchronized int intern(String name) {
+        Integer code = codes.get(name);
+        if (code != null) {
+            return code;
+        }
+        int next = count;
+        Totals[] current = totals;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, next * 2);
+        }
+        current[next] = new Totals(next, name);
+        totals = current;
+        codes.put(name, next);
+        count = next + 1;
+        return next;
+    }
+
+    // Code for the name, or -1 if it has never been interned
+    public synchronized int find(String name) {
+        Integer code = codes.get(name);
+        return code == null ? -1 : code;
+    }
+
+    public String name(int code) {
+        return totals[code].name;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Totals totals(int code) {
+        return totals[code];
+    }
+
+    void addMedicine(int code, int quantity) {
+        Totals entry = totals[code];
+        entry.medicines.increment();
+        entry.stockUnits.add(quantity);
+    }
+
+    void removeMedicine(int code, int quantity) {
+        Totals entry = totals[code];
+        entry.medicines.decrement();
+        entry.stockUnits.add(-quantity);
+    }
+
+    void addStock(int code, long delta) {
+        totals[code].stockUnits.add(delta);
+    }
+
+    void addSales(int code, long units, long sen) {
+        Totals entry = totals[code];
+        entry.unitsSold.add(units);
+        entry.salesSen.add(sen);
+    }
+
+    void adjust(int code, long medicines, long stockUnits, long unitsSold, long salesSen) {
+        Totals entry = totals[code];
+        entry.medicines.add(medicines);
+        entry.stockUnits.add(stockUnits);
+        entry.unitsSold.add(unitsSold);
+        entry.salesSen.add(salesSen);
+    }
+}
+
+class InventoryStore {
+    // Struct-of-arrays medicine columns (id, stock state, price, category code) held off-heap in
+    // fixed-size direct buffer chunks. Chunks are never moved, so a CAS on a slot can never race
+    // a resize. Names stay on the Medicine objects, which act as facades over their slot and
+    // double as the side table for scans.
+    //
+    // A slot's stock state is one long, the attach's ownership stamp in the high half and the
+    // quantity in the low half, so every stock change is a single CAS that also checks the slot
+    // still belongs to the caller. Category totals are adjusted just before the CAS and backed
+    // out if it is refused, so a detach always removes exactly what was added.
+    //
+    // Slots are also kept in a stock-level index for low-stock queries: bucketed by the quantity
+    // recorded in their INDEXED column, with their place in the bucket in POSITIONS. A stock
+    // change only sets the slot's bit in the chunk's PENDING bitmap (and the word's bit in
+    // PENDING_WORDS); queries re-level the pending slots under levelLock before reading the
+    // buckets, so reservations never wait on the index.
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int SLOT_MASK = CHUNK_SLOTS - 1;
+    private static final int IDS = 0;
+    private static final int STATES = 4 * CHUNK_SLOTS; // stamp << 32 | quantity
+    private static final int PRICES = 12 * CHUNK_SLOTS; // sen
+    private static final int INDEXED = 20 * CHUNK_SLOTS; // quantity the slot is indexed under
+    private static final int POSITIONS = 24 * CHUNK_SLOTS; // place in its level bucket, -1 if none
+    private static final int CATEGORIES = 28 * CHUNK_SLOTS; // CategoryDictionary code
+    private static final int PENDING = 32 * CHUNK_SLOTS; // one bit per slot
+    private static final int PENDING_WORDS = PENDING + CHUNK_SLOTS / 8; // one bit per PENDING long
+    private static final int CHUNK_BYTES = PENDING_WORDS + 8;
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final int UNOWNED = 0;
+    // Exact buckets for quantities below EXACT_LEVELS (bucket 0 holds every negative quantity),
+    // then 32 buckets per power of two
+    private static final int EXACT_LEVELS = 1024;
+    private static final int LEVEL_BUCKETS = EXACT_LEVELS + 1 + (31 - 10) * 32;
+    // Shared by every store, so a stale binding never matches a slot in another store either
+    private static final AtomicInteger STAMPS = new AtomicInteger();
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile Medicine[] facades = new Medicine[0];
+    // Slots below highWater have been handed out at least once; scans stop there
+    private volatile int highWater;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int size;
+    // Guards the level buckets and the INDEXED and POSITIONS columns
+    private final Object levelLock = new Object();
+    private final int[][] levelSlots = new int[LEVEL_BUCKETS][];
+    private final int[] levelSizes = new int[LEVEL_BUCKETS];
+    private long[] levelKeys = new long[64];
+    private final CategoryDictionary categories = new CategoryDictionary();
+    // Receives every quantity change on an attached medicine; null when nobody listens
+    private final StockEventStream events;
+
+    public InventoryStore() {
+        this(null);
+    }
+
+    public InventoryStore(StockEventStream events) {
+        this.events = events;
+    }
+
+    // Moves the medicine's stock, price and category into a slot; the Medicine then reads and
+    // writes them here
+    public synchronized void attach(Medicine medicine) {
+        int quantity = medicine.moveQuantity();
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : highWater;
+        if (slot == highWater) {
+            ensureSlot(slot);
+        }
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        int category = categories.intern(medicine.getCategory());
+        int stamp;
+        do {
+            stamp = STAMPS.incrementAndGet();
+        } while (stamp == UNOWNED);
+        LONG.setVolatile(chunk, PRICES + 8 * offset, medicine.getPriceSen());
+        INT.setVolatile(chunk, CATEGORIES + 4 * offset, category);
+        INT.setVolatile(chunk, IDS + 4 * offset, medicine.getMedicineId());
+        categories.addMedicine(category, quantity);
+        LONG.setVolatile(chunk, STATES + 8 * offset, state(stamp, quantity));
+        facades[slot] = medicine;
+        // Indexed before the binding is published, so no change to the slot can predate it
+        synchronized (levelLock) {
+            chunk.putInt(INDEXED + 4 * offset, quantity);
+            addLevel(slot, quantity);
+        }
+        medicine.bind(this, state(stamp, slot));
+        if (slot == highWater) {
+            highWater = slot + 1;
+        }
+        size++;
+    }
+
+    // Copies the slot's values back onto the Medicine and frees the slot. Clearing the stamp
+    // refuses every later change to the slot, so the quantity it returns is final; callers that
+    // were refused wait for unbind and apply their change to the Medicine instead.
+    public synchronized void detach(Medicine medicine) {
+        long binding = medicine.bindingIn(this);
+        if (binding < 0) {
+            return;
+        }
+        int slot = (int) binding;
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        int quantity = (int) (long) LONG.getAndBitwiseAnd(chunk, STATES + 8 * offset, 0xFFFFFFFFL);
+        medicine.unbind(quantity, priceSen(slot));
+        INT.setVolatile(chunk, IDS + 4 * offset, FREE);
+        facades[slot] = null;
+        synchronized (levelLock) {
+            removeLevel(slot, chunk.getInt(INDEXED + 4 * offset));
+        }
+        categories.removeMedicine(categoryCode(slot), quantity);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    private void ensureSlot(int slot) {
+        int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk < chunks.length) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < CHUNK_SLOTS; i++) {
+            buffer.putInt(IDS + 4 * i, FREE);
+            buffer.putInt(POSITIONS + 4 * i, -1);
+        }
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+        grown[chunk] = buffer;
+        facades = Arrays.copyOf(facades, (chunk + 1) * CHUNK_SLOTS);
+        chunks = grown;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long state(int stamp, int quantity) {
+        return (long) stamp << 32 | (quantity & 0xFFFFFFFFL);
+    }
+
+    int quantity(int slot) {
+        return (int) (long) LONG.getVolatile(chunks[slot >>> CHUNK_SHIFT], STATES + 8 * (slot & SLOT_MASK));
+    }
+
+    // The slot mutators below take the caller's binding and refuse the change (false or
+    // DETACHED) unless the slot's stamp still matches it
+    static final int DETACHED = Integer.MIN_VALUE;
+
+    boolean setQuantity(Medicine medicine, long binding, int quantity) {
+        int slot = (int) binding;
+        int stamp = (int) (binding >>> 32);
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        int index = STATES + 8 * offset;
+        int category = chunk.getInt(CATEGORIES + 4 * offset);
+        while (true) {
+            long state = (long) LONG.getVolatile(chunk, index);
+            if ((int) (state >>> 32) != stamp) {
+                return false;
+            }
+            long delta = (long) quantity - (int) state;
+            categories.addStock(category, delta);
+            if (LONG.compareAndSet(chunk, index, state, state(stamp, quantity))) {
+                markPending(chunk, offset);
+                publish(StockEvent.Kind.SET, medicine, (int) state, quantity);
+                return true;
+            }
+            categories.addStock(category, -delta);
+        }
+    }
+
+    long priceSen(int slot) {
+        return (long) LONG.getVolatile(chunks[slot >>> CHUNK_SHIFT], PRICES + 8 * (slot & SLOT_MASK));
+    }
+
+    // Price changes are rare, so they take the store's lock rather than a CAS; detach holds it
+    // too, so the price it copies back is final
+    synchronized boolean setPriceSen(long binding, long priceSen) {
+        int slot = (int) binding;
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        if ((int) ((long) LONG.getVolatile(chunk, STATES + 8 * offset) >>> 32) != (int) (binding >>> 32)) {
+            return false;
+        }
+        LONG.setVolatile(chunk, PRICES + 8 * offset, priceSen);
+        return true;
+    }
+
+    int categoryCode(int slot) {
+        return (int) INT.getVolatile(chunks[slot >>> CHUNK_SHIFT], CATEGORIES + 4 * (slot & SLOT_MASK));
+    }
+
+    String category(int slot) {
+        return categories.name(categoryCode(slot));
+    }
+
+    public CategoryDictionary getCategories() {
+        return categories;
+    }
+
+    // 1 if reserved, 0 if there is not enough stock, or DETACHED
+    int tryReserve(Medicine medicine, long binding, int amount) {
+        int slot = (int) binding;
+        int stamp = (int) (binding >>> 32);
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        int index = STATES + 8 * offset;
+        long state = (long) LONG.getVolatile(chunk, index);
+        if ((int) (state >>> 32) != stamp) {
+            return DETACHED;
+        }
+        if ((int) state < amount) {
+            return 0;
+        }
+        int category = chunk.getInt(CATEGORIES + 4 * offset);
+        categories.addStock(category, -amount);
+        while (!LONG.compareAndSet(chunk, index, state, state(stamp, (int) state - amount))) {
+            state = (long) LONG.getVolatile(chunk, index);
+            if ((int) (state >>> 32) != stamp || (int) state < amount) {
+                categories.addStock(category, amount);
+                return (int) (state >>> 32) != stamp ? DETACHED : 0;
+            }
+        }
+        markPending(chunk, offset);
+        publish(StockEvent.Kind.DISPENSED, medicine, (int) state, (int) state - amount);
+        return 1;
+    }
+
+    // The new quantity, or DETACHED
+    int addQuantity(Medicine medicine, long binding, int delta) {
+        int slot = (int) binding;
+        int stamp = (int) (binding >>> 32);
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int offset = slot & SLOT_MASK;
+        int index = STATES + 8 * offset;
+        long state = (long) LONG.getVolatile(chunk, index);
+        if ((int) (state >>> 32) != stamp) {
+            return DETACHED;
+        }
+        if (delta == 0) {
+            return (int) state;
+        }
+        int category = chunk.getInt(CATEGORIES + 4 * offset);
+        categories.addStock(category, delta);
+        while (!LONG.compareAndSet(chunk, index, state, state(stamp, (int) state + delta))) {
+            state = (long) LONG.getVolatile(chunk, index);
+            if ((int) (state >>> 32) != stamp) {
+                categories.addStock(category, -delta);
+                return DETACHED;
+            }
+        }
+        int updated = (int) state + delta;
+        markPending(chunk, offset);
+        publish(delta > 0 ? StockEvent.Kind.RESTOCKED : StockEvent.Kind.DISPENSED, medicine, updated - delta,
+                updated);
+        return updated;
+    }
+
+    private void publish(StockEvent.Kind kind, Medicine medicine, int before, int after) {
+        if (events != null && events.isActive()) {
+            events.publish(kind, medicine, before, after);
+        }
+    }
+
+    // Called after the CAS; the bits are only written when not already set, so a slot that
+    // keeps changing between queries costs two reads
+    private static void markPending(ByteBuffer chunk, int offset) {
+        int word = PENDING + 8 * (offset >>> 6);
+        long bit = 1L << offset;
+        if (((long) LONG.getVolatile(chunk, word) & bit) == 0) {
+            LONG.getAndBitwiseOr(chunk, word, bit);
+        }
+        long wordBit = 1L << (offset >>> 6);
+        if (((long) LONG.getVolatile(chunk, PENDING_WORDS) & wordBit) == 0) {
+            LONG.getAndBitwiseOr(chunk, PENDING_WORDS, wordBit);
+        }
+    }
+
+    private static int levelBucket(int quantity) {
+        if (quantity < EXACT_LEVELS) {
+            return quantity < 0 ? 0 : quantity + 1;
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(quantity);
+        return EXACT_LEVELS + 1 + (exponent - 10) * 32 + ((quantity >>> (exponent - 5)) & 31);
+    }
+
+    // Caller holds levelLock for the level helpers below
+    private void addLevel(int slot, int quantity) {
+        int bucket = levelBucket(quantity);
+        int[] slots = levelSlots[bucket];
+        int count = levelSizes[bucket];
+        if (slots == null) {
+            slots = levelSlots[bucket] = new int[8];
+        } else if (count == slots.length) {
+            slots = levelSlots[bucket] = Arrays.copyOf(slots, count * 2);
+        }
+        slots[count] = slot;
+        levelSizes[bucket] = count + 1;
+        chunks[slot >>> CHUNK_SHIFT].putInt(POSITIONS + 4 * (slot & SLOT_MASK), count);
+    }
+
+    // Swaps the bucket's last slot into the gap
+    private void removeLevel(int slot, int quantity) {
+        int bucket = levelBucket(quantity);
+        int[] slots = levelSlots[bucket];
+        ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+        int position = chunk.getInt(POSITIONS + 4 * (slot & SLOT_MASK));
+        int last = --levelSizes[bucket];
+        int moved = slots[last];
+        slots[position] = moved;
+        chunks[moved >>> CHUNK_SHIFT].putInt(POSITIONS + 4 * (moved & SLOT_MASK), position);
+        chunk.putInt(POSITIONS + 4 * (slot & SLOT_MASK), -1);
+    }
+
+    // Each pending bit is cleared before the quantity is read, so a change that lands after the
+    // read sets it again for the next query
+    private void syncLevels() {
+        ByteBuffer[] columns = chunks;
+        for (int c = 0; c < columns.length; c++) {
+            ByteBuffer chunk = columns[c];
+            if ((long) LONG.getVolatile(chunk, PENDING_WORDS) == 0) {
+                continue;
+            }
+            long words = (long) LONG.getAndSet(chunk, PENDING_WORDS, 0L);
+            while (words != 0) {
+                int word = Long.numberOfTrailingZeros(words);
+                words &= words - 1;
+                long bits = (long) LONG.getAndSet(chunk, PENDING + 8 * word, 0L);
+                while (bits != 0) {
+                    int offset = word << 6 | Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (chunk.getInt(POSITIONS + 4 * offset) < 0) {
+                        continue; // freed since it changed
+                    }
+                    int slot = c << CHUNK_SHIFT | offset;
+                    int indexed = chunk.getInt(INDEXED + 4 * offset);
+                    int current = quantity(slot);
+                    if (levelBucket(indexed) != levelBucket(current)) {
+                        removeLevel(slot, indexed);
+                        addLevel(slot, current);
+                    }
+                    chunk.putInt(INDEXED + 4 * offset, current);
+                }
+            }
+        }
+    }
+
+    // Medicines with quantity <= threshold in ascending (quantity, slot) order, from the
+    // stock-level index: re-levels the slots changed since the last query, then reads the
+    // buckets up to the threshold's, sorting the k matches
+    public ArrayList<Medicine> findAtOrBelow(int threshold) {
+        ArrayList<Medicine> found = new ArrayList<>();
+        synchronized (levelLock) {
+            syncLevels();
+            Medicine[] side = facades;
+            int last = levelBucket(threshold);
+            for (int bucket = 0; bucket <= last; bucket++) {
+                int count = levelSizes[bucket];
+                if (count == 0) {
+                    continue;
+                }
+                if (levelKeys.length < count) {
+                    levelKeys = new long[Math.max(count, levelKeys.length * 2)];
+                }
+                long[] keys = levelKeys;
+                int[] slots = levelSlots[bucket];
+                int matches = 0;
+                for (int i = 0; i < count; i++) {
+                    int slot = slots[i];
+                    int quantity = chunks[slot >>> CHUNK_SHIFT].getInt(INDEXED + 4 * (slot & SLOT_MASK));
+                    if (quantity <= threshold) {
+                        keys[matches++] = (long) quantity << 32 | slot;
+                    }
+                }
+                Arrays.sort(keys, 0, matches);
+                for (int i = 0; i < matches; i++) {
+                    Medicine medicine = side[(int) keys[i]];
+                    if (medicine != null) {
+                        found.add(medicine);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    // Full column scan for quantity <= threshold, in slot order. Only the id and stock state
+    // columns are read; a facade is touched only for a match.
+    public ArrayList<Medicine> scanAtOrBelow(int threshold) {
+        ArrayList<Medicine> found = new ArrayList<>();
+        ByteBuffer[] columns = chunks;
+        Medicine[] side = facades;
+        int end = highWater;
+        for (int base = 0; base < end; base += CHUNK_SLOTS) {
+            ByteBuffer chunk = columns[base >>> CHUNK_SHIFT];
+            int slots = Math.min(CHUNK_SLOTS, end - base);
+            for (int i = 0; i < slots; i++) {
+                if ((int) chunk.getLong(STATES + 8 * i) <= threshold && chunk.getInt(IDS + 4 * i) != FREE) {
+                    Medicine medicine = side[base + i];
+                    if (medicine != null) {
+                        found.add(medicine);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    // Sum of quantity * price over the catalogue in sen, from the stock state and price columns
+    public long stockValueSen() {
+        long total = 0;
+        ByteBuffer[] columns = chunks;
+        int end = highWater;
+        for (int base = 0; base < end; base += CHUNK_SLOTS) {
+            ByteBuffer chunk = columns[base >>> CHUNK_SHIFT];
+            int slots = Math.min(CHUNK_SLOTS, end - base);
+            for (int i = 0; i < slots; i++) {
+                if (chunk.getInt(IDS + 4 * i) != FREE) {
+                    total += (int) chunk.getLong(STATES + 8 * i) * chunk.getLong(PRICES + 8 * i);
+                }
+            }
+        }
+        return total;
+    }
+}
+
+class StockEvent {
+    // DISPENSED covers every decrease (dispensing, imported history), RESTOCKED every increase
+    // (deliveries, stock returned by a deleted prescription), SET an absolute overwrite
+    public enum Kind {
+        DISPENSED, RESTOCKED, SET
+    }
+
+    private final Kind kind;
+    private final int medicineId;
+    private final String name;
+    private final String category;
+    private final int before;
+    private final int after;
+
+    public StockEvent(Kind kind, int medicineId, String name, String category, int before, int after) {
+        this.kind = kind;
+        this.medicineId = medicineId;
+        this.name = name;
+        this.category = category;
+        this.before = before;
+        this.after = after;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getMedicineId() {
+        return medicineId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getBefore() {
+        return before;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    // True when this change took the quantity from above the threshold to at or below it
+    public boolean crossedBelow(int threshold) {
+        return before > threshold && after <= threshold;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + name + " (" + medicineId + "): " + before + " -> " + after;
+    }
+}
+
+class StockEventStream implements Closeable {
+    // Stock changes are published into a bounded multi-producer ring and delivered to
+    // subscribers on one consumer thread, so a slow subscriber never delays a dispenser.
+    // Each ring slot carries a sequence number (Vyukov-style): a producer claims a slot by
+    // CAS on the tail, fills the parallel arrays, then publishes by writing the sequence.
+    // When the ring is full the event is dropped and counted rather than blocking the producer.
+    // Nothing is published until the first subscription, and the consumer thread starts then.
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Medicine[] medicines;
+    private final int[] befores;
+    private final int[] afters;
+    private final byte[] kinds;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer thread only
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder subscriberErrors = new LongAdder();
+
+    private final CopyOnWriteArrayList<Subscription> allSubscriptions = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<Integer, CopyOnWriteArrayList<Subscription>> byMedicine = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> byCategory = new ConcurrentHashMap<>();
+
+    private volatile boolean active;
+    private volatile boolean closed;
+    private volatile boolean consumerWaiting;
+    private Thread consumer;
+
+    private static final StockEvent.Kind[] KINDS = StockEvent.Kind.values();
+
+    public StockEventStream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StockEventStream(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        medicines = new Medicine[capacity];
+        befores = new int[capacity];
+        afters = new int[capacity];
+        kinds = new byte[capacity];
+    }
+
+    public static class Subscription {
+        private final StockEventStream stream;
+        private final CopyOnWriteArrayList<Subscription> list;
+        private final int threshold; // alert subscriptions fire on crossing it; NONE gets every event
+        private final Consumer<StockEvent> listener;
+
+        static final int NONE = Integer.MIN_VALUE;
+
+        private Subscription(StockEventStream stream, CopyOnWriteArrayList<Subscription> list, int threshold,
+                Consumer<StockEvent> listener) {
+            this.stream = stream;
+            this.list = list;
+            this.threshold = threshold;
+            this.listener = listener;
+        }
+
+        public void cancel() {
+            list.remove(this);
+        }
+
+        private void deliver(StockEvent event) {
+            if (threshold == NONE || event.crossedBelow(threshold)) {
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException e) {
+                    stream.subscriberErrors.increment();
+                }
+            }
+        }
+    }
+
+    // Every stock change on every medicine
+    public Subscription subscribe(Consumer<StockEvent> listener) {
+        return add(allSubscriptions, Subscription.NONE, listener);
+    }
+
+    // Low-stock alerts: the listener runs when a change takes the quantity to or below threshold
+    public Subscription onLowStock(int threshold, Consumer<StockEvent> listener) {
+        return add(allSubscriptions, threshold, listener);
+    }
+
+    public Subscription onLowStock(int medicineId, int threshold, Consumer<StockEvent> listener) {
+        return add(byMedicine.computeIfAbsent(medicineId, id -> new CopyOnWriteArrayList<>()), threshold, listener);
+    }
+
+    public Subscription onLowStockInCategory(String category, int threshold, Consumer<StockEvent> listener) {
+        return add(byCategory.computeIfAbsent(category, c -> new CopyOnWriteArrayList<>()), threshold, listener);
+    }
+
+    private synchronized Subscription add(CopyOnWriteArrayList<Subscription> list, int threshold,
+            Consumer<StockEvent> listener) {
+        if (closed) {
+            throw new IllegalStateException("Stock event stream is closed");
+        }
+        Subscription subscription = new Subscription(this, list, threshold, listener);
+        list.add(subscription);
+        if (consumer == null) {
+            consumer = new Thread(this::consume, "stock-events");
+            consumer.setDaemon(true);
+            consumer.start();
+            active = true;
+        }
+        return subscription;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    public long getSubscriberErrors() {
+        return subscriberErrors.sum();
+    }
+
+    // Called by InventoryStore after every successful quantity change; never blocks
+    void publish(StockEvent.Kind kind, Medicine medicine, int before, int after) {
+        long claimed;
+        while (true) {
+            claimed = tail.get();
+            long sequence = sequences.get((int) claimed & mask);
+            if (sequence == claimed) {
+                if (tail.compareAndSet(claimed, claimed + 1)) {
+                    break;
+                }
+            } else if (sequence < claimed) {
+                dropped.increment();
+                return;
+            }
+        }
+        int index = (int) claimed & mask;
+        medicines[index] = medicine;
+        befores[index] = before;
+        afters[index] = after;
+        kinds[index] = (byte) kind.ordinal();
+        sequences.set(index, claimed + 1);
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                if (closed) {
+                    return;
+                }
+                consumerWaiting = true;
+                // Re-check after announcing, so a publish racing the flag is not slept through
+                if (sequences.get(index) != head + 1 && !closed) {
+                    LockSupport.parkNanos(10_000_000L);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+            Medicine medicine = medicines[index];
+            StockEvent event = new StockEvent(KINDS[kinds[index]], medicine.getMedicineId(), medicine.getName(),
+                    medicine.getCategory(), befores[index], afters[index]);
+            medicines[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            dispatch(event);
+        }
+    }
+
+    private void dispatch(StockEvent event) {
+        for (Subscription subscription : allSubscriptions) {
+            subscription.deliver(event);
+        }
+        CopyOnWriteArrayList<Subscription> forMedicine = byMedicine.get(event.getMedicineId());
+        if (forMedicine != null) {
+            for (Subscription subscription : forMedicine) {
+                subscription.deliver(event);
+            }
+        }
+        CopyOnWriteArrayList<Subscription> forCategory = event.getCategory() == null ? null
+                : byCategory.get(event.getCategory());
+        if (forCategory != null) {
+            for (Subscription subscription : forCategory) {
+                subscription.deliver(event);
+            }
+        }
+    }
+
+    // Stops accepting subscriptions, delivers what is already in the ring, then stops the consumer
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            active = false;
+            thread = consumer;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+class Journal implements Closeable {
+    // Append-only binary log of every PharmacyManager mutation, replayed on startup.
+    // Record layout: [int length][int crc32][byte type][payload], strings as [int length][UTF-8].
+    public enum SyncMode {
+        PER_OPERATION, // fsync inside every append
+        GROUP_COMMIT   // one fsync covers every record appended while the previous fsync ran
+    }
+
+    static final byte ADD_DOCTOR = 1;
+    static final byte ADD_PATIENT = 2;
+    static final byte ADD_MEDICINE = 3;
+    static final byte ADD_PHARMACIST = 4;
+    static final byte ADD_PRESCRIPTION = 5;
+    static final byte DELETE_DOCTOR = 6;
+    static final byte DELETE_PATIENT = 7;
+    static final byte DELETE_MEDICINE = 8;
+    static final byte DELETE_PRESCRIPTION = 9;
+    static final byte DELETE_PHARMACIST = 10;
+    static final byte UPDATE_STOCK = 11;
+    // Replaces ADD_PRESCRIPTION (lines carried full medicine records); older journals still replay
+    static final byte ADD_PRESCRIPTION_LINES = 12;
+    static final byte UPDATE_STOCK_BATCH = 13;
+    // Replaces ADD_PRESCRIPTION_LINES (line prices as doubles); line prices are written in sen
+    static final byte ADD_PRESCRIPTION_SEN = 14;
+    // Replaces ADD_MEDICINE (price as a double); the price is written in sen
+    static final byte ADD_MEDICINE_SEN = 15;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final SyncMode syncMode;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    // GROUP_COMMIT appends are buffered and written out by the thread leading the next fsync
+    private final ByteBuffer pending = ByteBuffer.allocateDirect(256 * 1024);
+    private volatile long writtenPosition;
+
+    // Group commit state, guarded by syncLock
+    private final Object syncLock = new Object();
+    private long syncedPosition;
+    private boolean syncInProgress;
+
+    public Journal(Path path, SyncMode syncMode) {
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal " + path, e);
+        }
+        this.syncMode = syncMode;
+    }
+
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    // End of the last appended record
+    public long position() {
+        return writtenPosition;
+    }
+
+    // Logging methods return the end position of the record; pass it to awaitDurable()
+    public synchronized long logAddDoctor(Doctor doctor) {
+        begin(ADD_DOCTOR);
+        putInt(doctor.getDoctorId());
+        putString(doctor.getName());
+        putString(doctor.getSpecialty());
+        putString(doctor.getContactNumber());
+        return append();
+    }
+
+    public synchronized long logAddPatient(Patient patient) {
+        begin(ADD_PATIENT);
+        putInt(patient.getPatientId());
+        putString(patient.getName());
+        putInt(patient.getAge());
+        putString(patient.getContactNumber());
+        putString(patient.getAddress());
+        return append();
+    }
+
+    public synchronized long logAddMedicine(Medicine medicine) {
+        begin(ADD_MEDICINE_SEN);
+        putMedicine(medicine);
+        return append();
+    }
+
+    public synchronized long logAddPharmacist(Pharmacist pharmacist) {
+        begin(ADD_PHARMACIST);
+        putInt(pharmacist.getPharmacistId());
+        putString(pharmacist.getName());
+        putString(pharmacist.getShift());
+        return append();
+    }
+
+    // dispensed marks prescriptions whose lines were taken out of stock when they were created
+    public synchronized long logAddPrescription(Prescription prescription, boolean dispensed) {
+        begin(ADD_PRESCRIPTION_SEN);
+        putInt(prescription.getPrescriptionId());
+        putInt(prescription.getDoctorId());
+        putInt(prescription.getPatientId());
+        ensure(9);
+        record.putLong(prescription.getEpochDay());
+        record.put(dispensed ? (byte) 1 : (byte) 0);
+        putString(prescription.getStatus());
+        int lines = prescription.getLineCount();
+        ensure(4 + 16 * lines);
+        record.putInt(lines);
+        for (int i = 0; i < lines; i++) {
+            record.putInt(prescription.getLineMedicineId(i));
+            record.putInt(prescription.getLineQuantity(i));
+            record.putLong(prescription.getLinePriceSen(i));
+        }
+        return append();
+    }
+
+    public synchronized long logDelete(byte type, int id) {
+        begin(type);
+        putInt(id);
+        return append();
+    }
+
+    public synchronized long logStockUpdate(int medicineId, int quantity) {
+        begin(UPDATE_STOCK);
+        putInt(medicineId);
+        putInt(quantity);
+        return append();
+    }
+
+    // One record for a whole delivery: [count] then count (medicineId, quantity) pairs
+    public synchronized long logStockBatch(int[] medicineIds, int[] quantities, int count) {
+        begin(UPDATE_STOCK_BATCH);
+        ensure(4 + 8 * count);
+        record.putInt(count);
+        for (int i = 0; i < count; i++) {
+            record.putInt(medicineIds[i]);
+            record.putInt(quantities[i]);
+        }
+        return append();
+    }
+
+    private void begin(byte type) {
+        record.clear();
+        record.position(HEADER_SIZE);
+        record.put(type);
+    }
+
+    private void ensure(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        record.putInt(value);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        record.putInt(bytes.length);
+        record.put(bytes);
+    }
+
+    private void putMedicine(Medicine medicine) {
+        putInt(medicine.getMedicineId());
+        putString(medicine.getName());
+        putString(medicine.getCategory());
+        putInt(medicine.getQuantity());
+        ensure(8);
+        record.putLong(medicine.getPriceSen());
+    }
+
+    private long append() {
+        int length = record.position() - HEADER_SIZE;
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        int size = record.remaining();
+        try {
+            if (syncMode == SyncMode.PER_OPERATION) {
+                writeFully(record);
+                channel.force(false);
+            } else {
+                if (pending.remaining() < size) {
+                    drainPending();
+                }
+                if (pending.remaining() < size) {
+                    writeFully(record);
+                } else {
+                    pending.put(record);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal write failed", e);
+        }
+        writtenPosition += size;
+        return writtenPosition;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void drainPending() throws IOException {
+        pending.flip();
+        writeFully(pending);
+        pending.clear();
+    }
+
+    // Writes out buffered records and returns the position they reach
+    private synchronized long flush() throws IOException {
+        drainPending();
+        return writtenPosition;
+    }
+
+    // Blocks until everything up to position is on disk. With GROUP_COMMIT the first waiter
+    // becomes the leader and fsyncs everything written so far; the others wait for it.
+    public void awaitDurable(long position) {
+        if (syncMode == SyncMode.PER_OPERATION) {
+            return;
+        }
+        while (true) {
+            synchronized (syncLock) {
+                while (syncInProgress && syncedPosition < position) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted waiting for journal sync", e);
+                    }
+                }
+                if (syncedPosition >= position) {
+                    return;
+                }
+                syncInProgress = true;
+            }
+            long target = 0;
+            boolean synced = false;
+            try {
+                target = flush();
+                channel.force(false);
+                synced = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Journal sync failed", e);
+            } finally {
+                synchronized (syncLock) {
+                    syncInProgress = false;
+                    if (synced) {
+                        syncedPosition = Math.max(syncedPosition, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Re-applies every intact record to the manager, then truncates a torn tail left by a crash.
+    // The manager must not have this journal attached yet, or the replay would be logged again.
+    public synchronized int replay(PharmacyManager manager) {
+        return replay(manager, 0);
+    }
+
+    // Replays only the records from fromPosition on, e.g. the tail after a snapshot
+    public synchronized int replay(PharmacyManager manager, long fromPosition) {
+        int applied = 0;
+        long validEnd = fromPosition;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        try {
+            if (channel.size() < fromPosition) {
+                throw new IllegalStateException("Journal is shorter than the snapshot that refers to it");
+            }
+            channel.position(fromPosition);
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length <= 0 || length > 64 * 1024 * 1024) {
+                        eof = true;
+                        break;
+                    }
+                    if (buffer.remaining() < HEADER_SIZE + length) {
+                        if (buffer.capacity() < HEADER_SIZE + length) {
+                            ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(HEADER_SIZE + length) << 1);
+                            larger.put(buffer);
+                            buffer = larger;
+                            buffer.flip();
+                        }
+                        break;
+                    }
+                    int start = buffer.position();
+                    int checksum = buffer.getInt(start + 4);
+                    crc.reset();
+                    crc.update(buffer.array(), start + HEADER_SIZE, length);
+                    if ((int) crc.getValue() != checksum) {
+                        eof = true;
+                        break;
+                    }
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+                    apply(payload, manager);
+                    applied++;
+                    validEnd += HEADER_SIZE + length;
+                    buffer.position(start + HEADER_SIZE + length);
+                }
+                buffer.compact();
+            }
+            channel.truncate(validEnd);
+            channel.position(validEnd);
+            writtenPosition = validEnd;
+            synchronized (syncLock) {
+                syncedPosition = validEnd;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal replay failed", e);
+        }
+        return applied;
+    }
+
+    private static void apply(ByteBuffer in, PharmacyManager manager) {
+        byte type = in.get();
+        switch (type) {
+            case ADD_DOCTOR -> manager.addDoctor(new Doctor(in.getInt(), getString(in), getString(in), getString(in)));
+            case ADD_PATIENT -> manager.addPatient(new Patient(in.getInt(), getString(in), in.getInt(),
+                    getString(in), getString(in)));
+            case ADD_MEDICINE -> manager.addMedicine(getMedicine(in));
+            case ADD_MEDICINE_SEN -> {
+                Medicine medicine = new Medicine(in.getInt(), getString(in), getString(in), in.getInt(), 0.0);
+                medicine.setPriceSen(in.getLong());
+                manager.addMedicine(medicine);
+            }
+            case ADD_PHARMACIST -> manager.addPharmacist(new Pharmacist(in.getInt(), getString(in), getString(in)));
+            case ADD_PRESCRIPTION, ADD_PRESCRIPTION_LINES, ADD_PRESCRIPTION_SEN -> {
+                int prescriptionId = in.getInt();
+                int doctorId = in.getInt();
+                int patientId = in.getInt();
+                LocalDate date = LocalDate.ofEpochDay(in.getLong());
+                boolean dispensed = in.get() != 0;
+                Prescription prescription = new Prescription(prescriptionId, doctorId, patientId, date);
+                prescription.setStatus(getString(in));
+                int lines = in.getInt();
+                for (int i = 0; i < lines; i++) {
+                    if (type == ADD_PRESCRIPTION) {
+                        prescription.addMedicine(getMedicine(in));
+                    } else if (type == ADD_PRESCRIPTION_LINES) {
+                        prescription.addLine(in.getInt(), in.getInt(), Money.toSen(in.getDouble()));
+                    } else {
+                        prescription.addLine(in.getInt(), in.getInt(), in.getLong());
+                    }
+                }
+                manager.restorePrescription(prescription, dispensed);
+            }
+            case DELETE_DOCTOR -> manager.deleteDoctor(in.getInt());
+            case DELETE_PATIENT -> manager.deletePatient(in.getInt());
+            case DELETE_MEDICINE -> manager.deleteMedicine(in.getInt());
+            case DELETE_PRESCRIPTION -> manager.deletePrescription(in.getInt());
+            case DELETE_PHARMACIST -> manager.deletePharmacist(in.getInt());
+            case UPDATE_STOCK -> manager.restoreStock(in.getInt(), in.getInt());
+            case UPDATE_STOCK_BATCH -> {
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    manager.restoreStock(in.getInt(), in.getInt());
+                }
+            }
+            default -> throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Medicine records of ADD_MEDICINE and ADD_PRESCRIPTION, priced as doubles
+    private static Medicine getMedicine(ByteBuffer in) {
+        return new Medicine(in.getInt(), getString(in), getString(in), in.getInt(), in.getDouble());
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel.isOpen()) {
+                flush();
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal close failed", e);
+        }
+    }
+}
+
+class Snapshot {
+    // Compact point-in-time image of a PharmacyManager. Layout: header [magic][version]
+    // [journal position][entity counts], then one section per entity type as [tag][count]
+    // followed by length-prefixed records. Prescription lines keep only id, quantity and price; names
+    // and categories are taken from the medicine catalogue on load. Version 2 stores prices in
+    // sen; version 1 snapshots (prices as doubles) still load.
+    private static final int MAGIC = 0x50484D53; // "PHMS"
+    private static final int VERSION = 2;
+    private static final byte MEDICINES = 1;
+    private static final byte DOCTORS = 2;
+    private static final byte PATIENTS = 3;
+    private static final byte PHARMACISTS = 4;
+    private static final byte PRESCRIPTIONS = 5;
+    // Mapped windows are kept below the 2 GB MappedByteBuffer limit
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final FileChannel channel;
+    private ByteBuffer out;
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int version = VERSION;
+
+    private Snapshot(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    // Writes to a temporary file, fsyncs it and renames it over path, so a crash never
+    // leaves a half-written snapshot behind. The caller must keep the manager still.
+    static void write(PharmacyManager manager, Path path, long journalPosition) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Snapshot writer = new Snapshot(channel);
+            writer.out = ByteBuffer.allocate(1 << 20);
+            writer.out.putInt(MAGIC).putInt(VERSION).putLong(journalPosition);
+            writer.out.putInt(manager.getDoctors().size()).putInt(manager.getPatients().size())
+                    .putInt(manager.getMedicines().size()).putInt(manager.getPharmacists().size())
+                    .putInt(manager.getPrescriptions().size());
+
+            writer.section(MEDICINES, manager.getMedicines().size());
+            for (Medicine medicine : manager.getMedicines()) {
+                writer.record.clear();
+                writer.putInt(medicine.getMedicineId());
+                writer.putString(medicine.getName());
+                writer.putString(medicine.getCategory());
+                writer.putInt(medicine.getQuantity());
+                writer.putLong(medicine.getPriceSen());
+                writer.flushRecord();
+            }
+            writer.section(DOCTORS, manager.getDoctors().size());
+            for (Doctor doctor : manager.getDoctors()) {
+                writer.record.clear();
+                writer.putInt(doctor.getDoctorId());
+                writer.putString(doctor.getName());
+                writer.putString(doctor.getSpecialty());
+                writer.putString(doctor.getContactNumber());
+                writer.flushRecord();
+            }
+            writer.section(PATIENTS, manager.getPatients().size());
+            for (Patient patient : manager.getPatients()) {
+                writer.record.clear();
+                writer.putInt(patient.getPatientId());
+                writer.putString(patient.getName());
+                writer.putInt(patient.getAge());
+                writer.putString(patient.getContactNumber());
+                writer.putString(patient.getAddress());
+                writer.flushRecord();
+            }
+            writer.section(PHARMACISTS, manager.getPharmacists().size());
+            for (Pharmacist pharmacist : manager.getPharmacists()) {
+                writer.record.clear();
+                writer.putInt(pharmacist.getPharmacistId());
+                writer.putString(pharmacist.getName());
+                writer.putString(pharmacist.getShift());
+                writer.flushRecord();
+            }
+            writer.section(PRESCRIPTIONS, manager.getPrescriptions().size());
+            for (Prescription prescription : manager.getPrescriptions()) {
+                writer.record.clear();
+                writer.putInt(prescription.getPrescriptionId());
+                writer.putInt(prescription.getDoctorId());
+                writer.putInt(prescription.getPatientId());
+                writer.putInt((int) prescription.getEpochDay());
+                writer.putString(prescription.getStatus());
+                writer.putInt(prescription.getLineCount());
+                for (int i = 0; i < prescription.getLineCount(); i++) {
+                    writer.putInt(prescription.getLineMedicineId(i));
+                    writer.putInt(prescription.getLineQuantity(i));
+                    writer.putLong(prescription.getLinePriceSen(i));
+                }
+                writer.flushRecord();
+            }
+            writer.drain();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot write failed", e);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot rename failed", e);
+        }
+    }
+
+    // Memory-maps the snapshot and loads it into an empty manager (without a journal attached).
+    // Returns the journal position the snapshot covers, so only the tail needs replaying.
+    static long load(Path path, PharmacyManager manager) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Snapshot reader = new Snapshot(channel);
+            long size = channel.size();
+            reader.map(0);
+            reader.ensure(36);
+            if (reader.window.getInt() != MAGIC) {
+                throw new IllegalStateException("Not a pharmacy snapshot: " + path);
+            }
+            reader.version = reader.window.getInt();
+            if (reader.version < 1 || reader.version > VERSION) {
+                throw new IllegalStateException("Unsupported snapshot version " + reader.version + ": " + path);
+            }
+            long journalPosition = reader.window.getLong();
+            manager.ensureCapacity(reader.window.getInt(), reader.window.getInt(), reader.window.getInt(),
+                    reader.window.getInt(), reader.window.getInt());
+
+            while (reader.windowStart + reader.window.position() < size) {
+                reader.ensure(5);
+                byte tag = reader.window.get();
+                int count = reader.window.getInt();
+                for (int i = 0; i < count; i++) {
+                    reader.ensure(4);
+                    reader.ensure(reader.window.getInt());
+                    reader.readRecord(tag, manager);
+                }
+            }
+            return journalPosition;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot load failed", e);
+        }
+    }
+
+    private void readRecord(byte tag, PharmacyManager manager) {
+        ByteBuffer in = window;
+        switch (tag) {
+            case MEDICINES -> {
+                Medicine medicine = new Medicine(in.getInt(), getString(in), getString(in), in.getInt(), 0.0);
+                medicine.setPriceSen(readPriceSen(in));
+                manager.addMedicine(medicine);
+            }
+            case DOCTORS -> manager.addDoctor(new Doctor(in.getInt(), getString(in), getString(in), getString(in)));
+            case PATIENTS -> manager.addPatient(new Patient(in.getInt(), getString(in), in.getInt(),
+                    getString(in), getString(in)));
+            case PHARMACISTS -> manager.addPharmacist(new Pharmacist(in.getInt(), getString(in), getString(in)));
+            case PRESCRIPTIONS -> {
+                Prescription prescription = new Prescription(in.getInt(), in.getInt(), in.getInt(),
+                        LocalDate.ofEpochDay(in.getInt()));
+                prescription.setStatus(getString(in));
+                int lines = in.getInt();
+                for (int i = 0; i < lines; i++) {
+                    prescription.addLine(in.getInt(), in.getInt(), readPriceSen(in));
+                }
+                manager.addPrescription(prescription);
+            }
+            default -> throw new IllegalStateException("Unknown snapshot section " + tag);
+        }
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, channel.size() - position));
+    }
+
+    // Slides the mapped window forward when the next bytes would cross its end
+    private void ensure(int bytes) throws IOException {
+        if (window.remaining() < bytes) {
+            map(windowStart + window.position());
+            if (window.remaining() < bytes) {
+                throw new IllegalStateException("Truncated snapshot");
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void section(byte tag, int count) throws IOException {
+        if (out.remaining() < 5) {
+            drain();
+        }
+        out.put(tag).putInt(count);
+    }
+
+    private void putInt(int value) {
+        grow(4);
+        record.putInt(value);
+    }
+
+    private void putLong(long value) {
+        grow(8);
+        record.putLong(value);
+    }
+
+    private long readPriceSen(ByteBuffer in) {
+        return version == 1 ? Money.toSen(in.getDouble()) : in.getLong();
+    }
+
+    private void putString(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        grow(4 + bytes.length);
+        record.putInt(bytes.length);
+        record.put(bytes);
+    }
+
+    private void grow(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    private void flushRecord() throws IOException {
+        record.flip();
+        if (out.remaining() < 4 + record.remaining()) {
+            drain();
+        }
+        if (out.remaining() < 4 + record.remaining()) {
+            // Larger than the output buffer: write it straight through
+            writeFully(ByteBuffer.allocate(4).putInt(0, record.remaining()));
+            writeFully(record);
+            return;
+        }
+        out.putInt(record.remaining());
+        out.put(record);
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        writeFully(out);
+        out.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
+
+class PrescriptionArchive {
+    // Cold tier for old prescriptions. Each calendar month is one immutable segment file
+    // (yyyy-MM.<generation>.seg): [magic][version], then the month's prescriptions in (day, id)
+    // order as independently deflated blocks of BLOCK_SIZE. Archiving into a month that already
+    // has a segment rewrites it under the next generation. The manifest names the current
+    // segments and is replaced last, by temp-file rename, so a crash mid-archive leaves the
+    // previous state intact; segment files it does not name are deleted on open.
+    //
+    // Only the manifest is kept on the heap: per block its file range, day range and a Bloom
+    // filter over the doctor, patient and medicine IDs in it; every archived prescription ID,
+    // sorted, with the block that holds it (8 bytes each); and archive-wide reference counts per
+    // doctor, patient and medicine and per-medicine units and sales. A lookup by ID is a binary
+    // search, so the duplicate-ID check on every insert decodes nothing. Other queries decode
+    // just the blocks whose day range or filter admits them; the most recently decoded blocks
+    // are cached. Prescriptions read from the archive are read-only copies.
+    private static final int MAGIC = 0x50484152; // "PHAR"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 8;
+    private static final String MANIFEST = "manifest";
+    static final int BLOCK_SIZE = 512;
+    private static final int CACHED_BLOCKS = 32;
+    // Bloom filter key kinds
+    private static final int DOCTOR = 1;
+    private static final int PATIENT = 2;
+    private static final int MEDICINE = 3;
+    // About 0.1% false positives, so a history query rarely decodes a block it does not need
+    private static final int BLOOM_BITS_PER_KEY = 16;
+    private static final int BLOOM_HASHES = 7;
+
+    static final class Block {
+        private final long offset;
+        private final int length; // deflated
+        private final int rawLength;
+        private final int count;
+        private final long firstDay;
+        private final long lastDay;
+        private final long[] bloom;
+
+        Block(long offset, int length, int rawLength, int count, long firstDay, long lastDay, long[] bloom) {
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+            this.count = count;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            this.bloom = bloom;
+        }
+
+        boolean overlaps(long fromDay, long toDay) {
+            return firstDay <= toDay && lastDay >= fromDay;
+        }
+
+        boolean mightContain(int kind, int id) {
+            long hash = bloomHash(kind, id);
+            int mask = bloom.length * 64 - 1;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bloom[bit >>> 6] & 1L << bit) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Segment {
+        private final long month; // epoch day of the first of the month
+        private final int generation;
+        private final Block[] blocks;
+
+        Segment(long month, int generation, Block[] blocks) {
+            this.month = month;
+            this.generation = generation;
+            this.blocks = blocks;
+        }
+
+        String fileName() {
+            LocalDate first = LocalDate.ofEpochDay(month);
+            return String.format("%04d-%02d.%d.seg", first.getYear(), first.getMonthValue(), generation);
+        }
+
+        long bytes() {
+            Block last = blocks[blocks.length - 1];
+            return last.offset + last.length;
+        }
+    }
+
+    private final Path directory;
+    // Resolves medicine names for prescriptions read back
+    private final PharmacyManager catalogue;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    // Blocks numbered in manifest order (segments by month, then blocks in file order)
+    private Segment[] blockSegments = new Segment[0];
+    private Block[] blocks = new Block[0];
+    // prescription ID << 32 | block number, sorted. Replaced whole by each archive run, so
+    // contains() reads it without the archive's lock.
+    private volatile long[] idIndex = new long[0];
+    private IdCounter doctorCounts = new IdCounter();
+    private IdCounter patientCounts = new IdCounter();
+    private IdCounter medicineCounts = new IdCounter(); // lines
+    private IdCounter medicineUnits = new IdCounter();
+    private IdCounter medicineSalesSen = new IdCounter();
+    private int size;
+    private long blockReads;
+    private final LinkedHashMap<Block, ArrayList<Prescription>> decoded =
+            new LinkedHashMap<>(CACHED_BLOCKS * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Block, ArrayList<Prescription>> eldest) {
+                    return size() > CACHED_BLOCKS;
+                }
+            };
+
+    private PrescriptionArchive(Path directory, PharmacyManager catalogue) {
+        this.directory = directory;
+        this.catalogue = catalogue;
+    }
+
+    // Reads the manifest in directory, if there is one; the directory is created on first append
+    static PrescriptionArchive open(Path directory, PharmacyManager catalogue) {
+        PrescriptionArchive archive = new PrescriptionArchive(directory, catalogue);
+        Path manifest = directory.resolve(MANIFEST);
+        if (!Files.exists(manifest)) {
+            return archive;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a prescription archive manifest: " + manifest);
+            }
+            archive.size = in.readInt();
+            for (int s = in.readInt(); s > 0; s--) {
+                long month = in.readLong();
+                int generation = in.readInt();
+                Block[] blocks = new Block[in.readInt()];
+                for (int b = 0; b < blocks.length; b++) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    int rawLength = in.readInt();
+                    int count = in.readInt();
+                    long firstDay = in.readLong();
+                    long lastDay = in.readLong();
+                    long[] bloom = new long[in.readInt()];
+                    for (int i = 0; i < bloom.length; i++) {
+                        bloom[i] = in.readLong();
+                    }
+                    blocks[b] = new Block(offset, length, rawLength, count, firstDay, lastDay, bloom);
+                }
+                archive.segments.put(month, new Segment(month, generation, blocks));
+            }
+            readCounter(in, archive.doctorCounts);
+            readCounter(in, archive.patientCounts);
+            readCounter(in, archive.medicineCounts);
+            readCounter(in, archive.medicineUnits);
+            readCounter(in, archive.medicineSalesSen);
+            archive.idIndex = new long[in.readInt()];
+            for (int i = 0; i < archive.idIndex.length; i++) {
+                archive.idIndex[i] = in.readLong();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive manifest read failed", e);
+        }
+        archive.numberBlocks();
+        archive.deleteUnlisted();
+        return archive;
+    }
+
+    // Moves the prescriptions into their month segments. Nothing changes, on disk or here, unless
+    // the new manifest is written.
+    synchronized void append(List<Prescription> batch) {
+        TreeMap<Long, ArrayList<Prescription>> byMonth = new TreeMap<>();
+        IdCounter doctors = copy(doctorCounts);
+        IdCounter patients = copy(patientCounts);
+        IdCounter medicines = copy(medicineCounts);
+        IdCounter units = copy(medicineUnits);
+        IdCounter sales = copy(medicineSalesSen);
+        for (Prescription prescription : batch) {
+            long month = prescription.getLocalDate().withDayOfMonth(1).toEpochDay();
+            byMonth.computeIfAbsent(month, m -> new ArrayList<>()).add(prescription);
+            doctors.add(prescription.getDoctorId(), 1);
+            patients.add(prescription.getPatientId(), 1);
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                int medicineId = prescription.getLineMedicineId(i);
+                medicines.add(medicineId, 1);
+                units.add(medicineId, prescription.getLineQuantity(i));
+                sales.add(medicineId, prescription.getLineQuantity(i) * prescription.getLinePriceSen(i));
+            }
+        }
+        TreeMap<Long, Segment> updated = new TreeMap<>(segments);
+        ArrayList<Segment> replaced = new ArrayList<>();
+        HashMap<Long, ArrayList<Prescription>> rewritten = new HashMap<>();
+        long[] index;
+        try {
+            Files.createDirectories(directory);
+            for (Map.Entry<Long, ArrayList<Prescription>> month : byMonth.entrySet()) {
+                Segment previous = segments.get(month.getKey());
+                ArrayList<Prescription> merged = new ArrayList<>(month.getValue());
+                if (previous != null) {
+                    for (Block block : previous.blocks) {
+                        merged.addAll(decode(previous, block));
+                    }
+                    replaced.add(previous);
+                }
+                merged.sort(Comparator.comparingLong(Prescription::getEpochDay)
+                        .thenComparingInt(Prescription::getPrescriptionId));
+                updated.put(month.getKey(), writeSegment(month.getKey(),
+                        previous == null ? 0 : previous.generation + 1, merged));
+                rewritten.put(month.getKey(), merged);
+            }
+            index = rebuildIndex(updated, rewritten, size + batch.size());
+            writeManifest(updated, size + batch.size(), doctors, patients, medicines, units, sales, index);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive write failed", e);
+        }
+        segments.clear();
+        segments.putAll(updated);
+        doctorCounts = doctors;
+        patientCounts = patients;
+        medicineCounts = medicines;
+        medicineUnits = units;
+        medicineSalesSen = sales;
+        size += batch.size();
+        idIndex = index;
+        numberBlocks();
+        decoded.clear();
+        for (Segment old : replaced) {
+            try {
+                Files.deleteIfExists(directory.resolve(old.fileName()));
+            } catch (IOException e) {
+                // Unlisted files are deleted on the next open
+            }
+        }
+    }
+
+    private void numberBlocks() {
+        ArrayList<Segment> owners = new ArrayList<>();
+        ArrayList<Block> numbered = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            for (Block block : segment.blocks) {
+                owners.add(segment);
+                numbered.add(block);
+            }
+        }
+        blockSegments = owners.toArray(new Segment[0]);
+        blocks = numbered.toArray(new Block[0]);
+    }
+
+    // The ID index for the new manifest: entries of untouched segments are renumbered, and those
+    // of rewritten months are taken from their prescriptions in block order
+    private long[] rebuildIndex(TreeMap<Long, Segment> manifestSegments,
+            Map<Long, ArrayList<Prescription>> rewritten, int manifestSize) {
+        HashMap<Segment, Integer> firstBlocks = new HashMap<>();
+        int next = 0;
+        for (Segment segment : manifestSegments.values()) {
+            firstBlocks.put(segment, next);
+            next += segment.blocks.length;
+        }
+        int[] renumbered = new int[blocks.length];
+        int b = 0;
+        for (Segment segment : segments.values()) {
+            Integer first = manifestSegments.get(segment.month) == segment ? firstBlocks.get(segment) : null;
+            for (int i = 0; i < segment.blocks.length; i++) {
+                renumbered[b++] = first == null ? -1 : first + i;
+            }
+        }
+        long[] index = new long[manifestSize];
+        int n = 0;
+        for (long entry : idIndex) {
+            int block = renumbered[(int) entry];
+            if (block >= 0) {
+                index[n++] = entry & 0xFFFFFFFF00000000L | block;
+            }
+        }
+        for (Map.Entry<Long, ArrayList<Prescription>> month : rewritten.entrySet()) {
+            int first = firstBlocks.get(manifestSegments.get(month.getKey()));
+            ArrayList<Prescription> prescriptions = month.getValue();
+            for (int i = 0; i < prescriptions.size(); i++) {
+                index[n++] = (long) prescriptions.get(i).getPrescriptionId() << 32 | (first + i / BLOCK_SIZE);
+            }
+        }
+        Arrays.sort(index);
+        return index;
+    }
+
+    private Segment writeSegment(long month, int generation, ArrayList<Prescription> prescriptions)
+            throws IOException {
+        Path temp = directory.resolve(MANIFEST + ".seg.tmp");
+        Block[] blocks = new Block[(prescriptions.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        Deflater deflater = new Deflater();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+            long offset = HEADER_BYTES;
+            ByteBuffer raw = ByteBuffer.allocate(1 << 16);
+            byte[] packed = new byte[1 << 15];
+            for (int b = 0; b < blocks.length; b++) {
+                List<Prescription> chunk = prescriptions.subList(b * BLOCK_SIZE,
+                        Math.min(prescriptions.size(), (b + 1) * BLOCK_SIZE));
+                raw = encode(chunk, raw);
+                deflater.reset();
+                deflater.setInput(raw.array(), 0, raw.position());
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == packed.length) {
+                        packed = Arrays.copyOf(packed, packed.length * 2);
+                    }
+                    length += deflater.deflate(packed, length, packed.length - length);
+                }
+                write(channel, ByteBuffer.wrap(packed, 0, length));
+                blocks[b] = summarize(chunk, offset, length, raw.position());
+                offset += length;
+            }
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+        Segment segment = new Segment(month, generation, blocks);
+        Files.move(temp, directory.resolve(segment.fileName()), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return segment;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // [id][doctorId][patientId][epochDay][status length][status][line count] then
+    // [medicineId][quantity][unit price in sen] per line, all ints but the status bytes and price
+    private static ByteBuffer encode(List<Prescription> chunk, ByteBuffer raw) {
+        raw.clear();
+        for (Prescription prescription : chunk) {
+            byte[] status = prescription.getStatus().getBytes(StandardCharsets.UTF_8);
+            int needed = 24 + status.length + 16 * prescription.getLineCount();
+            if (raw.remaining() < needed) {
+                raw = ByteBuffer.allocate(Math.max(raw.capacity() * 2, raw.position() + needed)).put(raw.flip());
+            }
+            raw.putInt(prescription.getPrescriptionId()).putInt(prescription.getDoctorId())
+                    .putInt(prescription.getPatientId()).putInt((int) prescription.getEpochDay());
+            raw.putInt(status.length).put(status).putInt(prescription.getLineCount());
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                raw.putInt(prescription.getLineMedicineId(i)).putInt(prescription.getLineQuantity(i))
+                        .putLong(prescription.getLinePriceSen(i));
+            }
+        }
+        return raw;
+    }
+
+    private static Block summarize(List<Prescription> chunk, long offset, int length, int rawLength) {
+        // Size the filter from the distinct keys; doctors and medicines repeat within a block
+        IdCounter distinct = new IdCounter();
+        int keys = 0;
+        for (Prescription prescription : chunk) {
+            keys += firstSighting(distinct, DOCTOR, prescription.getDoctorId())
+                    + firstSighting(distinct, PATIENT, prescription.getPatientId());
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                keys += firstSighting(distinct, MEDICINE, prescription.getLineMedicineId(i));
+            }
+        }
+        long[] bloom = new long[Math.max(1, Integer.highestOneBit(keys * BLOOM_BITS_PER_KEY - 1) >> 5)];
+        int mask = bloom.length * 64 - 1;
+        for (Prescription prescription : chunk) {
+            setBits(bloom, mask, DOCTOR, prescription.getDoctorId());
+            setBits(bloom, mask, PATIENT, prescription.getPatientId());
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                setBits(bloom, mask, MEDICINE, prescription.getLineMedicineId(i));
+            }
+        }
+        return new Block(offset, length, rawLength, chunk.size(), chunk.get(0).getEpochDay(),
+                chunk.get(chunk.size() - 1).getEpochDay(), bloom);
+    }
+
+    // 1 the first time an ID of the kind is seen, else 0
+    private static int firstSighting(IdCounter distinct, int kind, int id) {
+        int key = id * 4 + kind;
+        if (distinct.get(key) != 0) {
+            return 0;
+        }
+        distinct.add(key, 1);
+        return 1;
+    }
+
+    private static void setBits(long[] bloom, int mask, int kind, int id) {
+        long hash = bloomHash(kind, id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static long bloomHash(int kind, int id) {
+        long h = ((long) kind << 32 | (id & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29) | 1L << 32; // odd second hash
+    }
+
+    private void writeManifest(TreeMap<Long, Segment> manifestSegments, int manifestSize, IdCounter doctors,
+            IdCounter patients, IdCounter medicines, IdCounter units, IdCounter sales, long[] index)
+            throws IOException {
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(manifestSize);
+            out.writeInt(manifestSegments.size());
+            for (Segment segment : manifestSegments.values()) {
+                out.writeLong(segment.month);
+                out.writeInt(segment.generation);
+                out.writeInt(segment.blocks.length);
+                for (Block block : segment.blocks) {
+                    out.writeLong(block.offset);
+                    out.writeInt(block.length);
+                    out.writeInt(block.rawLength);
+                    out.writeInt(block.count);
+                    out.writeLong(block.firstDay);
+                    out.writeLong(block.lastDay);
+                    out.writeInt(block.bloom.length);
+                    for (long word : block.bloom) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+            writeCounter(out, doctors);
+            writeCounter(out, patients);
+            writeCounter(out, medicines);
+            writeCounter(out, units);
+            writeCounter(out, sales);
+            out.writeInt(index.length);
+            for (long entry : index) {
+                out.writeLong(entry);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeCounter(DataOutputStream out, IdCounter counter) throws IOException {
+        int[] nonZero = new int[1];
+        counter.forEach((key, count) -> nonZero[0]++);
+        out.writeInt(nonZero[0]);
+        IOException[] failure = new IOException[1];
+        counter.forEach((key, count) -> {
+            try {
+                out.writeInt(key);
+                out.writeLong(count);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static void readCounter(DataInputStream in, IdCounter counter) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            counter.add(in.readInt(), in.readLong());
+        }
+    }
+
+    private static IdCounter copy(IdCounter counter) {
+        IdCounter copy = new IdCounter();
+        copy.addAll(counter);
+        return copy;
+    }
+
+    private void deleteUnlisted() {
+        HashSet<String> listed = new HashSet<>();
+        for (Segment segment : segments.values()) {
+            listed.add(segment.fileName());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if ((name.endsWith(".seg") || name.endsWith(".tmp")) && !listed.contains(name)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive cleanup failed", e);
+        }
+    }
+
+    private ArrayList<Prescription> load(Segment segment, Block block) {
+        ArrayList<Prescription> prescriptions = decoded.get(block);
+        if (prescriptions == null) {
+            prescriptions = decode(segment, block);
+            decoded.put(block, prescriptions);
+        }
+        return prescriptions;
+    }
+
+    private ArrayList<Prescription> decode(Segment segment, Block block) {
+        byte[] packed = new byte[block.length];
+        byte[] raw = new byte[block.rawLength];
+        try (FileChannel channel = FileChannel.open(directory.resolve(segment.fileName()), StandardOpenOption.READ)) {
+            ByteBuffer target = ByteBuffer.wrap(packed);
+            while (target.hasRemaining()) {
+                if (channel.read(target, block.offset + target.position()) < 0) {
+                    throw new IllegalStateException("Archive segment truncated: " + segment.fileName());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Archive segment read failed: " + segment.fileName(), e);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            if (inflater.inflate(raw) != raw.length) {
+                throw new IllegalStateException("Archive block corrupt: " + segment.fileName());
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Archive block corrupt: " + segment.fileName(), e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        ArrayList<Prescription> prescriptions = new ArrayList<>(block.count);
+        for (int n = 0; n < block.count; n++) {
+            Prescription prescription = new Prescription(in.getInt(), in.getInt(), in.getInt(),
+                    LocalDate.ofEpochDay(in.getInt()));
+            byte[] status = new byte[in.getInt()];
+            in.get(status);
+            prescription.setStatus(new String(status, StandardCharsets.UTF_8).intern());
+            for (int lines = in.getInt(); lines > 0; lines--) {
+                prescription.addLine(in.getInt(), in.getInt(), in.getLong());
+            }
+            prescription.setCatalogue(catalogue);
+            prescriptions.add(prescription);
+        }
+        blockReads++;
+        return prescriptions;
+    }
+
+    synchronized Prescription find(int prescriptionId) {
+        long[] index = idIndex;
+        int at = indexOf(index, prescriptionId);
+        if (at < 0) {
+            return null;
+        }
+        int block = (int) index[at];
+        for (Prescription prescription : load(blockSegments[block], blocks[block])) {
+            if (prescription.getPrescriptionId() == prescriptionId) {
+                return prescription;
+            }
+        }
+        throw new IllegalStateException("Archive index names a block without prescription " + prescriptionId);
+    }
+
+    // Answered from the ID index alone, without the archive's lock, so the duplicate-ID check
+    // on every insert never waits for a report streaming blocks
+    boolean contains(int prescriptionId) {
+        return indexOf(idIndex, prescriptionId) >= 0;
+    }
+
+    private static int indexOf(long[] index, int prescriptionId) {
+        int at = Arrays.binarySearch(index, (long) prescriptionId << 32);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return at < index.length && (int) (index[at] >> 32) == prescriptionId ? at : -1;
+    }
+
+    // Archived prescriptions of a doctor, patient or medicine, oldest first
+    synchronized ArrayList<Prescription> byDoctor(int doctorId) {
+        return matching(doctorCounts, DOCTOR, doctorId);
+    }
+
+    synchronized ArrayList<Prescription> byPatient(int patientId) {
+        return matching(patientCounts, PATIENT, patientId);
+    }
+
+    synchronized ArrayList<Prescription> byMedicine(int medicineId) {
+        return matching(medicineCounts, MEDICINE, medicineId);
+    }
+
+    private ArrayList<Prescription> matching(IdCounter counts, int kind, int id) {
+        ArrayList<Prescription> found = new ArrayList<>();
+        if (counts.get(id) == 0) {
+            return found;
+        }
+        for (Segment segment : segments.values()) {
+            for (Block block : segment.blocks) {
+                if (block.mightContain(kind, id)) {
+                    for (Prescription prescription : load(segment, block)) {
+                        if (refersTo(prescription, kind, id)) {
+                            found.add(prescription);
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean refersTo(Prescription prescription, int kind, int id) {
+        if (kind == DOCTOR) {
+            return prescription.getDoctorId() == id;
+        }
+        if (kind == PATIENT) {
+            return prescription.getPatientId() == id;
+        }
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            if (prescription.getLineMedicineId(i) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean overlaps(long fromDay, long toDay) {
+        for (Segment segment : segments.values()) {
+            Block[] blocks = segment.blocks;
+            if (blocks[0].firstDay <= toDay && blocks[blocks.length - 1].lastDay >= fromDay) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Passes each block overlapping the day range (inclusive) to action, oldest first, so only
+    // one decoded block is held at a time however long the range. Blocks are taken from the
+    // cache when there, but not added to it. Callers filter by day.
+    synchronized void forEachBlock(long fromDay, long toDay, Consumer<List<Prescription>> action) {
+        for (Segment segment : segments.values()) {
+            for (Block block : segment.blocks) {
+                if (block.overlaps(fromDay, toDay)) {
+                    ArrayList<Prescription> prescriptions = decoded.get(block);
+                    action.accept(prescriptions != null ? prescriptions : decode(segment, block));
+                }
+            }
+        }
+    }
+
+    // Every archived prescription, block by block
+    synchronized void forEach(Consumer<Prescription> action) {
+        forEachBlock(Long.MIN_VALUE, Long.MAX_VALUE, block -> block.forEach(action));
+    }
+
+    // Delete guards: how many archived prescriptions (lines, for medicines) refer to the ID
+    synchronized long doctorReferences(int doctorId) {
+        return doctorCounts.get(doctorId);
+    }
+
+    synchronized long patientReferences(int patientId) {
+        return patientCounts.get(patientId);
+    }
+
+    synchronized long medicineReferences(int medicineId) {
+        return medicineCounts.get(medicineId);
+    }
+
+    // Units prescribed and sales in sen per medicine, over the whole archive
+    synchronized void forEachMedicineTotal(MedicineTotal action) {
+        medicineUnits.forEach((medicineId, units) -> action.accept(medicineId, units,
+                medicineSalesSen.get(medicineId)));
+    }
+
+    interface MedicineTotal {
+        void accept(int medicineId, long units, long salesSen);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    // Blocks decoded since open; a query answered from the live tier or the cache adds nothing
+    public synchronized long getBlockReads() {
+        return blockReads;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
+
+class BulkImporter {
+    // Streams CSV master data and prescription history into a PharmacyManager. Files are
+    // memory-mapped in chunks cut at line boundaries; a wave of chunks is parsed in parallel,
+    // then applied in file order, one batch per chunk under the manager lock.
+    //
+    // Expected columns (an optional header line is skipped):
+    //   doctors.csv       id,name,specialty,contact
+    //   patients.csv      id,name,age,contact,address
+    //   medicines.csv     id,name,category,quantity,price
+    //   pharmacists.csv   id,name,shift
+    //   prescriptions.csv prescriptionId,doctorId,patientId,date(DD/MM/YYYY),medicineId,quantity[,price]
+    // Prescription rows with the same ID on consecutive lines form one prescription. Fields may
+    // be double-quoted, but quoted fields must not span lines.
+    public static final String CYAN = "\u001B[36m";
+    public static final String RED = "\u001B[31m";
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_FIELDS = 8;
+
+    private final PharmacyManager manager;
+    private final int parallelism;
+
+    public BulkImporter(PharmacyManager manager) {
+        this.manager = manager;
+        this.parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static class ImportResult {
+        final String file;
+        long rows;
+        long imported;
+        long rejected;
+        long nanos;
+
+        ImportResult(String file) {
+            this.file = file;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d rows, %d imported, %d rejected in %d ms (%.0f rows/s)",
+                    file, rows, imported, rejected, nanos / 1_000_000, rowsPerSecond());
+        }
+    }
+
+    // Imports whichever of the standard files exist in dir, in dependency order. A missing
+    // directory, or one holding none of the files, is an error rather than an empty import.
+    public ArrayList<ImportResult> importDirectory(Path dir) {
+        return importDirectory(dir, true);
+    }
+
+    public ArrayList<ImportResult> importDirectory(Path dir, boolean printResults) {
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException(RED + "Directory " + dir + " not found");
+        }
+        ArrayList<ImportResult> results = new ArrayList<>();
+        String[] files = { "medicines.csv", "doctors.csv", "patients.csv", "pharmacists.csv", "prescriptions.csv" };
+        for (String file : files) {
+            Path path = dir.resolve(file);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            ImportResult result = switch (file) {
+                case "medicines.csv" -> importMedicines(path);
+                case "doctors.csv" -> importDoctors(path);
+                case "patients.csv" -> importPatients(path);
+                case "pharmacists.csv" -> importPharmacists(path);
+                default -> importPrescriptions(path);
+            };
+            if (printResults) {
+                System.out.println(CYAN + result);
+            }
+            results.add(result);
+        }
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException(RED + "No " + String.join(", ", files) + " in " + dir);
+        }
+        return results;
+    }
+
+    public ImportResult importDoctors(Path csv) {
+        return importFile(csv, row -> new Doctor(row.intField(0), row.stringField(1), row.stringField(2),
+                row.stringField(3)), new EntityApplier<>(manager::insertDoctor));
+    }
+
+    public ImportResult importPatients(Path csv) {
+        return importFile(csv, row -> new Patient(row.intField(0), row.stringField(1), row.intField(2),
+                row.stringField(3), row.stringField(4)), new EntityApplier<>(manager::insertPatient));
+    }
+
+    public ImportResult importMedicines(Path csv) {
+        return importFile(csv, row -> new Medicine(row.intField(0), row.stringField(1), row.stringField(2),
+                row.intField(3), row.doubleField(4)), new EntityApplier<>(manager::insertMedicine));
+    }
+
+    public ImportResult importPharmacists(Path csv) {
+        return importFile(csv, row -> new Pharmacist(row.intField(0), row.stringField(1), row.stringField(2)),
+                new EntityApplier<>(manager::insertPharmacist));
+    }
+
+    public ImportResult importPrescriptions(Path csv) {
+        return importFile(csv, row -> new PrescriptionRow(row.intField(0), row.intField(1), row.intField(2),
+                row.epochDayField(3), row.intField(4), row.intField(5),
+                row.fieldCount() > 6 ? row.doubleField(6) : Double.NaN), new PrescriptionApplier());
+    }
+
+    private interface RowParser<T> {
+        T parse(CsvRow row);
+    }
+
+    private interface BatchApplier<T> {
+        // Called with the manager lock held; returns the journal position to wait for
+        long apply(ArrayList<T> rows, ImportResult result);
+
+        default long finish(ImportResult result) {
+            return 0;
+        }
+    }
+
+    private interface Inserter<T> {
+        long insert(T entity);
+    }
+
+    private static class EntityApplier<T> implements BatchApplier<T> {
+        private final Inserter<T> inserter;
+
+        EntityApplier(Inserter<T> inserter) {
+            this.inserter = inserter;
+        }
+
+        @Override
+        public long apply(ArrayList<T> rows, ImportResult result) {
+            long position = 0;
+            for (T entity : rows) {
+                try {
+                    position = Math.max(position, inserter.insert(entity));
+                    result.imported++;
+                } catch (IllegalArgumentException e) {
+                    result.rejected++;
+                }
+            }
+            return position;
+        }
+    }
+
+    private static class PrescriptionRow {
+        final int prescriptionId;
+        final int doctorId;
+        final int patientId;
+        final long epochDay;
+        final int medicineId;
+        final int quantity;
+        final double price;
+
+        PrescriptionRow(int prescriptionId, int doctorId, int patientId, long epochDay, int medicineId,
+                int quantity, double price) {
+            this.prescriptionId = prescriptionId;
+            this.doctorId = doctorId;
+            this.patientId = patientId;
+            this.epochDay = epochDay;
+            this.medicineId = medicineId;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    // Groups consecutive rows into prescriptions (a group may continue into the next chunk),
+    // validates every reference and takes the historical quantities out of stock
+    private class PrescriptionApplier implements BatchApplier<PrescriptionRow> {
+        private final ArrayList<PrescriptionRow> group = new ArrayList<>();
+
+        @Override
+        public long apply(ArrayList<PrescriptionRow> rows, ImportResult result) {
+            long position = 0;
+            for (PrescriptionRow row : rows) {
+                if (!group.isEmpty() && group.get(0).prescriptionId != row.prescriptionId) {
+                    position = Math.max(position, flushGroup(result));
+                }
+                group.add(row);
+            }
+            return position;
+        }
+
+        @Override
+        public long finish(ImportResult result) {
+            synchronized (manager) {
+                return flushGroup(result);
+            }
+        }
+
+        private long flushGroup(ImportResult result) {
+            if (group.isEmpty()) {
+                return 0;
+            }
+            PrescriptionRow first = group.get(0);
+            int lines = group.size();
+            boolean valid = manager.findPrescription(first.prescriptionId) == null
+                    && manager.findDoctor(first.doctorId) != null
+                    && manager.findPatient(first.patientId) != null;
+            Medicine[] stock = new Medicine[lines];
+            for (int i = 0; valid && i < lines; i++) {
+                PrescriptionRow row = group.get(i);
+                stock[i] = manager.findMedicine(row.medicineId);
+                valid = stock[i] != null && row.quantity > 0 && row.doctorId == first.doctorId
+                        && row.patientId == first.patientId && row.epochDay == first.epochDay;
+            }
+            // Every line must be covered by stock, counting repeated medicines together
+            for (int i = 0; valid && i < lines; i++) {
+                long needed = 0;
+                for (int j = 0; j < lines; j++) {
+                    if (stock[j] == stock[i]) {
+                        needed += group.get(j).quantity;
+                    }
+                }
+                valid = needed <= stock[i].getQuantity();
+            }
+            if (!valid) {
+                result.rejected += lines;
+                group.clear();
+                return 0;
+            }
+
+            Prescription prescription = new Prescription(first.prescriptionId, first.doctorId, first.patientId,
+                    LocalDate.ofEpochDay(first.epochDay));
+            for (int i = 0; i < lines; i++) {
+                PrescriptionRow row = group.get(i);
+                long priceSen = Double.isNaN(row.price) ? stock[i].getPriceSen() : Money.toSen(row.price);
+                prescription.addLine(stock[i].getMedicineId(), row.quantity, priceSen);
+                stock[i].addQuantity(-row.quantity);
+            }
+            result.imported += lines;
+            group.clear();
+            return manager.insertPrescription(prescription, true);
+        }
+    }
+
+    private static class ParsedChunk<T> {
+        final ArrayList<T> rows = new ArrayList<>();
+        long lines;
+        long malformed;
+    }
+
+    private <T> ImportResult importFile(Path csv, RowParser<T> parser, BatchApplier<T> applier) {
+        ImportResult result = new ImportResult(csv.getFileName().toString());
+        long begin = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = headerLength(channel);
+            long journalPosition = 0;
+            ArrayList<MappedByteBuffer> wave = new ArrayList<>();
+            while (position < size) {
+                wave.clear();
+                while (position < size && wave.size() < parallelism * 2) {
+                    long length = Math.min(CHUNK_SIZE, size - position);
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    int end = (int) length;
+                    if (position + length < size) {
+                        // Cut after the last complete line
+                        while (end > 0 && chunk.get(end - 1) != '\n') {
+                            end--;
+                        }
+                        if (end == 0) {
+                            throw new IllegalStateException("Line longer than " + CHUNK_SIZE + " bytes in " + csv);
+                        }
+                    }
+                    chunk.limit(end);
+                    wave.add(chunk);
+                    position += end;
+                }
+
+                List<ParsedChunk<T>> parsed = wave.parallelStream()
+                        .map(chunk -> parseChunk(chunk, parser))
+                        .collect(Collectors.toList());
+
+                for (ParsedChunk<T> chunk : parsed) {
+                    result.rows += chunk.lines;
+                    result.rejected += chunk.malformed;
+                    synchronized (manager) {
+                        journalPosition = Math.max(journalPosition, applier.apply(chunk.rows, result));
+                    }
+                }
+            }
+            journalPosition = Math.max(journalPosition, applier.finish(result));
+            manager.awaitDurable(journalPosition);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Import of " + csv + " failed", e);
+        }
+        result.nanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    // A first line that does not start with a number is a header and is skipped
+    private static long headerLength(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(4096);
+        channel.read(head, 0);
+        head.flip();
+        if (!head.hasRemaining()) {
+            return 0;
+        }
+        byte first = head.get(0);
+        if ((first >= '0' && first <= '9') || first == '-') {
+            return 0;
+        }
+        for (int i = 0; i < head.limit(); i++) {
+            if (head.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return head.limit();
+    }
+
+    private static <T> ParsedChunk<T> parseChunk(ByteBuffer chunk, RowParser<T> parser) {
+        ParsedChunk<T> parsed = new ParsedChunk<>();
+        CsvRow row = new CsvRow(chunk);
+        int limit = chunk.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && chunk.get(end) != '\n') {
+                end++;
+            }
+            int lineEnd = end > start && chunk.get(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                parsed.lines++;
+                try {
+                    row.split(start, lineEnd);
+                    parsed.rows.add(parser.parse(row));
+                } catch (RuntimeException e) {
+                    parsed.malformed++;
+                }
+            }
+            start = end + 1;
+        }
+        return parsed;
+    }
+
+    // One CSV line inside a mapped chunk. Numbers are parsed straight from the bytes.
+    private static class CsvRow {
+        private final ByteBuffer bytes;
+        private final int[] starts = new int[MAX_FIELDS];
+        private final int[] ends = new int[MAX_FIELDS];
+        private int count;
+        // The history is usually sorted by date, so the last parsed date is remembered
+        private int lastDateKey = -1;
+        private long lastEpochDay;
+
+        CsvRow(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        void split(int start, int end) {
+            count = 0;
+            int fieldStart = start;
+            boolean quoted = false;
+            for (int i = start; i < end; i++) {
+                byte b = bytes.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == ',' && !quoted) {
+                    addField(fieldStart, i);
+                    fieldStart = i + 1;
+                }
+            }
+            addField(fieldStart, end);
+        }
+
+        private void addField(int start, int end) {
+            if (count == MAX_FIELDS) {
+                throw new IllegalArgumentException("Too many fields");
+            }
+            while (start < end && bytes.get(start) == ' ') {
+                start++;
+            }
+            while (end > start && bytes.get(end - 1) == ' ') {
+                end--;
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        int fieldCount() {
+            return count;
+        }
+
+        private void check(int field) {
+            if (field >= count) {
+                throw new IllegalArgumentException("Missing field " + field);
+            }
+        }
+
+        int intField(int field) {
+            check(field);
+            int i = starts[field];
+            int end = ends[field];
+            boolean negative = i < end && bytes.get(i) == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException("Empty number");
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = bytes.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Not a number");
+                }
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw new NumberFormatException("Number too large");
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Number too large");
+            }
+            return (int) value;
+        }
+
+        // Plain decimals such as 12.50 are parsed by hand; anything else falls back to Double
+        double doubleField(int field) {
+            check(field);
+            int start = starts[field];
+            int end = ends[field];
+            long mantissa = 0;
+            int decimals = -1;
+            boolean simple = end > start && end - start <= 15;
+            for (int i = start; simple && i < end; i++) {
+                byte b = bytes.get(i);
+                if (b == '.' && decimals < 0) {
+                    decimals = 0;
+                } else if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                } else {
+                    simple = false;
+                }
+            }
+            if (simple) {
+                double value = mantissa;
+                for (int d = 0; d < decimals; d++) {
+                    value /= 10;
+                }
+                return value;
+            }
+            return Double.parseDouble(stringField(field));
+        }
+
+        String stringField(int field) {
+            check(field);
+            int start = starts[field];
+            int end = ends[field];
+            byte[] raw = new byte[end - start];
+            bytes.get(start, raw);
+            if (raw.length >= 2 && raw[0] == '"' && raw[raw.length - 1] == '"') {
+                return new String(raw, 1, raw.length - 2, StandardCharsets.UTF_8).replace("\"\"", "\"");
+            }
+            return new String(raw, StandardCharsets.UTF_8);
+        }
+
+        long epochDayField(int field) {
+            check(field);
+            int start = starts[field];
+            if (ends[field] - start != 10 || bytes.get(start + 2) != '/' || bytes.get(start + 5) != '/') {
+                throw new IllegalArgumentException("Invalid date format. Please use DD/MM/YYYY");
+            }
+            int day = digits(start, 2);
+            int month = digits(start + 3, 2);
+            int year = digits(start + 6, 4);
+            int key = (year * 100 + month) * 100 + day;
+            if (key != lastDateKey) {
+                lastEpochDay = LocalDate.of(year, month, day).toEpochDay();
+                lastDateKey = key;
+            }
+            return lastEpochDay;
+        }
+
+        private int digits(int start, int length) {
+            int value = 0;
+            for (int i = start; i < start + length; i++) {
+                int digit = bytes.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("Invalid date format. Please use DD/MM/YYYY");
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+}
+
+class BatchRunner {
+    // Headless command mode: reads one command per line from a file or stdin and calls the
+    // programmatic PharmacyManager API directly. Results are written as plain tab-separated
+    // lines (no colours) through a single buffered writer; a failing command reports an
+    // "error" line and the run continues. Tokens are separated by spaces; wrap a token in
+    // double quotes to include spaces. Lines starting with # are comments.
+    //
+    //   add-doctor <id> <name> <specialty> <contact>
+    //   add-patient <id> <name> <age> <contact> <address>
+    //   add-medicine <id> <name> <category> <quantity> <price>
+    //   add-pharmacist <id> <name> <shift>
+    //   dispense <prescriptionId> <doctorId> <patientId> <DD/MM/YYYY> <medicineId>:<quantity>...
+    //   restock <medicineId> <quantity>
+    //   delivery <medicineId>:<quantity>...
+    //   delete-doctor|delete-patient|delete-medicine|delete-prescription|delete-pharmacist <id>
+    //   find-doctor|find-patient|find-medicine|find-prescription|find-pharmacist <id>
+    //   prescriptions-by-doctor|prescriptions-by-patient <id>
+    //   search-doctors|search-patients|search-medicines <name> [<limit>]
+    //   low-stock <threshold>
+    //   sales-report <DD/MM/YYYY> [<DD/MM/YYYY>]
+    //   usage-report
+    //   category-report [<category>]
+    //   report-cache
+    //   archive [<DD/MM/YYYY>]   (moves prescriptions dated before the date; prints archive size)
+    //   import <directory>
+    private static final Pattern ANSI = Pattern.compile("\u001B\\[[0-9;]*m");
+
+    private final PharmacyManager manager;
+    private final Writer out;
+    private final CommandTokenizer tokens;
+    private long commands;
+    private long errors;
+
+    public BatchRunner(PharmacyManager manager, InputStream in, Writer out) {
+        this.manager = manager;
+        this.out = out;
+        this.tokens = new CommandTokenizer(in);
+    }
+
+    public long run() throws IOException {
+        long begin = System.nanoTime();
+        while (tokens.nextLine()) {
+            if (tokens.count() == 0 || tokens.startsWith('#')) {
+                continue;
+            }
+            commands++;
+            try {
+                execute(tokens.string(0));
+            } catch (RuntimeException e) {
+                errors++;
+                out.write("error\t");
+                out.write(Long.toString(tokens.lineNumber()));
+                out.write('\t');
+                out.write(plain(e.getMessage()));
+                out.write('\n');
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        out.write("# " + commands + " commands, " + errors + " errors in " + elapsed / 1_000_000 + " ms\n");
+        out.flush();
+        return errors;
+    }
+
+    private void execute(String command) throws IOException {
+        switch (command) {
+            case "add-doctor" -> {
+                expect(5);
+                manager.addDoctor(new Doctor(tokens.integer(1), tokens.string(2), tokens.string(3), tokens.string(4)));
+                ok();
+            }
+            case "add-patient" -> {
+                expect(6);
+                manager.addPatient(new Patient(tokens.integer(1), tokens.string(2), tokens.integer(3),
+                        tokens.string(4), tokens.string(5)));
+                ok();
+            }
+            case "add-medicine" -> {
+                expect(6);
+                manager.addMedicine(new Medicine(tokens.integer(1), tokens.string(2), tokens.string(3),
+                        tokens.integer(4), Double.parseDouble(tokens.string(5))));
+                ok();
+            }
+            case "add-pharmacist" -> {
+                expect(4);
+                manager.addPharmacist(new Pharmacist(tokens.integer(1), tokens.string(2), tokens.string(3)));
+                ok();
+            }
+            case "dispense" -> {
+                int lines = tokens.count() - 5;
+                if (lines < 1) {
+                    throw new IllegalArgumentException("dispense needs at least one <medicineId>:<quantity>");
+                }
+                int[] medicineIds = new int[lines];
+                int[] quantities = new int[lines];
+                for (int i = 0; i < lines; i++) {
+                    medicineIds[i] = tokens.integerBefore(5 + i, ':');
+                    quantities[i] = tokens.integerAfter(5 + i, ':');
+                }
+                manager.dispensePrescription(tokens.integer(1), tokens.integer(2), tokens.integer(3),
+                        tokens.date(4), medicineIds, quantities);
+                ok();
+            }
+            case "restock" -> {
+                expect(3);
+                result(manager.restockMedicine(tokens.integer(1), tokens.integer(2)), "Medicine not found");
+            }
+            case "delivery" -> {
+                int lines = tokens.count() - 1;
+                if (lines < 1) {
+                    throw new IllegalArgumentException("delivery needs at least one <medicineId>:<quantity>");
+                }
+                int[] medicineIds = new int[lines];
+                int[] quantities = new int[lines];
+                for (int i = 0; i < lines; i++) {
+                    medicineIds[i] = tokens.integerBefore(1 + i, ':');
+                    quantities[i] = tokens.integerAfter(1 + i, ':');
+                }
+                for (InventoryManager.RestockResult line : manager.getInventoryManager()
+                        .receiveDelivery(medicineIds, quantities)) {
+                    row("restocked", line.getMedicineId(), Integer.toString(line.getQuantity()),
+                            line.isApplied() ? Integer.toString(line.getStockAfter()) : line.getError());
+                }
+            }
+            case "delete-doctor" -> {
+                expect(2);
+                result(manager.deleteDoctor(tokens.integer(1)), "Doctor not found or has prescriptions");
+            }
+            case "delete-patient" -> {
+                expect(2);
+                result(manager.deletePatient(tokens.integer(1)), "Patient not found or has prescriptions");
+            }
+            case "delete-medicine" -> {
+                expect(2);
+                result(manager.deleteMedicine(tokens.integer(1)), "Medicine not found or used in prescriptions");
+            }
+            case "delete-prescription" -> {
+                expect(2);
+                result(manager.deletePrescription(tokens.integer(1)), "Prescription not found");
+            }
+            case "delete-pharmacist" -> {
+                expect(2);
+                result(manager.deletePharmacist(tokens.integer(1)), "Pharmacist not found");
+            }
+            case "find-doctor" -> {
+                expect(2);
+                writeDoctor(found(manager.findDoctor(tokens.integer(1)), "Doctor"));
+            }
+            case "find-patient" -> {
+                expect(2);
+                writePatient(found(manager.findPatient(tokens.integer(1)), "Patient"));
+            }
+            case "find-medicine" -> {
+                expect(2);
+                writeMedicine(found(manager.findMedicine(tokens.integer(1)), "Medicine"));
+            }
+            case "find-prescription" -> {
+                expect(2);
+                writePrescription(found(manager.findPrescription(tokens.integer(1)), "Prescription"));
+            }
+            case "find-pharmacist" -> {
+                expect(2);
+                Pharmacist pharmacist = found(manager.findPharmacist(tokens.integer(1)), "Pharmacist");
+                row("pharmacist", pharmacist.getPharmacistId(), pharmacist.getName(), pharmacist.getShift());
+            }
+            case "prescriptions-by-doctor" -> {
+                expect(2);
+                for (Prescription prescription : manager.getPrescriptionsByDoctor(tokens.integer(1))) {
+                    writePrescription(prescription);
+                }
+            }
+            case "prescriptions-by-patient" -> {
+                expect(2);
+                for (Prescription prescription : manager.getPrescriptionsByPatient(tokens.integer(1))) {
+                    writePrescription(prescription);
+                }
+            }
+            case "search-doctors" -> {
+                int limit = searchLimit();
+                for (Doctor doctor : manager.searchDoctorsByName(tokens.string(1), limit)) {
+                    writeDoctor(doctor);
+                }
+            }
+            case "search-patients" -> {
+                int limit = searchLimit();
+                for (Patient patient : manager.searchPatientsByName(tokens.string(1), limit)) {
+                    writePatient(patient);
+                }
+            }
+            case "search-medicines" -> {
+                int limit = searchLimit();
+                for (Medicine medicine : manager.searchMedicinesByName(tokens.string(1), limit)) {
+                    writeMedicine(medicine);
+                }
+            }
+            case "low-stock" -> {
+                expect(2);
+                for (Medicine medicine : manager.getInventoryManager().findLowStock(tokens.integer(1))) {
+                    writeMedicine(medicine);
+                }
+            }
+            case "sales-report" -> {
+                LocalDate from = tokens.date(1);
+                LocalDate to = tokens.count() > 2 ? tokens.date(2) : from;
+                ReportGenerator.SalesSummary summary = new ReportGenerator(manager)
+                        .salesBetween(from.toEpochDay(), to.toEpochDay());
+                out.write("sales\t" + from.format(Prescription.DATE_FORMAT) + "\t" + to.format(Prescription.DATE_FORMAT)
+                        + "\t" + summary.getPrescriptions() + "\t" + String.format("%.2f", summary.getSales()) + "\n");
+            }
+            case "usage-report" -> {
+                for (ReportGenerator.UsageLine line : new ReportGenerator(manager).usageReport()) {
+                    out.write("usage\t" + line.getMedicineId() + "\t" + line.getName() + "\t"
+                            + line.getTotalPrescribed() + "\t" + line.getRemainingStock() + "\n");
+                }
+            }
+            case "category-report" -> {
+                ReportGenerator reports = new ReportGenerator(manager);
+                if (tokens.count() > 1) {
+                    expect(2);
+                    writeCategory(found(reports.categoryReport(tokens.string(1)), "Category"));
+                } else {
+                    for (ReportGenerator.CategoryLine line : reports.categoryReport()) {
+                        writeCategory(line);
+                    }
+                }
+            }
+            case "archive" -> {
+                PrescriptionArchive archive = manager.getArchive();
+                if (archive == null) {
+                    throw new IllegalArgumentException("No archive open");
+                }
+                int moved = tokens.count() > 1 ? manager.archivePrescriptionsBefore(tokens.date(1)) : 0;
+                out.write("archive\t" + moved + "\t" + manager.getPrescriptions().size() + "\t" + archive.size() + "\t"
+                        + archive.getSegmentCount() + "\t" + archive.getBytes() + "\n");
+            }
+            case "report-cache" -> {
+                ReportCache cache = manager.getReportCache();
+                out.write("report-cache\t" + cache.size() + "\t" + cache.getHits() + "\t" + cache.getMisses() + "\t"
+                        + cache.getEvictions() + "\n");
+            }
+            case "import" -> {
+                expect(2);
+                BulkImporter importer = new BulkImporter(manager);
+                for (BulkImporter.ImportResult result : importer.importDirectory(Path.of(tokens.string(1)), false)) {
+                    out.write("import\t" + result + "\n");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    private void expect(int count) {
+        if (tokens.count() != count) {
+            throw new IllegalArgumentException(tokens.string(0) + " expects " + (count - 1) + " arguments");
+        }
+    }
+
+    private void ok() throws IOException {
+        out.write("ok\n");
+    }
+
+    private int searchLimit() {
+        if (tokens.count() < 2 || tokens.count() > 3) {
+            throw new IllegalArgumentException(tokens.string(0) + " expects a name and an optional limit");
+        }
+        return tokens.count() == 3 ? tokens.integer(2) : PharmacyHttpServer.DEFAULT_SEARCH_LIMIT;
+    }
+
+    private void result(boolean success, String failure) throws IOException {
+        if (!success) {
+            throw new IllegalArgumentException(failure);
+        }
+        ok();
+    }
+
+    private static <T> T found(T entity, String type) {
+        if (entity == null) {
+            throw new IllegalArgumentException(type + " not found");
+        }
+        return entity;
+    }
+
+    private void row(String type, int id, String... fields) throws IOException {
+        out.write(type);
+        out.write('\t');
+        out.write(Integer.toString(id));
+        for (String field : fields) {
+            out.write('\t');
+            out.write(field);
+        }
+        out.write('\n');
+    }
+
+    private void writeDoctor(Doctor doctor) throws IOException {
+        row("doctor", doctor.getDoctorId(), doctor.getName(), doctor.getSpecialty(), doctor.getContactNumber());
+    }
+
+    private void writePatient(Patient patient) throws IOException {
+        row("patient", patient.getPatientId(), patient.getName(), Integer.toString(patient.getAge()),
+                patient.getContactNumber(), patient.getAddress());
+    }
+
+    private void writeMedicine(Medicine medicine) throws IOException {
+        row("medicine", medicine.getMedicineId(), medicine.getName(), medicine.getCategory(),
+                Integer.toString(medicine.getQuantity()), Double.toString(medicine.getPrice()));
+    }
+
+    private void writeCategory(ReportGenerator.CategoryLine line) throws IOException {
+        out.write("category\t" + line.getCategory() + "\t" + line.getMedicines() + "\t" + line.getStockUnits() + "\t"
+                + line.getUnitsSold() + "\t" + String.format("%.2f", line.getSales()) + "\n");
+    }
+
+    private void writePrescription(Prescription prescription) throws IOException {
+        row("prescription", prescription.getPrescriptionId(), Integer.toString(prescription.getDoctorId()),
+                Integer.toString(prescription.getPatientId()), prescription.getDate(), prescription.getStatus());
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            row("line", prescription.getLineMedicineId(i), Integer.toString(prescription.getLineQuantity(i)),
+                    Double.toString(prescription.getLinePrice(i)));
+        }
+    }
+
+    static String plain(String message) {
+        return message == null ? "" : ANSI.matcher(message).replaceAll("");
+    }
+
+    // Splits input into lines and space-separated tokens without Scanner or regex
+    static class CommandTokenizer {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int bufferPosition;
+        private int bufferLimit;
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int count;
+        private long lineNumber;
+
+        CommandTokenizer(InputStream in) {
+            this.in = in;
+        }
+
+        boolean nextLine() throws IOException {
+            lineLength = 0;
+            boolean any = false;
+            while (true) {
+                if (bufferPosition == bufferLimit) {
+                    bufferLimit = in.read(buffer);
+                    bufferPosition = 0;
+                    if (bufferLimit <= 0) {
+                        bufferLimit = 0;
+                        if (!any) {
+                            return false;
+                        }
+                        break;
+                    }
+                }
+                any = true;
+                byte b = buffer[bufferPosition++];
+                if (b == '\n') {
+                    break;
+                }
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = b;
+            }
+            lineNumber++;
+            split();
+            return true;
+        }
+
+        private void split() {
+            count = 0;
+            int i = 0;
+            while (i < lineLength) {
+                byte b = line[i];
+                if (b == ' ' || b == '\t' || b == '\r') {
+                    i++;
+                    continue;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                if (b == '"') {
+                    int start = ++i;
+                    while (i < lineLength && line[i] != '"') {
+                        i++;
+                    }
+                    starts[count] = start;
+                    ends[count++] = i;
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < lineLength && line[i] != ' ' && line[i] != '\t' && line[i] != '\r') {
+                        i++;
+                    }
+                    starts[count] = start;
+                    ends[count++] = i;
+                }
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        long lineNumber() {
+            return lineNumber;
+        }
+
+        boolean startsWith(char c) {
+            return count > 0 && ends[0] > starts[0] && line[starts[0]] == c;
+        }
+
+        private void check(int token) {
+            if (token >= count) {
+                throw new IllegalArgumentException("Missing argument " + token);
+            }
+        }
+
+        String string(int token) {
+            check(token);
+            return new String(line, starts[token], ends[token] - starts[token], StandardCharsets.UTF_8);
+        }
+
+        int integer(int token) {
+            check(token);
+            return parseInt(starts[token], ends[token]);
+        }
+
+        int integerBefore(int token, char separator) {
+            check(token);
+            return parseInt(starts[token], indexOf(token, separator));
+        }
+
+        int integerAfter(int token, char separator) {
+            check(token);
+            return parseInt(indexOf(token, separator) + 1, ends[token]);
+        }
+
+        private int indexOf(int token, char separator) {
+            for (int i = starts[token]; i < ends[token]; i++) {
+                if (line[i] == separator) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Expected " + separator + " in " + string(token));
+        }
+
+        private int parseInt(int start, int end) {
+            boolean negative = start < end && line[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (i == end) {
+                throw new NumberFormatException("Expected a number");
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = line[i] - '0';
+                if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Invalid number " + new String(line, start, end - start,
+                            StandardCharsets.UTF_8));
+                }
+                value = value * 10 + digit;
+            }
+            value = negative ? -value : value;
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Number out of range");
+            }
+            return (int) value;
+        }
+
+        LocalDate date(int token) {
+            try {
+                return LocalDate.parse(string(token), Prescription.DATE_FORMAT);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid date format. Please use DD/MM/YYYY");
+            }
+        }
+    }
+}
+
+class PharmacyHttpServer {
+    // JSON API over com.sun.net.httpserver for terminals sharing one PharmacyManager.
+    //   GET    /doctors/{id}  /patients/{id}  /medicines/{id}  /pharmacists/{id}  /prescriptions/{id}
+    //   POST   /doctors  /patients  /medicines  /pharmacists           (entity fields as JSON)
+    //   DELETE /doctors/{id}  /patients/{id}  /medicines/{id}  /pharmacists/{id}  /prescriptions/{id}
+    //   POST   /prescriptions  {prescriptionId, doctorId, patientId, date, medicineIds[], quantities[]}
+    //   POST   /medicines/{id}/restock  {quantity}
+    //   GET    /doctors/{id}/prescriptions  /patients/{id}/prescriptions
+    //   GET    /doctors?name=Q[&limit=N]  /patients?name=Q  /medicines?name=Q  (name search, best first)
+    //   GET    /reports/sales?from=DD/MM/YYYY[&to=DD/MM/YYYY]  /reports/usage  /reports/low-stock?threshold=N
+    //   GET    /reports/categories[?category=C]                     (stock and sales per category)
+    //   GET    /metrics                                             (call counts and latencies per operation)
+    // Each request runs on its own virtual thread when the JVM has them (Java 21+), otherwise
+    // on a cached platform thread pool; every PharmacyManager call used here is safe to run
+    // alongside the others.
+    static {
+        // Headers and body go out as separate writes; without TCP_NODELAY every keep-alive
+        // response waits on the client's delayed ACK (~40 ms). Read when the server classes load.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    static final int DEFAULT_SEARCH_LIMIT = 10;
+
+    private final PharmacyManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public PharmacyHttpServer(PharmacyManager manager, int port) throws IOException {
+        this.manager = manager;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonWriter json = new JsonWriter();
+        int status;
+        try {
+            status = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath().split("/"),
+                    exchange, json);
+        } catch (NotFound e) {
+            status = 404;
+            json.reset().beginObject().field("error", e.getMessage()).endObject();
+        } catch (RuntimeException e) {
+            status = 400;
+            json.reset().beginObject().field("error", BatchRunner.plain(e.getMessage())).endObject();
+        }
+        byte[] body = json.toBytes();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private static class NotFound extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotFound(String message) {
+            super(message);
+        }
+    }
+
+    private int route(String method, String[] path, HttpExchange exchange, JsonWriter json) throws IOException {
+        // path[0] is the empty segment before the leading slash
+        String resource = path.length > 1 ? path[1] : "";
+        if (resource.equals("metrics") && path.length == 2 && method.equals("GET")) {
+            return metrics(json);
+        }
+        if (resource.equals("reports") && path.length == 3 && method.equals("GET")) {
+            return report(path[2], query(exchange), json);
+        }
+        if (path.length == 2 && method.equals("POST")) {
+            return create(resource, JsonReader.parseObject(readBody(exchange)), json);
+        }
+        if (path.length == 2 && method.equals("GET")) {
+            return searchByName(resource, query(exchange), json);
+        }
+        if (path.length < 3) {
+            throw new NotFound("Unknown resource");
+        }
+        int id = Integer.parseInt(path[2]);
+        if (path.length == 3 && method.equals("GET")) {
+            return find(resource, id, json);
+        }
+        if (path.length == 3 && method.equals("DELETE")) {
+            if (!delete(resource, id)) {
+                throw new IllegalArgumentException("Cannot delete " + resource + " " + id
+                        + ": not found or still referenced");
+            }
+            return 204;
+        }
+        if (path.length == 4 && method.equals("POST") && resource.equals("medicines") && path[3].equals("restock")) {
+            Map<String, Object> body = JsonReader.parseObject(readBody(exchange));
+            if (!manager.restockMedicine(id, JsonReader.intValue(body, "quantity"))) {
+                throw new NotFound("Medicine not found");
+            }
+            writeMedicine(json, manager.findMedicine(id));
+            return 200;
+        }
+        if (path.length == 4 && method.equals("GET") && path[3].equals("prescriptions")) {
+            ArrayList<Prescription> found = switch (resource) {
+                case "doctors" -> manager.getPrescriptionsByDoctor(id);
+                case "patients" -> manager.getPrescriptionsByPatient(id);
+                default -> throw new NotFound("Unknown resource");
+            };
+            json.beginArray();
+            for (Prescription prescription : found) {
+                writePrescription(json, prescription);
+            }
+            json.endArray();
+            return 200;
+        }
+        throw new NotFound("Unknown resource");
+    }
+
+    private int find(String resource, int id, JsonWriter json) {
+        switch (resource) {
+            case "doctors" -> writeDoctor(json, found(manager.findDoctor(id), "Doctor"));
+            case "patients" -> writePatient(json, found(manager.findPatient(id), "Patient"));
+            case "medicines" -> writeMedicine(json, found(manager.findMedicine(id), "Medicine"));
+            case "pharmacists" -> {
+                Pharmacist pharmacist = found(manager.findPharmacist(id), "Pharmacist");
+                json.beginObject().field("pharmacistId", pharmacist.getPharmacistId())
+                        .field("name", pharmacist.getName()).field("shift", pharmacist.getShift()).endObject();
+            }
+            case "prescriptions" -> writePrescription(json, found(manager.findPrescription(id), "Prescription"));
+            default -> throw new NotFound("Unknown resource");
+        }
+        return 200;
+    }
+
+    private int create(String resource, Map<String, Object> body, JsonWriter json) {
+        switch (resource) {
+            case "doctors" -> manager.addDoctor(new Doctor(JsonReader.intValue(body, "doctorId"),
+                    JsonReader.stringValue(body, "name"), JsonReader.stringValue(body, "specialty"),
+                    JsonReader.stringValue(body, "contactNumber")));
+            case "patients" -> manager.addPatient(new Patient(JsonReader.intValue(body, "patientId"),
+                    JsonReader.stringValue(body, "name"), JsonReader.intValue(body, "age"),
+                    JsonReader.stringValue(body, "contactNumber"), JsonReader.stringValue(body, "address")));
+            case "medicines" -> manager.addMedicine(new Medicine(JsonReader.intValue(body, "medicineId"),
+                    JsonReader.stringValue(body, "name"), JsonReader.stringValue(body, "category"),
+                    JsonReader.intValue(body, "quantity"), JsonReader.doubleValue(body, "price")));
+            case "pharmacists" -> manager.addPharmacist(new Pharmacist(JsonReader.intValue(body, "pharmacistId"),
+                    JsonReader.stringValue(body, "name"), JsonReader.stringValue(body, "shift")));
+            case "prescriptions" -> {
+                Prescription prescription = manager.dispensePrescription(JsonReader.intValue(body, "prescriptionId"),
+                        JsonReader.intValue(body, "doctorId"), JsonReader.intValue(body, "patientId"),
+                        JsonReader.stringValue(body, "date"), JsonReader.intArray(body, "medicineIds"),
+                        JsonReader.intArray(body, "quantities"));
+                writePrescription(json, prescription);
+                return 201;
+            }
+            default -> throw new NotFound("Unknown resource");
+        }
+        json.beginObject().field("status", "created").endObject();
+        return 201;
+    }
+
+    private boolean delete(String resource, int id) {
+        return switch (resource) {
+            case "doctors" -> manager.deleteDoctor(id);
+            case "patients" -> manager.deletePatient(id);
+            case "medicines" -> manager.deleteMedicine(id);
+            case "pharmacists" -> manager.deletePharmacist(id);
+            case "prescriptions" -> manager.deletePrescription(id);
+            default -> throw new NotFound("Unknown resource");
+        };
+    }
+
+    private int report(String name, Map<String, String> query, JsonWriter json) {
+        switch (name) {
+            case "sales" -> {
+                LocalDate from = LocalDate.parse(required(query, "from"), Prescription.DATE_FORMAT);
+                LocalDate to = query.containsKey("to")
+                        ? LocalDate.parse(query.get("to"), Prescription.DATE_FORMAT) : from;
+                ReportGenerator.SalesSummary summary = new ReportGenerator(manager)
+                        .salesBetween(from.toEpochDay(), to.toEpochDay());
+                json.beginObject().field("from", from.format(Prescription.DATE_FORMAT))
+                        .field("to", to.format(Prescription.DATE_FORMAT))
+                        .field("prescriptions", summary.getPrescriptions()).field("sales", summary.getSales())
+                        .endObject();
+            }
+            case "usage" -> {
+                json.beginArray();
+                for (ReportGenerator.UsageLine line : new ReportGenerator(manager).usageReport()) {
+                    json.beginObject().field("medicineId", line.getMedicineId()).field("name", line.getName())
+                            .field("totalPrescribed", line.getTotalPrescribed())
+                            .field("remainingStock", line.getRemainingStock()).endObject();
+                }
+                json.endArray();
+            }
+            case "categories" -> {
+                ReportGenerator reports = new ReportGenerator(manager);
+                if (query.containsKey("category")) {
+                    ReportGenerator.CategoryLine line = reports.categoryReport(query.get("category"));
+                    if (line == null) {
+                        throw new NotFound("Category not found");
+                    }
+                    writeCategory(json, line);
+                } else {
+                    json.beginArray();
+                    for (ReportGenerator.CategoryLine line : reports.categoryReport()) {
+                        writeCategory(json, line);
+                    }
+                    json.endArray();
+                }
+            }
+            case "low-stock" -> {
+                json.beginArray();
+                for (Medicine medicine : manager.getInventoryManager()
+                        .findLowStock(Integer.parseInt(required(query, "threshold")))) {
+                    writeMedicine(json, medicine);
+                }
+                json.endArray();
+            }
+            default -> throw new NotFound("Unknown report");
+        }
+        return 200;
+    }
+
+    private int searchByName(String resource, Map<String, String> query, JsonWriter json) {
+        String name = required(query, "name");
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_SEARCH_LIMIT;
+        json.beginArray();
+        switch (resource) {
+            case "doctors" -> manager.searchDoctorsByName(name, limit).forEach(doctor -> writeDoctor(json, doctor));
+            case "patients" -> manager.searchPatientsByName(name, limit)
+                    .forEach(patient -> writePatient(json, patient));
+            case "medicines" -> manager.searchMedicinesByName(name, limit)
+                    .forEach(medicine -> writeMedicine(json, medicine));
+            default -> throw new NotFound("Unknown resource");
+        }
+        json.endArray();
+        return 200;
+    }
+
+    // Operations called so far, latencies in microseconds
+    private int metrics(JsonWriter json) {
+        OperationMetrics metrics = manager.getMetrics();
+        json.beginArray();
+        for (OperationMetrics.Operation operation : OperationMetrics.Operation.values()) {
+            OperationMetrics.Timer timer = metrics.timer(operation);
+            long calls = timer.getCalls();
+            if (calls == 0) {
+                continue;
+            }
+            LatencyHistogram.Snapshot latency = timer.latency();
+            json.beginObject().field("operation", operation.getLabel()).field("calls", calls)
+                    .field("errors", timer.getErrors()).field("meanMicros", latency.getMean() / 1000)
+                    .field("p50Micros", latency.getPercentile(50) / 1000.0)
+                    .field("p99Micros", latency.getPercentile(99) / 1000.0)
+                    .field("maxMicros", latency.getMax() / 1000.0).endObject();
+        }
+        json.endArray();
+        return 200;
+    }
+
+    private static <T> T found(T entity, String type) {
+        if (entity == null) {
+            throw new NotFound(type + " not found");
+        }
+        return entity;
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing query parameter " + name);
+        }
+        return value;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return parameters;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeDoctor(JsonWriter json, Doctor doctor) {
+        json.beginObject().field("doctorId", doctor.getDoctorId()).field("name", doctor.getName())
+                .field("specialty", doctor.getSpecialty()).field("contactNumber", doctor.getContactNumber())
+                .endObject();
+    }
+
+    private static void writePatient(JsonWriter json, Patient patient) {
+        json.beginObject().field("patientId", patient.getPatientId()).field("name", patient.getName())
+                .field("age", patient.getAge()).field("contactNumber", patient.getContactNumber())
+                .field("address", patient.getAddress()).endObject();
+    }
+
+    private static void writeMedicine(JsonWriter json, Medicine medicine) {
+        json.beginObject().field("medicineId", medicine.getMedicineId()).field("name", medicine.getName())
+                .field("category", medicine.getCategory()).field("quantity", medicine.getQuantity())
+                .field("price", medicine.getPrice()).endObject();
+    }
+
+    private static void writeCategory(JsonWriter json, ReportGenerator.CategoryLine line) {
+        json.beginObject().field("category", line.getCategory()).field("medicines", line.getMedicines())
+                .field("stockUnits", line.getStockUnits()).field("unitsSold", line.getUnitsSold())
+                .field("sales", line.getSales()).endObject();
+    }
+
+    private static void writePrescription(JsonWriter json, Prescription prescription) {
+        json.beginObject().field("prescriptionId", prescription.getPrescriptionId())
+                .field("doctorId", prescription.getDoctorId()).field("patientId", prescription.getPatientId())
+                .field("date", prescription.getDate()).field("status", prescription.getStatus());
+        json.name("lines").beginArray();
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            json.beginObject().field("medicineId", prescription.getLineMedicineId(i))
+                    .field("quantity", prescription.getLineQuantity(i)).field("price", prescription.getLinePrice(i))
+                    .endObject();
+        }
+        json.endArray().endObject();
+    }
+}
+
+class JsonWriter {
+    // Minimal streaming JSON encoder writing into one StringBuilder; commas are tracked with a
+    // bit per nesting level so no intermediate objects are created
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final StringBuilder out = new StringBuilder(256);
+    private long needsComma;
+    private int depth;
+
+    public JsonWriter reset() {
+        out.setLength(0);
+        needsComma = 0;
+        depth = 0;
+        return this;
+    }
+
+    private void separator() {
+        if ((needsComma & (1L << depth)) != 0) {
+            out.append(',');
+        }
+        needsComma |= 1L << depth;
+    }
+
+    public JsonWriter beginObject() {
+        separator();
+        out.append('{');
+        depth++;
+        needsComma &= ~(1L << depth);
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        out.append('[');
+        depth++;
+        needsComma &= ~(1L << depth);
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        out.append(']');
+        return this;
+    }
+
+    // Writes a key; the value that follows must not add another separator
+    public JsonWriter name(String name) {
+        separator();
+        string(name);
+        out.append(':');
+        needsComma &= ~(1L << depth);
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) {
+        name(name);
+        needsComma |= 1L << depth;
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, long value) {
+        name(name);
+        needsComma |= 1L << depth;
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter field(String name, double value) {
+        name(name);
+        needsComma |= 1L << depth;
+        out.append(value);
+        return this;
+    }
+
+    private void string(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    public byte[] toBytes() {
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
+
+class JsonReader {
+    // Parses the flat request bodies the HTTP API accepts: one object whose values are
+    // strings, numbers or arrays of numbers
+    private final String text;
+    private int position;
+
+    private JsonReader(String text) {
+        this.text = text;
+    }
+
+    public static Map<String, Object> parseObject(String text) {
+        JsonReader reader = new JsonReader(text);
+        Map<String, Object> values = new HashMap<>();
+        reader.expect('{');
+        if (reader.peek() == '}') {
+            reader.position++;
+            return values;
+        }
+        while (true) {
+            String key = reader.string();
+            reader.expect(':');
+            values.put(key, reader.value());
+            char next = reader.next();
+            if (next == '}') {
+                return values;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Malformed JSON at " + reader.position);
+            }
+        }
+    }
+
+    private Object value() {
+        char c = peek();
+        if (c == '"') {
+            return string();
+        }
+        if (c == '[') {
+            position++;
+            ArrayList<Double> items = new ArrayList<>();
+            if (peek() == ']') {
+                position++;
+                return items;
+            }
+            while (true) {
+                items.add(number());
+                char next = next();
+                if (next == ']') {
+                    return items;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("Malformed JSON array at " + position);
+                }
+            }
+        }
+        return number();
+    }
+
+    private double number() {
+        skipWhitespace();
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw new IllegalArgumentException("Expected a number at " + start);
+        }
+        return Double.parseDouble(text.substring(start, position));
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\' && position < text.length()) {
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string");
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return text.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + (position - 1));
+        }
+    }
+
+    public static String stringValue(Map<String, Object> values, String key) {
+        Object value = values.get(key);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Missing string field " + key);
+        }
+        return (String) value;
+    }
+
+    public static double doubleValue(Map<String, Object> values, String key) {
+        Object value = values.get(key);
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Missing number field " + key);
+        }
+        return (Double) value;
+    }
+
+    public static int intValue(Map<String, Object> values, String key) {
+        return toInt(doubleValue(values, key), key);
+    }
+
+    public static int[] intArray(Map<String, Object> values, String key) {
+        Object value = values.get(key);
+        if (!(value instanceof ArrayList)) {
+            throw new IllegalArgumentException("Missing array field " + key);
+        }
+        ArrayList<?> items = (ArrayList<?>) value;
+        int[] result = new int[items.size()];
+        for (int i = 0; i < result.length; i++) {
+            if (!(items.get(i) instanceof Double)) {
+                throw new IllegalArgumentException("Field " + key + " must be an array of integers");
+            }
+            result[i] = toInt((Double) items.get(i), key);
+        }
+        return result;
+    }
+
+    private static int toInt(double value, String key) {
+        if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Field " + key + " must be an integer");
+        }
+        return (int) value;
+    }
+}
+
+class WorkloadGenerator {
+    // Deterministic synthetic data for scale tests: the same seed and settings always produce the
+    // same doctors, patients, medicines, pharmacists and prescriptions.
+    //   - medicine popularity is Zipfian: the medicine of rank r (ID r) is chosen with weight
+    //     1 / (r + 1)^s, so a few medicines make up most lines
+    //   - a share of prescriptions go to a recently seen patient, who mostly sees the same doctor
+    //   - daily volume follows a yearly cycle peaking in mid-January, with quieter weekends
+    // Prescriptions are produced in date order one at a time, so any number of them can be
+    // streamed to a consumer or a CSV file without being held in memory.
+    public static final String RED = "\u001B[31m";
+    private static final String[] FIRST_NAMES = { "Aisha", "Ahmad", "Mei Ling", "Wei Jie", "Priya", "Arjun",
+            "Nurul", "Hafiz", "Siew Lan", "Kumar", "Farah", "Daniel", "Sarah", "Jason", "Lakshmi", "Ravi",
+            "Zainab", "Chong", "Emily", "Imran", "Grace", "Haziq", "Mariam", "Kevin" };
+    private static final String[] LAST_NAMES = { "Abdullah", "Tan", "Lim", "Wong", "Raj", "Ismail", "Lee",
+            "Chandran", "Ibrahim", "Ng", "Ong", "Subramaniam", "Hassan", "Goh", "Yusof", "Teo", "Pillai",
+            "Rahman", "Chua", "Othman" };
+    private static final String[] SPECIALTIES = { "General Practice", "Cardiology", "Paediatrics", "Dermatology",
+            "Psychiatry", "Endocrinology", "Respiratory", "Orthopaedics" };
+    private static final String[] CATEGORIES = { "Painkiller", "Antibiotic", "Antihistamine", "Cardiovascular",
+            "Diabetes", "Respiratory", "Supplement", "Dermatology", "Gastrointestinal", "Mental Health" };
+    private static final String[] DRUG_STEMS = { "Amlo", "Metfor", "Parace", "Ibupro", "Amoxi", "Lorata", "Omepra",
+            "Atorva", "Salbu", "Cetiri", "Losar", "Sertra", "Gliclaz", "Doxy", "Predni", "Simva" };
+    private static final String[] DRUG_ENDINGS = { "dipine", "min", "tamol", "fen", "cillin", "dine", "zole",
+            "statin", "tamol XR", "zine", "tan", "line", "ide", "cycline", "solone", "vastatin" };
+    private static final String[] STRENGTHS = { "5mg", "10mg", "20mg", "50mg", "100mg", "250mg", "500mg" };
+    private static final String[] STREETS = { "Jalan Ampang", "Jalan Tun Razak", "Jalan Bukit Bintang",
+            "Jalan Ipoh", "Jalan Klang Lama", "Lorong Maarof", "Jalan SS2", "Persiaran Gurney" };
+    private static final String[] SHIFTS = { "Morning", "Evening", "Night" };
+    // Repeat visits are drawn from this many of the most recently seen new patients
+    private static final int RECENT_PATIENTS = 65_536;
+
+    private final long seed;
+    private final int doctors;
+    private final int patients;
+    private final int medicines;
+    private final int pharmacists;
+    private final long prescriptions;
+    private LocalDate startDate = LocalDate.of(2024, 1, 1);
+    private int days = 730;
+    private double zipfExponent = 1.0;
+    private double repeatPatientRate = 0.6;
+    private double seasonalAmplitude = 0.25;
+    private double weekendFactor = 0.6;
+    // Built on first use: cumulative Zipf weights and medicine prices, both indexed by medicine ID
+    private double[] popularity;
+    private long[] prices;
+
+    public WorkloadGenerator(long seed, int doctors, int patients, int medicines, int pharmacists,
+            long prescriptions) {
+        if (doctors < 1 || patients < 1 || medicines < 1 || pharmacists < 0) {
+            throw new IllegalArgumentException(RED + "A workload needs at least one doctor, patient and medicine");
+        }
+        if (prescriptions < 0 || prescriptions > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(RED + "Prescription count must fit a prescription ID");
+        }
+        this.seed = seed;
+        this.doctors = doctors;
+        this.patients = patients;
+        this.medicines = medicines;
+        this.pharmacists = pharmacists;
+        this.prescriptions = prescriptions;
+    }
+
+    // About 20 prescriptions per patient over the default two years, 500 patients per doctor
+    public static WorkloadGenerator scaled(long seed, long prescriptions) {
+        int patients = (int) Math.max(100, prescriptions / 20);
+        int doctors = Math.max(5, patients / 500);
+        int medicines = (int) Math.min(50_000, Math.max(200, prescriptions / 1_000));
+        return new WorkloadGenerator(seed, doctors, patients, medicines, Math.max(2, doctors / 4), prescriptions);
+    }
+
+    public void setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+    }
+
+    public void setDays(int days) {
+        if (days < 1) {
+            throw new IllegalArgumentException(RED + "A workload spans at least one day");
+        }
+        this.days = days;
+    }
+
+    public void setZipfExponent(double zipfExponent) {
+        this.zipfExponent = zipfExponent;
+        popularity = null;
+    }
+
+    public void setRepeatPatientRate(double repeatPatientRate) {
+        this.repeatPatientRate = repeatPatientRate;
+    }
+
+    public void setSeasonalAmplitude(double seasonalAmplitude) {
+        this.seasonalAmplitude = seasonalAmplitude;
+    }
+
+    public void setWeekendFactor(double weekendFactor) {
+        this.weekendFactor = weekendFactor;
+    }
+
+    public int getDoctorCount() {
+        return doctors;
+    }
+
+    public int getPatientCount() {
+        return patients;
+    }
+
+    public int getMedicineCount() {
+        return medicines;
+    }
+
+    public long getPrescriptionCount() {
+        return prescriptions;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    // First day after the generated history
+    public LocalDate getEndDate() {
+        return startDate.plusDays(days);
+    }
+
+    // Independent, well-spread random stream per (kind, id), so any entity can be rebuilt on its own
+    private static long mix(long seed, int kind, long id) {
+        long z = seed + kind * 0x9E3779B97F4A7C15L + id * 0xC2B2AE3D27D4EB4FL;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String phone(SplittableRandom random) {
+        return "01" + random.nextInt(10) + "-" + (1_000_000 + random.nextInt(9_000_000));
+    }
+
+    private String personName(SplittableRandom random) {
+        return pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+    }
+
+    public Doctor doctor(int id) {
+        SplittableRandom random = new SplittableRandom(mix(seed, 1, id));
+        return new Doctor(id, "Dr. " + personName(random), pick(random, SPECIALTIES), phone(random));
+    }
+
+    public Patient patient(int id) {
+        SplittableRandom random = new SplittableRandom(mix(seed, 2, id));
+        return new Patient(id, personName(random), 1 + random.nextInt(95), phone(random),
+                (1 + random.nextInt(300)) + " " + pick(random, STREETS));
+    }
+
+    public Pharmacist pharmacist(int id) {
+        SplittableRandom random = new SplittableRandom(mix(seed, 4, id));
+        return new Pharmacist(id, personName(random), pick(random, SHIFTS));
+    }
+
+    // Stock covers the medicine's expected share of the whole history with a margin (about 12
+    // units are prescribed per prescription), so importing the history never runs it dry
+    public Medicine medicine(int id) {
+        tables();
+        SplittableRandom random = new SplittableRandom(mix(seed, 3, id));
+        String name = pick(random, DRUG_STEMS) + pick(random, DRUG_ENDINGS) + " " + pick(random, STRENGTHS);
+        double share = (popularity[id] - (id == 0 ? 0 : popularity[id - 1])) / popularity[medicines - 1];
+        int quantity = 200 + random.nextInt(500)
+                + (int) Math.min(1_000_000_000, Math.ceil(share * prescriptions * 18));
+        Medicine medicine = new Medicine(id, name, pick(random, CATEGORIES), quantity, 0.0);
+        medicine.setPriceSen(prices[id]);
+        return medicine;
+    }
+
+    public long medicinePriceSen(int id) {
+        tables();
+        return prices[id];
+    }
+
+    private void tables() {
+        if (popularity != null) {
+            return;
+        }
+        double[] cumulative = new double[medicines];
+        long[] sen = new long[medicines];
+        double total = 0;
+        for (int i = 0; i < medicines; i++) {
+            total += 1.0 / Math.pow(i + 1, zipfExponent);
+            cumulative[i] = total;
+            // Log-uniform between RM1 and RM300
+            double u = (mix(seed, 5, i) >>> 11) * 0x1.0p-53;
+            sen[i] = Math.round(Math.exp(u * Math.log(300.0)) * 100);
+        }
+        prices = sen;
+        popularity = cumulative;
+    }
+
+    // Prescriptions per day: seasonal weights, with the total split by cumulative rounding so the
+    // days add up to exactly the requested count
+    private long[] dailyCounts() {
+        double[] weights = new double[days];
+        double total = 0;
+        for (int d = 0; d < days; d++) {
+            LocalDate day = startDate.plusDays(d);
+            double weight = 1 + seasonalAmplitude * Math.cos(2 * Math.PI * (day.getDayOfYear() - 15) / 365.25);
+            if (day.getDayOfWeek().getValue() >= 6) {
+                weight *= weekendFactor;
+            }
+            weights[d] = weight;
+            total += weight;
+        }
+        long[] counts = new long[days];
+        double cumulative = 0;
+        long assigned = 0;
+        for (int d = 0; d < days; d++) {
+            cumulative += weights[d];
+            long upTo = d == days - 1 ? prescriptions : (long) Math.floor(prescriptions * (cumulative / total));
+            counts[d] = upTo - assigned;
+            assigned = upTo;
+        }
+        return counts;
+    }
+
+    // Draws patients, doctors and prescription lines; each sampler is an independent stream
+    public Sampler sampler(long stream) {
+        tables();
+        return new Sampler(new SplittableRandom(mix(seed, 6, stream)));
+    }
+
+    public final class Sampler {
+        private final SplittableRandom random;
+        private final int[] recent = new int[Math.min(RECENT_PATIENTS, patients)];
+        private int recentCount;
+        private int recentNext;
+
+        private Sampler(SplittableRandom random) {
+            this.random = random;
+        }
+
+        public int nextMedicine() {
+            double target = random.nextDouble() * popularity[medicines - 1];
+            int index = Arrays.binarySearch(popularity, target);
+            return Math.min(medicines - 1, index >= 0 ? index : -index - 1);
+        }
+
+        public int nextPatient() {
+            if (recentCount > 0 && random.nextDouble() < repeatPatientRate) {
+                return recent[random.nextInt(recentCount)];
+            }
+            int patient = random.nextInt(patients);
+            recent[recentNext] = patient;
+            recentNext = (recentNext + 1) % recent.length;
+            recentCount = Math.max(recentCount, recentNext == 0 ? recent.length : recentNext);
+            return patient;
+        }
+
+        // Usually the patient's own doctor, sometimes whoever is on duty
+        public int doctorFor(int patient) {
+            if (random.nextInt(5) == 0) {
+                return random.nextInt(doctors);
+            }
+            return (int) Long.remainderUnsigned(mix(seed, 7, patient), doctors);
+        }
+
+        public int nextDoctor() {
+            return random.nextInt(doctors);
+        }
+
+        public int nextPrescription() {
+            return prescriptions == 0 ? 0 : random.nextInt((int) prescriptions);
+        }
+
+        // Fills one to four distinct lines into the arrays (length 4 or more); returns the count
+        public int nextLines(int[] medicineIds, int[] quantities) {
+            int roll = random.nextInt(100);
+            int lines = Math.min(roll < 55 ? 1 : roll < 85 ? 2 : roll < 95 ? 3 : 4, medicines);
+            for (int l = 0; l < lines; l++) {
+                int medicine;
+                boolean repeated;
+                do {
+                    medicine = nextMedicine();
+                    repeated = false;
+                    for (int k = 0; k < l; k++) {
+                        repeated |= medicineIds[k] == medicine;
+                    }
+                } while (repeated);
+                medicineIds[l] = medicine;
+                int size = random.nextInt(10);
+                quantities[l] = size < 6 ? 1 + random.nextInt(3) : size < 9 ? 10 : 30;
+            }
+            return lines;
+        }
+
+        public int nextQuantity(int min, int max) {
+            return min + random.nextInt(max - min + 1);
+        }
+
+        public int nextInt(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    // Generates every prescription in date order; returns how many were produced
+    public long forEachPrescription(Consumer<Prescription> consumer) {
+        Sampler sampler = sampler(0);
+        int[] medicineIds = new int[4];
+        int[] quantities = new int[4];
+        long[] counts = dailyCounts();
+        int id = 0;
+        for (int d = 0; d < days; d++) {
+            LocalDate day = startDate.plusDays(d);
+            for (long i = 0; i < counts[d]; i++) {
+                int patient = sampler.nextPatient();
+                Prescription prescription = new Prescription(id++, sampler.doctorFor(patient), patient, day);
+                int lines = sampler.nextLines(medicineIds, quantities);
+                for (int l = 0; l < lines; l++) {
+                    prescription.addLine(medicineIds[l], quantities[l], prices[medicineIds[l]]);
+                }
+                consumer.accept(prescription);
+            }
+        }
+        return id;
+    }
+
+    // Loads the whole data set into a manager as history (stock is not drawn down)
+    public void populate(PharmacyManager manager) {
+        for (int id = 0; id < medicines; id++) {
+            manager.addMedicine(medicine(id));
+        }
+        for (int id = 0; id < doctors; id++) {
+            manager.addDoctor(doctor(id));
+        }
+        for (int id = 0; id < patients; id++) {
+            manager.addPatient(patient(id));
+        }
+        for (int id = 0; id < pharmacists; id++) {
+            manager.addPharmacist(pharmacist(id));
+        }
+        forEachPrescription(manager::addPrescription);
+    }
+
+    // Writes the data set as the CSV files BulkImporter reads, streaming the prescriptions
+    public void writeCsv(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        try (Writer out = csv(dir, "medicines.csv", "id,name,category,quantity,price")) {
+            for (int id = 0; id < medicines; id++) {
+                Medicine medicine = medicine(id);
+                long sen = medicine.getPriceSen();
+                out.write(id + "," + medicine.getName() + "," + medicine.getCategory() + "," + medicine.getQuantity()
+                        + "," + sen / 100 + (sen % 100 < 10 ? ".0" : ".") + sen % 100 + "\n");
+            }
+        }
+        try (Writer out = csv(dir, "doctors.csv", "id,name,specialty,contact")) {
+            for (int id = 0; id < doctors; id++) {
+                Doctor doctor = doctor(id);
+                out.write(id + "," + doctor.getName() + "," + doctor.getSpecialty() + "," + doctor.getContactNumber()
+                        + "\n");
+            }
+        }
+        try (Writer out = csv(dir, "patients.csv", "id,name,age,contact,address")) {
+            for (int id = 0; id < patients; id++) {
+                Patient patient = patient(id);
+                out.write(id + "," + patient.getName() + "," + patient.getAge() + "," + patient.getContactNumber()
+                        + "," + patient.getAddress() + "\n");
+            }
+        }
+        try (Writer out = csv(dir, "pharmacists.csv", "id,name,shift")) {
+            for (int id = 0; id < pharmacists; id++) {
+                Pharmacist pharmacist = pharmacist(id);
+                out.write(id + "," + pharmacist.getName() + "," + pharmacist.getShift() + "\n");
+            }
+        }
+        try (Writer out = csv(dir, "prescriptions.csv", "prescriptionId,doctorId,patientId,date,medicineId,quantity")) {
+            StringBuilder line = new StringBuilder(64);
+            LocalDate[] lastDay = { null };
+            String[] dayText = { null };
+            forEachPrescription(prescription -> {
+                if (prescription.getLocalDate() != lastDay[0]) {
+                    lastDay[0] = prescription.getLocalDate();
+                    dayText[0] = prescription.getDate();
+                }
+                for (int l = 0; l < prescription.getLineCount(); l++) {
+                    line.setLength(0);
+                    line.append(prescription.getPrescriptionId()).append(',').append(prescription.getDoctorId())
+                            .append(',').append(prescription.getPatientId()).append(',').append(dayText[0])
+                            .append(',').append(prescription.getLineMedicineId(l)).append(',')
+                            .append(prescription.getLineQuantity(l)).append('\n');
+                    try {
+                        out.append(line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Writer csv(Path dir, String file, String header) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(dir.resolve(file)),
+                StandardCharsets.UTF_8), 1 << 16);
+        out.write(header + "\n");
+        return out;
+    }
+}
+
+class WorkloadReplay {
+    // Timed load against a PharmacyManager that already holds a generator's data set. Worker
+    // threads draw operations from a weighted mix until the time is up:
+    //   read      find a prescription or a (Zipf-chosen) medicine, or list a patient's prescriptions
+    //   dispense  a new generated prescription, dated the first day after the history
+    //   restock   a Zipf-chosen medicine, so popular medicines are topped up most
+    //   report    daily sales for that day; every tenth report is the medicine usage report
+    // A dispense refused for lack of stock counts as rejected, not as an error.
+    public static final String RED = "\u001B[31m";
+    static final int READ = 0;
+    static final int DISPENSE = 1;
+    static final int RESTOCK = 2;
+    static final int REPORT = 3;
+
+    public static class Mix {
+        private final int[] weights;
+
+        public Mix(int reads, int dispenses, int restocks, int reports) {
+            if (reads < 0 || dispenses < 0 || restocks < 0 || reports < 0
+                    || reads + dispenses + restocks + reports == 0) {
+                throw new IllegalArgumentException(RED + "Mix weights must be non-negative and not all zero");
+            }
+            weights = new int[] { reads, dispenses, restocks, reports };
+        }
+
+        // "reads:dispenses:restocks:reports", e.g. "70:20:5:5"
+        public static Mix parse(String text) {
+            String[] parts = text.split(":");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException(RED + "Mix must be reads:dispenses:restocks:reports");
+            }
+            try {
+                return new Mix(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                        Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(RED + "Mix weights must be whole numbers");
+            }
+        }
+
+        int pick(int roll) {
+            for (int kind = 0; kind < weights.length; kind++) {
+                roll -= weights[kind];
+                if (roll < 0) {
+                    return kind;
+                }
+            }
+            return REPORT;
+        }
+
+        int total() {
+            return weights[0] + weights[1] + weights[2] + weights[3];
+        }
+    }
+
+    public static class Result {
+        private final long[] completed = new long[4];
+        private long rejected;
+        private long errors;
+        private long elapsedNanos;
+
+        public long getReads() {
+            return completed[READ];
+        }
+
+        public long getDispenses() {
+            return completed[DISPENSE];
+        }
+
+        public long getRestocks() {
+            return completed[RESTOCK];
+        }
+
+        public long getReports() {
+            return completed[REPORT];
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getOperations() {
+            return completed[READ] + completed[DISPENSE] + completed[RESTOCK] + completed[REPORT];
+        }
+
+        public double operationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getOperations() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return getOperations() + " operations in " + elapsedNanos / 1_000_000 + " ms ("
+                    + Math.round(operationsPerSecond()) + " ops/s): " + completed[READ] + " reads, "
+                    + completed[DISPENSE] + " dispenses (" + rejected + " rejected), " + completed[RESTOCK]
+                    + " restocks, " + completed[REPORT] + " reports, " + errors + " errors";
+        }
+    }
+
+    private final PharmacyManager manager;
+    private final WorkloadGenerator generator;
+    private final AtomicLong nextPrescriptionId;
+
+    public WorkloadReplay(PharmacyManager manager, WorkloadGenerator generator) {
+        this.manager = manager;
+        this.generator = generator;
+        this.nextPrescriptionId = new AtomicLong(generator.getPrescriptionCount());
+    }
+
+    public Result run(int threads, long duration, TimeUnit unit, Mix mix) {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        Result[] partial = new Result[threads];
+        Thread[] workers = new Thread[threads];
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Result result = new Result();
+            partial[t] = result;
+            WorkloadGenerator.Sampler sampler = generator.sampler(1_000 + t);
+            workers[t] = new Thread(() -> work(sampler, mix, deadline, result), "workload-" + t);
+            workers[t].start();
+        }
+        Result total = new Result();
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            for (int kind = 0; kind < 4; kind++) {
+                total.completed[kind] += partial[t].completed[kind];
+            }
+            total.rejected += partial[t].rejected;
+            total.errors += partial[t].errors;
+        }
+        total.elapsedNanos = System.nanoTime() - begin;
+        return total;
+    }
+
+    private void work(WorkloadGenerator.Sampler sampler, Mix mix, long deadline, Result result) {
+        ReportGenerator reports = new ReportGenerator(manager);
+        LocalDate today = generator.getEndDate();
+        long todayEpochDay = today.toEpochDay();
+        int[] medicineIds = new int[4];
+        int[] quantities = new int[4];
+        int total = mix.total();
+        while (System.nanoTime() < deadline) {
+            int kind = mix.pick(sampler.nextInt(total));
+            try {
+                switch (kind) {
+                    case READ -> {
+                        int which = sampler.nextInt(3);
+                        if (which == 0) {
+                            manager.findPrescription(sampler.nextPrescription());
+                        } else if (which == 1) {
+                            manager.findMedicine(sampler.nextMedicine());
+                        } else {
+                            manager.getPrescriptionsByPatient(sampler.nextPatient());
+                        }
+                    }
+                    case DISPENSE -> {
+                        int patient = sampler.nextPatient();
+                        int lines = sampler.nextLines(medicineIds, quantities);
+                        try {
+                            manager.dispensePrescription((int) nextPrescriptionId.getAndIncrement(),
+                                    sampler.doctorFor(patient), patient, today, Arrays.copyOf(medicineIds, lines),
+                                    Arrays.copyOf(quantities, lines));
+                        } catch (IllegalArgumentException e) {
+                            result.rejected++;
+                        }
+                    }
+                    case RESTOCK -> manager.restockMedicine(sampler.nextMedicine(), sampler.nextQuantity(100, 1_000));
+                    default -> {
+                        if (sampler.nextInt(10) == 0) {
+                            reports.usageReport();
+                        } else {
+                            reports.salesBetween(todayEpochDay, todayEpochDay);
+                        }
+                    }
+                }
+                result.completed[kind]++;
+            } catch (RuntimeException e) {
+                result.errors++;
+            }
+        }
+    }
+}
+
+class LatencyHistogram {
+    // HDR-style log-linear histogram of latencies in nanoseconds: exact below 64 ns, then 32
+    // buckets per power of two (about 3% resolution) up to 2^36 ns (about 69 s); longer values
+    // are clamped into the last bucket. Counts are striped by recording thread, so recorders
+    // rarely share a cache line and never allocate; readers merge the stripes.
+    static final int SUB_BITS = 6;
+    static final int BUCKETS = 1024;
+    static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int SUM = BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    LatencyHistogram(int stripeCount) {
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        }
+        mask = stripeCount - 1;
+    }
+
+    static int bucket(long nanos) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(nanos) - (SUB_BITS - 1));
+        return (shift << (SUB_BITS - 1)) + (int) (nanos >>> shift);
+    }
+
+    // Largest value that lands in the bucket
+    static long highestValue(int bucket) {
+        if (bucket < 1 << SUB_BITS) {
+            return bucket;
+        }
+        int shift = (bucket >>> (SUB_BITS - 1)) - 1;
+        long mantissa = bucket - ((long) shift << (SUB_BITS - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.getAndIncrement(bucket(value));
+        stripe.getAndAdd(SUM, value);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    // Not atomic with respect to concurrent recording; values recorded meanwhile may survive
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i <= BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Upper bound of the bucket holding the given percentile (0-100)
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        public long getMax() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
+
+class OperationMetrics implements Closeable {
+    // Call counts, error counts and latency histograms per PharmacyManager and ReportGenerator
+    // operation. A timed call costs about 90 ns (two clock reads and two atomic adds), so every
+    // call is counted but only one in 'period' is timed: percentiles are estimated from that
+    // sample, and periods are chosen to keep the average cost under 1% of the operation. A report
+    // operation covers every call, cache hits included; its *Compute operation covers only the
+    // cache misses and, like low-stock queries, is slow enough to time every call.
+    //
+    // Even counting costs 1-2 ns, which is 10-20% of an ID lookup or a report cache hit, so the
+    // fine-grained operations (lookups, prescription lists and report calls including cache hits)
+    // are only recorded when the JVM runs with -Dpharmacy.metrics.fine=true. Mutations, low-stock
+    // queries and computed reports are always recorded.
+    //
+    // Calls are counted with plain increments into the recording thread's stripe. Only threads
+    // whose IDs share a stripe can collide, and then an increment may occasionally be lost.
+    public enum Operation {
+        FIND_MEDICINE("findMedicine", 1024),
+        FIND_DOCTOR("findDoctor", 1024),
+        FIND_PATIENT("findPatient", 1024),
+        FIND_PHARMACIST("findPharmacist", 1024),
+        FIND_PRESCRIPTION("findPrescription", 1024),
+        LIST_PRESCRIPTIONS("prescriptionsBy", 64),
+        ADD("add", 64),
+        ADD_PRESCRIPTION("addPrescription", 64),
+        DISPENSE("dispense", 64),
+        RESTOCK("restock", 256), // about 300 ns in memory
+        DELETE("delete", 256), // a refused delete takes about 30 ns
+        DELETE_PRESCRIPTION("deletePrescription", 64),
+        LOW_STOCK("lowStock", 1),
+        NAME_SEARCH("nameSearch", 16),
+        SALES_REPORT("salesReport", 1024),
+        SALES_REPORT_COMPUTE("salesReportCompute", 1),
+        USAGE_REPORT("usageReport", 1024),
+        USAGE_REPORT_COMPUTE("usageReportCompute", 1),
+        ARCHIVE("archive", 1);
+
+        private final String label;
+        private final int period; // power of two
+
+        Operation(String label, int period) {
+            this.label = label;
+            this.period = period;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+    // Constant for the JIT, so disabled call sites compile to nothing
+    public static final boolean FINE_GRAINED = Boolean.getBoolean("pharmacy.metrics.fine");
+    private static final int COUNTER_STRIPES = 64;
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int COUNTER_SLOTS = 16; // one 128-byte block per stripe
+    private static final String[] COLUMNS = { "calls", "errors", "mean us", "p50 us", "p99 us", "max us" };
+
+    public static final class Timer {
+        private final Operation operation;
+        private final LatencyHistogram latency;
+        private final AtomicLongArray counters = new AtomicLongArray(COUNTER_STRIPES * COUNTER_SLOTS);
+        private final long periodMask;
+
+        Timer(Operation operation, int histogramStripes) {
+            this.operation = operation;
+            this.latency = new LatencyHistogram(histogramStripes);
+            this.periodMask = operation.period - 1;
+        }
+
+        private static int stripe() {
+            return ((int) Thread.currentThread().getId() & (COUNTER_STRIPES - 1)) * COUNTER_SLOTS;
+        }
+
+        // Counts the call; returns the start time if this call is timed, else NOT_TIMED
+        public long begin() {
+            int index = stripe() + CALLS;
+            long calls = counters.getPlain(index);
+            counters.setPlain(index, calls + 1);
+            return (calls & periodMask) == 0 ? System.nanoTime() : NOT_TIMED;
+        }
+
+        public void end(long start) {
+            if (start != NOT_TIMED) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        public void failed() {
+            counters.getAndIncrement(stripe() + ERRORS);
+        }
+
+        public long getCalls() {
+            return sum(CALLS);
+        }
+
+        public long getErrors() {
+            return sum(ERRORS);
+        }
+
+        public LatencyHistogram.Snapshot latency() {
+            return latency.snapshot();
+        }
+
+        private long sum(int slot) {
+            long total = 0;
+            for (int i = 0; i < COUNTER_STRIPES; i++) {
+                total += counters.get(i * COUNTER_SLOTS + slot);
+            }
+            return total;
+        }
+
+        void reset() {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+            latency.reset();
+        }
+    }
+
+    private final Timer[] timers;
+    private ScheduledExecutorService dumpScheduler;
+    private ObjectName registeredAs;
+
+    public OperationMetrics() {
+        // A power of two between 2 and 16, at least the processor count
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int histogramStripes = Math.min(16, Math.max(2, Integer.highestOneBit(cpus * 2 - 1)));
+        Operation[] operations = Operation.values();
+        timers = new Timer[operations.length];
+        for (Operation operation : operations) {
+            timers[operation.ordinal()] = new Timer(operation, histogramStripes);
+        }
+    }
+
+    public Timer timer(Operation operation) {
+        return timers[operation.ordinal()];
+    }
+
+    public void reset() {
+        for (Timer timer : timers) {
+            timer.reset();
+        }
+    }
+
+    // Fixed-width table of every operation called so far, latencies in microseconds
+    public String dump() {
+        StringBuilder text = new StringBuilder(128 * (timers.length + 1));
+        pad(text, "operation", 20);
+        for (String column : COLUMNS) {
+            pad(text, column, 12);
+        }
+        text.append('\n');
+        for (Timer timer : timers) {
+            long calls = timer.getCalls();
+            if (calls == 0) {
+                continue;
+            }
+            LatencyHistogram.Snapshot latency = timer.latency();
+            pad(text, timer.operation.label, 20);
+            pad(text, Long.toString(calls), 12);
+            pad(text, Long.toString(timer.getErrors()), 12);
+            pad(text, micros(latency.getMean()), 12);
+            pad(text, micros(latency.getPercentile(50)), 12);
+            pad(text, micros(latency.getPercentile(99)), 12);
+            pad(text, micros(latency.getMax()), 12);
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void pad(StringBuilder text, String value, int width) {
+        text.append(value);
+        for (int i = value.length(); i < width; i++) {
+            text.append(' ');
+        }
+    }
+
+    // Microseconds with one decimal
+    static String micros(double nanos) {
+        long tenths = Math.round(nanos / 100);
+        return tenths / 10 + "." + tenths % 10;
+    }
+
+    // Writes dump() to the consumer every period until close()
+    public synchronized void scheduleDump(long period, TimeUnit unit, Consumer<String> out) {
+        if (dumpScheduler != null) {
+            dumpScheduler.shutdownNow();
+        }
+        dumpScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pharmacy-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpScheduler.scheduleAtFixedRate(() -> out.accept(dump()), period, period, unit);
+    }
+
+    // Registers these metrics with the platform MBean server as pharmacy:type=Operations,name=<name>
+    public synchronized void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("pharmacy:type=Operations,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), objectName);
+            registeredAs = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics MBean " + name, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (dumpScheduler != null) {
+            dumpScheduler.shutdownNow();
+            dumpScheduler = null;
+        }
+        if (registeredAs != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+            } catch (JMException e) {
+                // Already gone
+            }
+            registeredAs = null;
+        }
+    }
+
+    // Attributes <operation>Calls, <operation>Errors and <operation>{Mean,P50,P99,Max}Micros for
+    // every operation, plus the operations dump() and reset()
+    private final class MBean implements DynamicMBean {
+        private final String[] suffixes = { "Calls", "Errors", "MeanMicros", "P50Micros", "P99Micros", "MaxMicros" };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Timer timer : timers) {
+                String label = timer.operation.label;
+                if (!attribute.startsWith(label)) {
+                    continue;
+                }
+                String suffix = attribute.substring(label.length());
+                switch (suffix) {
+                    case "Calls":
+                        return timer.getCalls();
+                    case "Errors":
+                        return timer.getErrors();
+                    case "MeanMicros":
+                        return timer.latency().getMean() / 1000;
+                    case "P50Micros":
+                        return timer.latency().getPercentile(50) / 1000.0;
+                    case "P99Micros":
+                        return timer.latency().getPercentile(99) / 1000.0;
+                    case "MaxMicros":
+                        return timer.latency().getMax() / 1000.0;
+                    default:
+                        // A longer label with the same prefix may still match
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown attributes are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            switch (actionName) {
+                case "dump":
+                    return dump();
+                case "reset":
+                    reset();
+                    return null;
+                default:
+                    throw new ReflectionException(new NoSuchMethodException(actionName));
+            }
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Timer timer : timers) {
+                for (String suffix : suffixes) {
+                    boolean count = suffix.equals("Calls") || suffix.equals("Errors");
+                    attributes.add(new MBeanAttributeInfo(timer.operation.label + suffix,
+                            count ? "long" : "double", timer.operation.label + " " + suffix, true, false, false));
+                }
+            }
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("dump", "Text table of all operations", new MBeanParameterInfo[0],
+                            "java.lang.String", MBeanOperationInfo.INFO),
+                    new MBeanOperationInfo("reset", "Zero all counts and histograms", new MBeanParameterInfo[0],
+                            "void", MBeanOperationInfo.ACTION) };
+            return new MBeanInfo(OperationMetrics.class.getName(), "Pharmacy operation counts and latencies",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+        }
+    }
+}
+
+class EntityRenderer {
+    // Console output for the display and search screens. Each row is built in one reusable
+    // StringBuilder with the same text as the entity's toString() (which uses String.format and
+    // stays for one-off use) and goes out through a 64 KB buffered writer flushed once per page.
+    // Without a terminal (output piped or redirected) colour codes are left out; NO_COLOR or
+    // -Dpharmacy.plain=true turn them off at a terminal too.
+    public static final String ORANGE = "\u001B[38;5;214m";
+    public static final String RED = "\u001B[31m";
+    public static final int DEFAULT_PAGE_SIZE = 25;
+    // Cursor returned by page() once the last row has been written
+    public static final int END = -1;
+
+    private final Writer out;
+    private final boolean colour;
+    private final StringBuilder row = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    public EntityRenderer(Writer out, boolean colour) {
+        this.out = out;
+        this.colour = colour;
+    }
+
+    // Standard output; only ever flushed, never closed
+    public static EntityRenderer console() {
+        boolean colour = System.console() != null && System.getenv("NO_COLOR") == null
+                && !Boolean.getBoolean("pharmacy.plain");
+        return new EntityRenderer(new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024), colour);
+    }
+
+    public boolean isColour() {
+        return colour;
+    }
+
+    // Writes rows [cursor, cursor + limit) and flushes. Returns the cursor of the next page, or
+    // END after the last row. Cursors are list positions: rows added or deleted between pages
+    // shift the pages after them.
+    public <T> int page(List<? extends T> rows, int cursor, int limit, BiConsumer<EntityRenderer, ? super T> render) {
+        int end = (int) Math.min(rows.size(), (long) cursor + limit);
+        for (int i = cursor; i < end; i++) {
+            render.accept(this, rows.get(i));
+        }
+        flush();
+        return end < rows.size() ? end : END;
+    }
+
+    // A heading or message in the given colour
+    public void line(String colourCode, String text) {
+        start(colourCode).append(text);
+        emit();
+    }
+
+    // Text without a line break, flushed so it shows before the program reads input
+    public void prompt(String colourCode, String text) {
+        start(colourCode).append(text);
+        write();
+        flush();
+    }
+
+    public void doctor(Doctor doctor) {
+        start(ORANGE).append("Doctor ID: ").append(doctor.getDoctorId())
+                .append(", Name: ").append(doctor.getName())
+                .append(", Specialty: ").append(doctor.getSpecialty())
+                .append(", Contact: ").append(doctor.getContactNumber());
+        emit();
+    }
+
+    public void patient(Patient patient) {
+        start(ORANGE).append("Patient ID: ").append(patient.getPatientId())
+                .append(", Name: ").append(patient.getName())
+                .append(", Age: ").append(patient.getAge())
+                .append(", Contact: ").append(patient.getContactNumber())
+                .append(", Address: ").append(patient.getAddress());
+        emit();
+    }
+
+    public void pharmacist(Pharmacist pharmacist) {
+        start(ORANGE).append("Pharmacist ID: ").append(pharmacist.getPharmacistId())
+                .append(", Name: ").append(pharmacist.getName())
+                .append(", Shift: ").append(pharmacist.getShift());
+        emit();
+    }
+
+    public void medicine(Medicine medicine) {
+        appendMedicine(medicine.getMedicineId(), medicine.getName(), medicine.getCategory(), medicine.getQuantity(),
+                medicine.getPriceSen());
+        emit();
+    }
+
+    // Header, then one medicine row per line and a blank line, as println(prescription) prints it
+    public void prescription(Prescription prescription) {
+        start(ORANGE).append("Prescription ID: ").append(prescription.getPrescriptionId())
+                .append(", Doctor ID: ").append(prescription.getDoctorId())
+                .append(", Patient ID: ").append(prescription.getPatientId())
+                .append(", Date: ");
+        appendDate(prescription.getLocalDate());
+        row.append(", Status: ").append(prescription.getStatus()).append("\nMedicines:");
+        emit();
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            Medicine medicine = prescription.getLineCatalogueMedicine(i);
+            appendMedicine(prescription.getLineMedicineId(i), medicine == null ? "Unknown" : medicine.getName(),
+                    medicine == null ? "" : medicine.getCategory(), prescription.getLineQuantity(i),
+                    prescription.getLinePriceSen(i));
+            emit();
+        }
+        emit();
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private StringBuilder start(String colourCode) {
+        if (colour) {
+            row.append(colourCode);
+        }
+        return row;
+    }
+
+    private void appendMedicine(int medicineId, String name, String category, int quantity, long priceSen) {
+        start(ORANGE).append("Medicine ID: ").append(medicineId)
+                .append(", Name: ").append(name)
+                .append(", Category: ").append(category)
+                .append(", Quantity: ").append(quantity)
+                .append(", Price: RM");
+        if (priceSen < 0) {
+            row.append('-');
+            priceSen = -priceSen;
+        }
+        long cents = priceSen % 100;
+        row.append(priceSen / 100).append(cents < 10 ? ".0" : ".").append(cents);
+    }
+
+    // dd/MM/yyyy, as Prescription.DATE_FORMAT prints it
+    private void appendDate(LocalDate date) {
+        appendPadded(date.getDayOfMonth(), 2);
+        row.append('/');
+        appendPadded(date.getMonthValue(), 2);
+        row.append('/');
+        appendPadded(date.getYear(), 4);
+    }
+
+    private void appendPadded(int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                row.append('0');
+            }
+        }
+        row.append(value);
+    }
+
+    private void emit() {
+        row.append('\n');
+        write();
+    }
+
+    // Writer.append(CharSequence) would copy the row into a new String
+    private void write() {
+        int length = row.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        row.getChars(0, length, chars, 0);
+        try {
+            out.write(chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        row.setLength(0);
+    }
+}
+
+class PharmacyManager {
+    public static final String RED = "\u001B[31m";
+    public static final String MINT_GREEN = "\u001B[38;2;152;251;152m"; 
+    public static final String YELLOW = "\u001B[33m"; 
+    public static final String PEACH = "\u001B[38;2;255;218;185m";   
+    public static final String SKY_BLUE = "\u001B[38;2;135;206;235m"; 
+    public static final String GREEN = "\u001B[32m";      
+    public static final String BRIGHT_PURPLE = "\u001B[95m"; 
+    public static final String CYAN = "\u001B[36m";
+    public static final String BRIGHT_CORAL = "\u001B[38;2;255;127;80m"; 
+    public static final String ORANGE = "\u001B[38;5;214m"; 
+
+    private ArrayList<Doctor> doctors;
+    private ArrayList<Patient> patients;
+    private ArrayList<Medicine> medicines;
+    private ArrayList<Prescription> prescriptions;
+    private ArrayList<Pharmacist> pharmacists;
+    // ID indexes kept in sync with the lists above; each entry also holds the entity's list
+    // position, so deletes swap-remove (see removeEntity)
+    private IdIndex<Doctor> doctorIndex;
+    private IdIndex<Patient> patientIndex;
+    private IdIndex<Medicine> medicineIndex;
+    private IdIndex<Prescription> prescriptionIndex;
+    private IdIndex<Pharmacist> pharmacistIndex;
+    // Secondary indexes: doctor, patient and medicine ID -> prescriptions referencing them
+    private IdIndex<ArrayList<Prescription>> prescriptionsByDoctor;
+    private IdIndex<ArrayList<Prescription>> prescriptionsByPatient;
+    private IdIndex<ArrayList<Prescription>> prescriptionsByMedicine;
+    // Total quantity prescribed per medicine ID, maintained on prescription add/delete
+    private IdCounter prescribedTotals;
+    // Prescriptions partitioned by date (epoch day), for range reports
+    private TreeMap<Long, DayPartition> prescriptionsByDay;
+    // Cold tier: prescriptions moved out of the lists and indexes above by
+    // archivePrescriptionsBefore. The running totals still include them. Null until openArchive.
+    private volatile PrescriptionArchive archive;
+    private ScheduledExecutorService archiveScheduler;
+    // Name search indexes, kept in sync by the insert and delete methods
+    private final NameIndex<Doctor> doctorNames = new NameIndex<>(Doctor::getDoctorId, Doctor::getName);
+    private final NameIndex<Patient> patientNames = new NameIndex<>(Patient::getPatientId, Patient::getName);
+    private final NameIndex<Medicine> medicineNames = new NameIndex<>(Medicine::getMedicineId, Medicine::getName);
+    // Cached report results, invalidated by the mutations below
+    private final ReportCache reportCache = new ReportCache();
+    // Stock-change events from every dispense, restock and adjustment, for alert subscribers
+    private final StockEventStream stockEvents = new StockEventStream();
+    // Off-heap stock and price columns behind every registered Medicine
+    private final InventoryStore inventory = new InventoryStore(stockEvents);
+    private final InventoryManager inventoryManager;
+    // Striped locks serialising multi-line dispenses that touch the same medicines
+    private static final int STOCK_STRIPES = 64;
+    private final ReentrantLock[] stockLocks = new ReentrantLock[STOCK_STRIPES];
+    // Optional write-ahead journal; null for a purely in-memory manager
+    private Journal journal;
+    // Optional snapshot file, loaded before the journal tail is replayed
+    private Path snapshotPath;
+    private ScheduledExecutorService snapshotScheduler;
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // Call counts and latency histograms of the public operations below
+    private final OperationMetrics metrics = new OperationMetrics();
+    private final OperationMetrics.Timer findMedicineTimer = metrics.timer(OperationMetrics.Operation.FIND_MEDICINE);
+    private final OperationMetrics.Timer findDoctorTimer = metrics.timer(OperationMetrics.Operation.FIND_DOCTOR);
+    private final OperationMetrics.Timer findPatientTimer = metrics.timer(OperationMetrics.Operation.FIND_PATIENT);
+    private final OperationMetrics.Timer findPharmacistTimer =
+            metrics.timer(OperationMetrics.Operation.FIND_PHARMACIST);
+    private final OperationMetrics.Timer findPrescriptionTimer =
+            metrics.timer(OperationMetrics.Operation.FIND_PRESCRIPTION);
+    private final OperationMetrics.Timer listPrescriptionsTimer =
+            metrics.timer(OperationMetrics.Operation.LIST_PRESCRIPTIONS);
+    private final OperationMetrics.Timer addTimer = metrics.timer(OperationMetrics.Operation.ADD);
+    private final OperationMetrics.Timer addPrescriptionTimer =
+            metrics.timer(OperationMetrics.Operation.ADD_PRESCRIPTION);
+    private final OperationMetrics.Timer dispenseTimer = metrics.timer(OperationMetrics.Operation.DISPENSE);
+    private final OperationMetrics.Timer restockTimer = metrics.timer(OperationMetrics.Operation.RESTOCK);
+    private final OperationMetrics.Timer deleteTimer = metrics.timer(OperationMetrics.Operation.DELETE);
+    private final OperationMetrics.Timer deletePrescriptionTimer =
+            metrics.timer(OperationMetrics.Operation.DELETE_PRESCRIPTION);
+    private final OperationMetrics.Timer nameSearchTimer = metrics.timer(OperationMetrics.Operation.NAME_SEARCH);
+    private final OperationMetrics.Timer archiveTimer = metrics.timer(OperationMetrics.Operation.ARCHIVE);
+    private Scanner scanner;
+    public PharmacyManager() {
+        for (int i = 0; i < STOCK_STRIPES; i++) {
+            stockLocks[i] = new ReentrantLock();
+        }
+        doctors = new ArrayList<>();
+        patients = new ArrayList<>();
+        medicines = new ArrayList<>();
+        prescriptions = new ArrayList<>();
+        pharmacists = new ArrayList<>();
+        doctorIndex = new IdIndex<>();
+        patientIndex = new IdIndex<>();
+        medicineIndex = new IdIndex<>();
+        prescriptionIndex = new IdIndex<>();
+        pharmacistIndex = new IdIndex<>();
+        prescriptionsByDoctor = new IdIndex<>();
+        prescriptionsByPatient = new IdIndex<>();
+        prescriptionsByMedicine = new IdIndex<>();
+        prescribedTotals = new IdCounter();
+        prescriptionsByDay = new TreeMap<>();
+        inventoryManager = new InventoryManager(this);
+        scanner = new Scanner(System.in);
+        scanner = new Scanner(System.in);
+    }
+
+    // Persistent manager: replays the journal at journalPath, then logs every mutation to it
+    public PharmacyManager(Path journalPath, Journal.SyncMode syncMode) {
+        this(journalPath, null, syncMode);
+    }
+
+    public PharmacyManager(Path journalPath) {
+        this(journalPath, null, Journal.SyncMode.GROUP_COMMIT);
+    }
+
+    public PharmacyManager(Path journalPath, Path snapshotPath) {
+        this(journalPath, snapshotPath, Journal.SyncMode.GROUP_COMMIT);
+    }
+
+    // Loads the snapshot (if there is one) and replays only the journal written after it
+    public PharmacyManager(Path journalPath, Path snapshotPath, Journal.SyncMode syncMode) {
+        this();
+        this.snapshotPath = snapshotPath;
+        long replayFrom = 0;
+        if (snapshotPath != null && Files.exists(snapshotPath)) {
+            replayFrom = Snapshot.load(snapshotPath, this);
+        }
+        Journal opened = new Journal(journalPath, syncMode);
+        opened.replay(this, replayFrom);
+        journal = opened;
+    }
+
+    // Writes a snapshot covering everything journaled so far. Dispensing and other
+    // mutations pause while the image is written.
+    public void snapshot() {
+        if (snapshotPath == null) {
+            throw new IllegalStateException("No snapshot file configured");
+        }
+        snapshotLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                writeSnapshot();
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the snapshot write lock and the manager lock
+    private void writeSnapshot() {
+        long position = 0;
+        if (journal != null) {
+            // The journal must reach the position the snapshot refers to
+            position = journal.position();
+            journal.awaitDurable(position);
+        }
+        Snapshot.write(this, snapshotPath, position);
+    }
+
+    public void scheduleSnapshots(long period, TimeUnit unit) {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pharmacy-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleAtFixedRate(() -> {
+            try {
+                snapshot();
+            } catch (RuntimeException e) {
+                System.out.println(RED + "Snapshot failed: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    // Attaches the archive kept in directory (created on the first archive run) and folds its
+    // totals into the running totals. Live prescriptions the archive already holds are dropped
+    // first: they are left behind by a crash between archiving and the next snapshot, or
+    // replayed from a journal that predates the archive run.
+    public void openArchive(Path directory) {
+        snapshotLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (archive != null) {
+                    throw new IllegalStateException("Archive already open");
+                }
+                PrescriptionArchive opened = PrescriptionArchive.open(directory, this);
+                if (opened.size() > 0) {
+                    ArrayList<Prescription> duplicates = new ArrayList<>();
+                    for (Prescription prescription : prescriptions) {
+                        if (opened.contains(prescription.getPrescriptionId())) {
+                            duplicates.add(prescription);
+                        }
+                    }
+                    removeLive(duplicates, true);
+                    CategoryDictionary categories = inventory.getCategories();
+                    opened.forEachMedicineTotal((medicineId, units, salesSen) -> {
+                        prescribedTotals.add(medicineId, units);
+                        Medicine medicine = medicineIndex.get(medicineId);
+                        if (medicine != null && medicine.getCategoryCode() >= 0) {
+                            categories.addSales(medicine.getCategoryCode(), units, salesSen);
+                        }
+                    });
+                    reportCache.clear();
+                }
+                archive = opened;
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    public PrescriptionArchive getArchive() {
+        return archive;
+    }
+
+    // Moves every live prescription dated before cutoff into the archive and returns how many
+    // moved. Totals and report results do not change. Mutations pause meanwhile, and a snapshot
+    // is written straight after (when configured) so restarts no longer load the moved ones.
+    public int archivePrescriptionsBefore(LocalDate cutoff) {
+        long start = archiveTimer.begin();
+        snapshotLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                PrescriptionArchive target = archive;
+                if (target == null) {
+                    throw new IllegalStateException("No archive open");
+                }
+                ArrayList<Prescription> old = new ArrayList<>();
+                for (DayPartition day : prescriptionsByDay.headMap(cutoff.toEpochDay()).values()) {
+                    old.addAll(day.snapshot());
+                }
+                if (old.isEmpty()) {
+                    return 0;
+                }
+                target.append(old);
+                removeLive(old, false);
+                if (snapshotPath != null) {
+                    writeSnapshot();
+                }
+                return old.size();
+            }
+        } catch (RuntimeException e) {
+            archiveTimer.failed();
+            throw e;
+        } finally {
+            snapshotLock.writeLock().unlock();
+            archiveTimer.end(start);
+        }
+    }
+
+    public int archivePrescriptionsOlderThan(int days) {
+        return archivePrescriptionsBefore(LocalDate.now().minusDays(days));
+    }
+
+    // Archives prescriptions older than maxAgeDays now and then once per period
+    public void scheduleArchiving(int maxAgeDays, long period, TimeUnit unit) {
+        if (archiveScheduler != null) {
+            archiveScheduler.shutdownNow();
+        }
+        archiveScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pharmacy-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiveScheduler.scheduleAtFixedRate(() -> {
+            try {
+                archivePrescriptionsOlderThan(maxAgeDays);
+            } catch (RuntimeException e) {
+                System.out.println(RED + "Archiving failed: " + e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    // Drops prescriptions from the live list and indexes in one pass per affected bucket;
+    // with subtractTotals their lines also leave the running totals
+    private void removeLive(List<Prescription> moved, boolean subtractTotals) {
+        if (moved.isEmpty()) {
+            return;
+        }
+        Set<Prescription> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        gone.addAll(moved);
+        HashSet<Integer> doctorIds = new HashSet<>();
+        HashSet<Integer> patientIds = new HashSet<>();
+        HashSet<Integer> medicineIds = new HashSet<>();
+        HashSet<Long> days = new HashSet<>();
+        for (Prescription prescription : moved) {
+            removeEntity(prescriptions, prescriptionIndex, prescription.getPrescriptionId(),
+                    Prescription::getPrescriptionId);
+            doctorIds.add(prescription.getDoctorId());
+            patientIds.add(prescription.getPatientId());
+            days.add(prescription.getEpochDay());
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                medicineIds.add(prescription.getLineMedicineId(i));
+                if (subtractTotals) {
+                    prescribedTotals.add(prescription.getLineMedicineId(i), -prescription.getLineQuantity(i));
+                    addCategorySales(prescription, i, -1);
+                }
+            }
+        }
+        pruneBuckets(prescriptionsByDoctor, doctorIds, gone);
+        pruneBuckets(prescriptionsByPatient, patientIds, gone);
+        pruneBuckets(prescriptionsByMedicine, medicineIds, gone);
+        for (long day : days) {
+            DayPartition partition = prescriptionsByDay.get(day);
+            if (partition != null) {
+                partition.removeIf(gone);
+                if (partition.isEmpty()) {
+                    prescriptionsByDay.remove(day);
+                }
+            }
+        }
+    }
+
+    private static void pruneBuckets(IdIndex<ArrayList<Prescription>> index, Set<Integer> keys,
+            Set<Prescription> gone) {
+        for (int key : keys) {
+            ArrayList<Prescription> bucket = index.get(key);
+            if (bucket != null) {
+                bucket.removeIf(gone::contains);
+                if (bucket.isEmpty()) {
+                    index.remove(key);
+                } else {
+                    bucket.trimToSize();
+                }
+            }
+        }
+    }
+
+    // Pre-sizes the lists and ID indexes ahead of a bulk load
+    void ensureCapacity(int doctorCount, int patientCount, int medicineCount, int pharmacistCount,
+            int prescriptionCount) {
+        doctors.ensureCapacity(doctorCount);
+        doctorIndex.ensureCapacity(doctorCount);
+        patients.ensureCapacity(patientCount);
+        patientIndex.ensureCapacity(patientCount);
+        medicines.ensureCapacity(medicineCount);
+        medicineIndex.ensureCapacity(medicineCount);
+        pharmacists.ensureCapacity(pharmacistCount);
+        pharmacistIndex.ensureCapacity(pharmacistCount);
+        prescriptions.ensureCapacity(prescriptionCount);
+        prescriptionIndex.ensureCapacity(prescriptionCount);
+    }
+
+    public boolean isEmpty() {
+        return doctors.isEmpty() && patients.isEmpty() && medicines.isEmpty()
+                && prescriptions.isEmpty() && pharmacists.isEmpty() && (archive == null || archive.size() == 0);
+    }
+
+    // Mutations append to the journal while holding the manager lock, then wait for the
+    // fsync outside it so concurrent callers can share one group commit
+    void awaitDurable(long position) {
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+    }
+
+    // Direct object addition methods
+    public void addDoctor(Doctor doctor) {
+        long start = addTimer.begin();
+        try {
+            awaitDurable(insertDoctor(doctor));
+        } catch (RuntimeException e) {
+            addTimer.failed();
+            throw e;
+        } finally {
+            addTimer.end(start);
+        }
+    }
+
+    public void addPatient(Patient patient) {
+        long start = addTimer.begin();
+        try {
+            awaitDurable(insertPatient(patient));
+        } catch (RuntimeException e) {
+            addTimer.failed();
+            throw e;
+        } finally {
+            addTimer.end(start);
+        }
+    }
+
+    public void addMedicine(Medicine medicine) {
+        long start = addTimer.begin();
+        try {
+            awaitDurable(insertMedicine(medicine));
+        } catch (RuntimeException e) {
+            addTimer.failed();
+            throw e;
+        } finally {
+            addTimer.end(start);
+        }
+    }
+
+    public void addPharmacist(Pharmacist pharmacist) {
+        long start = addTimer.begin();
+        try {
+            awaitDurable(insertPharmacist(pharmacist));
+        } catch (RuntimeException e) {
+            addTimer.failed();
+            throw e;
+        } finally {
+            addTimer.end(start);
+        }
+    }
+
+    // Registers an existing prescription without touching stock
+    public void addPrescription(Prescription prescription) {
+        long start = addPrescriptionTimer.begin();
+        try {
+            awaitDurable(insertPrescription(prescription, false));
+        } catch (RuntimeException e) {
+            addPrescriptionTimer.failed();
+            throw e;
+        } finally {
+            addPrescriptionTimer.end(start);
+        }
+    }
+
+    // dispensed: the prescription's lines have already been taken out of stock
+    private void registerPrescription(Prescription prescription, boolean dispensed) {
+        awaitDurable(insertPrescription(prescription, dispensed));
+    }
+
+    // The insert methods apply a mutation and append it to the journal without waiting for
+    // the fsync; they return the journal position to pass to awaitDurable(). Bulk loaders
+    // call them for a whole batch and wait once.
+    synchronized long insertDoctor(Doctor doctor) {
+        if (doctorIndex.get(doctor.getDoctorId()) != null) {
+            throw new IllegalArgumentException(RED + "Doctor ID already exists");
+        }
+        doctors.add(doctor);
+        doctorIndex.put(doctor.getDoctorId(), doctor, doctors.size() - 1);
+        doctorNames.add(doctor);
+        return journal == null ? 0 : journal.logAddDoctor(doctor);
+    }
+
+    synchronized long insertPatient(Patient patient) {
+        if (patientIndex.get(patient.getPatientId()) != null) {
+            throw new IllegalArgumentException(RED + "Patient ID already exists");
+        }
+        patients.add(patient);
+        patientIndex.put(patient.getPatientId(), patient, patients.size() - 1);
+        patientNames.add(patient);
+        return journal == null ? 0 : journal.logAddPatient(patient);
+    }
+
+    synchronized long insertMedicine(Medicine medicine) {
+        if (medicineIndex.get(medicine.getMedicineId()) != null) {
+            throw new IllegalArgumentException(RED + "Medicine ID already exists");
+        }
+        inventory.attach(medicine);
+        medicines.add(medicine);
+        reportCache.invalidateUsage();
+        medicineIndex.put(medicine.getMedicineId(), medicine, medicines.size() - 1);
+        medicineNames.add(medicine);
+        return journal == null ? 0 : journal.logAddMedicine(medicine);
+    }
+
+    synchronized long insertPharmacist(Pharmacist pharmacist) {
+        if (pharmacistIndex.get(pharmacist.getPharmacistId()) != null) {
+            throw new IllegalArgumentException(RED + "Pharmacist ID already exists");
+        }
+        pharmacists.add(pharmacist);
+        pharmacistIndex.put(pharmacist.getPharmacistId(), pharmacist, pharmacists.size() - 1);
+        return journal == null ? 0 : journal.logAddPharmacist(pharmacist);
+    }
+
+    synchronized long insertPrescription(Prescription prescription, boolean dispensed) {
+        if (prescriptionIndex.get(prescription.getPrescriptionId()) != null
+                || (archive != null && archive.contains(prescription.getPrescriptionId()))) {
+            throw new IllegalArgumentException(RED + "Prescription ID already exists");
+        }
+        prescription.setCatalogue(this);
+        prescriptions.add(prescription);
+        prescriptionIndex.put(prescription.getPrescriptionId(), prescription, prescriptions.size() - 1);
+        indexPrescription(prescription);
+        reportCache.invalidateDay(prescription.getEpochDay());
+        return journal == null ? 0 : journal.logAddPrescription(prescription, dispensed);
+    }
+
+    // Journal replay: re-applies the stock taken by a dispensed prescription, then registers it
+    void restorePrescription(Prescription prescription, boolean dispensed) {
+        if (dispensed) {
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                Medicine medicine = medicineIndex.get(prescription.getLineMedicineId(i));
+                if (medicine != null) {
+                    medicine.addQuantity(-prescription.getLineQuantity(i));
+                }
+            }
+        }
+        registerPrescription(prescription, dispensed);
+    }
+
+    // Journal replay: applies a stock update exactly as it was logged, including ones older builds accepted
+    synchronized void restoreStock(int medicineId, int quantity) {
+        Medicine medicine = findMedicine(medicineId);
+        if (medicine != null) {
+            medicine.addQuantity(quantity);
+            reportCache.invalidateUsage();
+        }
+    }
+
+    // Adds a delivered quantity to stock; stock is only ever taken by dispensing
+    public boolean restockMedicine(int medicineId, int quantity) {
+        long start = restockTimer.begin();
+        try {
+            if (quantity <= 0) {
+                throw new IllegalArgumentException(RED + "Quantity must be positive");
+            }
+            long position = 0;
+            synchronized (this) {
+                Medicine medicine = medicineIndex.get(medicineId);
+                if (medicine == null)
+                    return false;
+                if ((long) medicine.getQuantity() + quantity > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(RED + "Stock of " + medicine.getName() + " would overflow");
+                }
+                medicine.addQuantity(quantity);
+                reportCache.invalidateUsage();
+                if (journal != null) {
+                    position = journal.logStockUpdate(medicineId, quantity);
+                }
+            }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            restockTimer.failed();
+            throw e;
+        } finally {
+            restockTimer.end(start);
+        }
+    }
+
+    // Marks a delivery line that was not applied in the result of restockMedicines()
+    public static final int NOT_RESTOCKED = Integer.MIN_VALUE;
+
+    // Applies a whole delivery in one critical section and one journal record. Lines are sorted
+    // by medicine ID so each medicine is looked up and updated once, however many lines name it.
+    // Returns the stock after the delivery for each input line, or NOT_RESTOCKED where the
+    // medicine does not exist, the quantity is not positive or the medicine's lines together
+    // would take its stock past Integer.MAX_VALUE.
+    public int[] restockMedicines(int[] medicineIds, int[] quantities) {
+        long timed = restockTimer.begin();
+        try {
+            if (medicineIds.length != quantities.length) {
+                throw new IllegalArgumentException(RED + "Each medicine needs a quantity");
+            }
+            int lines = medicineIds.length;
+            long[] order = new long[lines];
+            for (int i = 0; i < lines; i++) {
+                order[i] = (long) medicineIds[i] << 32 | i;
+            }
+            Arrays.sort(order);
+
+            int[] stockAfter = new int[lines];
+            int[] appliedIds = new int[lines];
+            int[] appliedTotals = new int[lines];
+            int applied = 0;
+            long position = 0;
+            synchronized (this) {
+                for (int start = 0; start < lines;) {
+                    int medicineId = (int) (order[start] >> 32);
+                    int end = start;
+                    long total = 0;
+                    while (end < lines && (int) (order[end] >> 32) == medicineId) {
+                        int quantity = quantities[(int) order[end]];
+                        if (quantity > 0) {
+                            total += quantity;
+                        }
+                        end++;
+                    }
+                    Medicine medicine = medicineIndex.get(medicineId);
+                    int after = NOT_RESTOCKED;
+                    if (medicine != null && total > 0 && medicine.getQuantity() + total <= Integer.MAX_VALUE) {
+                        after = medicine.addQuantity((int) total);
+                        appliedIds[applied] = medicineId;
+                        appliedTotals[applied++] = (int) total;
+                    }
+                    for (int i = start; i < end; i++) {
+                        int line = (int) order[i];
+                        stockAfter[line] = quantities[line] > 0 ? after : NOT_RESTOCKED;
+                    }
+                    start = end;
+                }
+                if (applied > 0) {
+                    reportCache.invalidateUsage();
+                }
+                if (journal != null && applied > 0) {
+                    position = journal.logStockBatch(appliedIds, appliedTotals, applied);
+                }
+            }
+            awaitDurable(position);
+            return stockAfter;
+        } catch (RuntimeException e) {
+            restockTimer.failed();
+            throw e;
+        } finally {
+            restockTimer.end(timed);
+        }
+    }
+
+    // Interactive addition methods
+    public void addPharmacistInteractive() {
+        try {
+            System.out.println(MINT_GREEN + "\nEnter Pharmacist Details:");
+            System.out.print("ID: ");
+            int id = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            if (findPharmacist(id) != null) {
+                System.out.println(RED + "Pharmacist ID already exists!");
+                return;
+            }
+
+            System.out.print(MINT_GREEN + "Name: ");
+            String name = scanner.nextLine();
+            System.out.print(MINT_GREEN + "Shift: ");
+            String shift = scanner.nextLine();
+
+            addPharmacist(new Pharmacist(id, name, shift));
+            System.out.println(YELLOW + "Pharmacist added successfully!");
+        } catch (InputMismatchException e) {
+            System.out.println(RED + "Invalid input! Please enter correct data types.");
+            scanner.nextLine(); // Clear the scanner
+        }
+    }
+    public void addDoctorInteractive() {
+        try {
+            System.out.println(MINT_GREEN + "\nEnter Doctor Details:");
+            System.out.print(MINT_GREEN + "ID: ");
+            int id = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            if (findDoctor(id) != null) {
+                System.out.println(RED + "Doctor ID already exists!");
+                return;
             }
 
             System.out.print(MINT_GREEN + "Name: ");
@@ -411,248 +7978,770 @@ class PharmacyManager {
             System.out.print(MINT_GREEN + "Contact Number: ");
             String contact = scanner.nextLine();
 
-            doctors.add(new Doctor(id, name, specialty, contact));
-            System.out.println(YELLOW + "Doctor added successfully!");
-        } catch (InputMismatchException e) {
-            System.out.println(RED + "Invalid input! Please enter correct data types.");
-            scanner.nextLine(); // Clear the scanner
+            addDoctor(new Doctor(id, name, specialty, contact));
+            System.out.println(YELLOW + "Doctor added successfully!");
+        } catch (InputMismatchException e) {
+            System.out.println(RED + "Invalid input! Please enter correct data types.");
+            scanner.nextLine(); // Clear the scanner
+        }
+    }
+
+    public void addPatientInteractive() {
+        try {
+            System.out.println(MINT_GREEN + "\nEnter Patient Details:");
+            System.out.print(MINT_GREEN + "ID: ");
+            int id = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            if (findPatient(id) != null) {
+                System.out.println(RED + "Patient ID already exists!");
+                return;
+            }
+
+            System.out.print(MINT_GREEN + "Name: ");
+            String name = scanner.nextLine();
+            System.out.print(MINT_GREEN + "Age: ");
+            int age = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+            System.out.print(MINT_GREEN + "Contact Number: ");
+            String contact = scanner.nextLine();
+            System.out.print(MINT_GREEN + "Address: ");
+            String address = scanner.nextLine();
+
+            addPatient(new Patient(id, name, age, contact, address));
+            System.out.println(YELLOW + "Patient added successfully!");
+        } catch (InputMismatchException e) {
+            System.out.println(RED + "Invalid input! Please enter correct data types.");
+            scanner.nextLine(); // Clear the scanner
+        }
+    }
+
+    public void addMedicineInteractive() {
+        try {
+            System.out.println( MINT_GREEN + "\nEnter Medicine Details:");
+            System.out.print(MINT_GREEN + "ID: ");
+            int id = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            if (findMedicine(id) != null) {
+                System.out.println(RED + "Medicine ID already exists!");
+                return;
+            }
+
+            System.out.print(MINT_GREEN + "Name: ");
+            String name = scanner.nextLine();
+            System.out.print(MINT_GREEN + "Category: ");
+            String category = scanner.nextLine();
+            System.out.print(MINT_GREEN + "Quantity: ");
+            int quantity = scanner.nextInt();
+            System.out.print(MINT_GREEN + "Price (RM): ");
+            double price = scanner.nextDouble();
+
+            addMedicine(new Medicine(id, name, category, quantity, price));
+            System.out.println(YELLOW + "Medicine added successfully!");
+        } catch (InputMismatchException e) {
+            System.out.println(RED + "Invalid input! Please enter correct data types.");
+            scanner.nextLine(); // Clear the scanner
+        }
+    }
+
+    public void createPrescriptionInteractive() {
+        try {
+            System.out.println(PEACH + "\nEnter Prescription Details:");
+            System.out.print(PEACH + "Prescription ID: ");
+            int presId = scanner.nextInt();
+
+            if (findPrescription(presId) != null) {
+                System.out.println(PEACH + "Prescription ID already exists!");
+                return;
+            }
+
+            System.out.print(PEACH + "Doctor ID: ");
+            int docId = scanner.nextInt();
+            Doctor doctor = findDoctor(docId);
+            if (doctor == null) {
+                System.out.println(RED + "Doctor not found!");
+                return;
+            }
+
+            System.out.print(PEACH + "Patient ID: ");
+            int patId = scanner.nextInt();
+            Patient patient = findPatient(patId);
+            if (patient == null) {
+                System.out.println(RED + "Patient not found!");
+                return;
+            }
+
+            scanner.nextLine(); // Consume newline
+            System.out.print(PEACH + "Date (DD/MM/YYYY): ");
+            LocalDate date;
+            try {
+                date = LocalDate.parse(scanner.nextLine(), Prescription.DATE_FORMAT);
+            } catch (DateTimeParseException e) {
+                System.out.println(RED + "Invalid date format. Please use DD/MM/YYYY");
+                return;
+            }
+
+            // Lines are collected first and dispensed together so stock is taken atomically
+            ArrayList<int[]> lines = new ArrayList<>();
+            while (true) {
+                System.out.print(PEACH + "Add medicine? (y/n): ");
+                String choice = scanner.nextLine().toLowerCase();
+                if (!choice.equals("y"))
+                    break;
+
+                System.out.print(PEACH + "Medicine ID: ");
+                int medId = scanner.nextInt();
+                Medicine medicine = findMedicine(medId);
+                if (medicine == null) {
+                    System.out.println(RED + "Medicine not found!");
+                    scanner.nextLine(); // Consume newline
+                    continue;
+                }
+
+                System.out.print(PEACH + "Quantity prescribed: ");
+                int quantity = scanner.nextInt();
+                scanner.nextLine(); // Consume newline
+
+                if (quantity <= 0) {
+                    System.out.println(RED + "Quantity must be positive!");
+                    continue;
+                }
+
+                if (quantity > medicine.getQuantity()) {
+                    System.out.println(RED + "Insufficient stock!");
+                    continue;
+                }
+
+                lines.add(new int[] { medId, quantity });
+            }
+
+            int[] medicineIds = new int[lines.size()];
+            int[] quantities = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                medicineIds[i] = lines.get(i)[0];
+                quantities[i] = lines.get(i)[1];
+            }
+
+            // Update stock
+            try {
+                dispensePrescription(presId, docId, patId, date, medicineIds, quantities);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            System.out.println(YELLOW + "Prescription created successfully!");
+        } catch (InputMismatchException e) {
+            System.out.println(RED + "Invalid input! Please enter correct data types.");
+            scanner.nextLine(); // Clear the scanner
+        }
+    }
+
+    // Concurrent dispensing: creates and registers a prescription, taking stock for each line.
+    // Safe to call from several threads sharing one manager (catalogue edits are synchronized
+    // but should not run during a dispensing burst); either every line is dispensed or none is.
+    // Throws IllegalArgumentException when a reference or the stock is invalid.
+    public Prescription dispensePrescription(int prescriptionId, int doctorId, int patientId, String date,
+            int[] medicineIds, int[] quantities) {
+        LocalDate day;
+        try {
+            day = LocalDate.parse(date, Prescription.DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(RED + "Invalid date format. Please use DD/MM/YYYY");
+        }
+        return dispensePrescription(prescriptionId, doctorId, patientId, day, medicineIds, quantities);
+    }
+
+    public Prescription dispensePrescription(int prescriptionId, int doctorId, int patientId, LocalDate date,
+            int[] medicineIds, int[] quantities) {
+        long start = dispenseTimer.begin();
+        try {
+            if (medicineIds.length != quantities.length) {
+                throw new IllegalArgumentException(RED + "Each medicine needs a quantity");
+            }
+            if (doctorIndex.get(doctorId) == null) {
+                throw new IllegalArgumentException(RED + "Doctor not found");
+            }
+            if (patientIndex.get(patientId) == null) {
+                throw new IllegalArgumentException(RED + "Patient not found");
+            }
+
+            Prescription prescription = new Prescription(prescriptionId, doctorId, patientId, date);
+            Medicine[] stock = new Medicine[medicineIds.length];
+            for (int i = 0; i < medicineIds.length; i++) {
+                stock[i] = medicineIndex.get(medicineIds[i]);
+                if (stock[i] == null) {
+                    throw new IllegalArgumentException(RED + "Medicine " + medicineIds[i] + " not found");
+                }
+                if (quantities[i] <= 0) {
+                    throw new IllegalArgumentException(RED + "Quantity must be positive");
+                }
+            }
+
+            // Shared with other dispensers; a snapshot takes the write side so it never sees stock
+            // taken for a prescription that is not registered (and journaled) yet
+            snapshotLock.readLock().lock();
+            try {
+                if (stock.length == 1) {
+                    if (!stock[0].tryReserve(quantities[0])) {
+                        throw new IllegalArgumentException(RED + "Insufficient stock for " + stock[0].getName());
+                    }
+                } else {
+                    reserveAll(stock, quantities);
+                }
+
+                for (int i = 0; i < stock.length; i++) {
+                    prescription.addLine(stock[i].getMedicineId(), quantities[i], stock[i].getPriceSen());
+                }
+
+                try {
+                    registerPrescription(prescription, true);
+                } catch (IllegalArgumentException e) {
+                    releaseAll(stock, quantities, stock.length);
+                    reportCache.invalidateUsage();
+                    throw e;
+                }
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+            return prescription;
+        } catch (RuntimeException e) {
+            dispenseTimer.failed();
+            throw e;
+        } finally {
+            dispenseTimer.end(start);
+        }
+    }
+
+    private static int stockStripe(int medicineId) {
+        int h = medicineId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STOCK_STRIPES - 1);
+    }
+
+    // Multi-line reservation: stripes are locked in ascending order to avoid deadlock,
+    // and already-reserved lines are rolled back if a later line is short
+    private void reserveAll(Medicine[] stock, int[] quantities) {
+        long stripes = 0L;
+        for (Medicine medicine : stock) {
+            stripes |= 1L << stockStripe(medicine.getMedicineId());
+        }
+        for (long s = stripes; s != 0; s &= s - 1) {
+            stockLocks[Long.numberOfTrailingZeros(s)].lock();
+        }
+        try {
+            for (int i = 0; i < stock.length; i++) {
+                if (!stock[i].tryReserve(quantities[i])) {
+                    releaseAll(stock, quantities, i);
+                    reportCache.invalidateUsage();
+                    throw new IllegalArgumentException(RED + "Insufficient stock for " + stock[i].getName());
+                }
+            }
+        } finally {
+            for (long s = stripes; s != 0; s &= s - 1) {
+                stockLocks[Long.numberOfTrailingZeros(s)].unlock();
+            }
+        }
+    }
+
+    // Drops an entity from its list and ID index. The list's last entity fills the gap and its
+    // stored position is moved, so no list is ever searched; list order is insertion order only
+    // until the first delete.
+    private static <T> void removeEntity(ArrayList<T> list, IdIndex<T> index, int id, ToIntFunction<T> idOf) {
+        int position = index.position(id);
+        index.remove(id);
+        T last = list.remove(list.size() - 1);
+        if (position < list.size()) {
+            list.set(position, last);
+            index.setPosition(idOf.applyAsInt(last), position);
+        }
+    }
+
+    // Callers invalidate the usage report afterwards: one computed while the stock was reserved
+    // would otherwise stay cached with the lowered remaining stock
+    private static void releaseAll(Medicine[] stock, int[] quantities, int count) {
+        for (int i = 0; i < count; i++) {
+            stock[i].addQuantity(quantities[i]);
+        }
+    }
+
+    // Secondary index maintenance
+    private void indexPrescription(Prescription prescription) {
+        addToBucket(prescriptionsByDoctor, prescription.getDoctorId(), prescription);
+        addToBucket(prescriptionsByPatient, prescription.getPatientId(), prescription);
+        prescriptionsByDay.computeIfAbsent(prescription.getEpochDay(), day -> new DayPartition()).add(prescription);
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            addToBucket(prescriptionsByMedicine, prescription.getLineMedicineId(i), prescription);
+            prescribedTotals.add(prescription.getLineMedicineId(i), prescription.getLineQuantity(i));
+            addCategorySales(prescription, i, 1);
+        }
+    }
+
+    private void unindexPrescription(Prescription prescription) {
+        removeFromBucket(prescriptionsByDoctor, prescription.getDoctorId(), prescription);
+        removeFromBucket(prescriptionsByPatient, prescription.getPatientId(), prescription);
+        DayPartition day = prescriptionsByDay.get(prescription.getEpochDay());
+        if (day != null) {
+            day.remove(prescription);
+            if (day.isEmpty()) {
+                prescriptionsByDay.remove(prescription.getEpochDay());
+            }
+        }
+        for (int i = 0; i < prescription.getLineCount(); i++) {
+            removeFromBucket(prescriptionsByMedicine, prescription.getLineMedicineId(i), prescription);
+            prescribedTotals.add(prescription.getLineMedicineId(i), -prescription.getLineQuantity(i));
+            addCategorySales(prescription, i, -1);
+        }
+    }
+
+    // Lines for medicines missing from the catalogue are left out of the category totals
+    private void addCategorySales(Prescription prescription, int line, int sign) {
+        Medicine medicine = medicineIndex.get(prescription.getLineMedicineId(line));
+        if (medicine == null) {
+            return;
+        }
+        int code = medicine.getCategoryCode();
+        if (code >= 0) {
+            long quantity = prescription.getLineQuantity(line);
+            inventory.getCategories().addSales(code, sign * quantity,
+                    sign * quantity * prescription.getLinePriceSen(line));
+        }
+    }
+
+    private static void addToBucket(IdIndex<ArrayList<Prescription>> index, int key, Prescription prescription) {
+        ArrayList<Prescription> bucket = index.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            index.put(key, bucket);
+        }
+        // A prescription with several lines of the same medicine is only listed once
+        if (bucket.isEmpty() || bucket.get(bucket.size() - 1) != prescription) {
+            bucket.add(prescription);
+        }
+    }
+
+    private static void removeFromBucket(IdIndex<ArrayList<Prescription>> index, int key, Prescription prescription) {
+        ArrayList<Prescription> bucket = index.get(key);
+        if (bucket == null) {
+            return;
+        }
+        bucket.removeIf(p -> p == prescription);
+        if (bucket.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    // Delete guards: live or archived prescriptions still refer to the ID
+    private boolean hasDoctorPrescriptions(int doctorId) {
+        return prescriptionsByDoctor.containsKey(doctorId)
+                || (archive != null && archive.doctorReferences(doctorId) > 0);
+    }
+
+    private boolean hasPatientPrescriptions(int patientId) {
+        return prescriptionsByPatient.containsKey(patientId)
+                || (archive != null && archive.patientReferences(patientId) > 0);
+    }
+
+    private boolean hasMedicinePrescriptions(int medicineId) {
+        return prescriptionsByMedicine.containsKey(medicineId)
+                || (archive != null && archive.medicineReferences(medicineId) > 0);
+    }
+
+    public synchronized long getPrescribedTotal(int medicineId) {
+        return prescribedTotals.get(medicineId);
+    }
+
+    // Recomputes the usage totals from the prescription history. Returns false (and
+    // replaces the running totals) if they had drifted, e.g. because lines were added
+    // to a prescription after it was registered.
+    public boolean verifyPrescribedTotals() {
+        while (true) {
+            LineTotals lines = archivedLineTotals();
+            synchronized (this) {
+                if (!lines.isCurrent()) {
+                    continue;
+                }
+                prescriptions.forEach(lines::add);
+                if (lines.units.sameCounts(prescribedTotals)) {
+                    return true;
+                }
+                prescribedTotals = lines.units;
+                return false;
+            }
+        }
+    }
+
+    // Recomputes the category totals from the catalogue and the prescription history and
+    // corrects any that had drifted; returns false if one had. Like verifyPrescribedTotals, only
+    // meaningful while no stock change is in flight.
+    public boolean verifyCategoryTotals() {
+        while (true) {
+            LineTotals lines = archivedLineTotals();
+            synchronized (this) {
+                if (lines.isCurrent()) {
+                    prescriptions.forEach(lines::add);
+                    return verifyCategoryTotals(lines);
+                }
+            }
         }
     }
 
-    public void addPatientInteractive() {
-        try {
-            System.out.println(MINT_GREEN + "\nEnter Patient Details:");
-            System.out.print(MINT_GREEN + "ID: ");
-            int id = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
+    // Units and sales in sen per medicine over the history: the archived part is summed
+    // without the manager's lock, then the caller adds the live prescriptions under it
+    private final class LineTotals {
+        final PrescriptionArchive cold;
+        final int archived;
+        final IdCounter units = new IdCounter();
+        final IdCounter sales = new IdCounter();
+
+        LineTotals(PrescriptionArchive cold, int archived) {
+            this.cold = cold;
+            this.archived = archived;
+        }
 
-            if (findPatient(id) != null) {
-                System.out.println(RED + "Patient ID already exists!");
-                return;
+        void add(Prescription prescription) {
+            for (int i = 0; i < prescription.getLineCount(); i++) {
+                units.add(prescription.getLineMedicineId(i), prescription.getLineQuantity(i));
+                sales.add(prescription.getLineMedicineId(i),
+                        prescription.getLineQuantity(i) * prescription.getLinePriceSen(i));
             }
+        }
 
-            System.out.print(MINT_GREEN + "Name: ");
-            String name = scanner.nextLine();
-            System.out.print(MINT_GREEN + "Age: ");
-            int age = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
-            System.out.print(MINT_GREEN + "Contact Number: ");
-            String contact = scanner.nextLine();
-            System.out.print(MINT_GREEN + "Address: ");
-            String address = scanner.nextLine();
-
-            patients.add(new Patient(id, name, age, contact, address));
-            System.out.println(YELLOW + "Patient added successfully!");
-        } catch (InputMismatchException e) {
-            System.out.println(RED + "Invalid input! Please enter correct data types.");
-            scanner.nextLine(); // Clear the scanner
+        // Under the manager's lock: archive runs take it, so an unchanged archive size means
+        // the archived part still matches and no live prescription was counted twice
+        boolean isCurrent() {
+            return archive == cold && (cold == null || cold.size() == archived);
         }
     }
 
-    public void addMedicineInteractive() {
-        try {
-            System.out.println( MINT_GREEN + "\nEnter Medicine Details:");
-            System.out.print(MINT_GREEN + "ID: ");
-            int id = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
+    private LineTotals archivedLineTotals() {
+        LineTotals lines;
+        synchronized (this) {
+            lines = new LineTotals(archive, archive == null ? 0 : archive.size());
+        }
+        if (lines.cold != null) {
+            lines.cold.forEach(lines::add);
+        }
+        return lines;
+    }
 
-            if (findMedicine(id) != null) {
-                System.out.println(RED + "Medicine ID already exists!");
-                return;
+    private boolean verifyCategoryTotals(LineTotals lines) {
+        CategoryDictionary categories = inventory.getCategories();
+        int size = categories.size();
+        long[] counts = new long[size];
+        long[] stock = new long[size];
+        long[] sold = new long[size];
+        long[] sales = new long[size];
+        for (Medicine medicine : medicines) {
+            int code = medicine.getCategoryCode();
+            counts[code]++;
+            stock[code] += medicine.getQuantity();
+        }
+        // Lines for medicines missing from the catalogue are left out, as in the running totals
+        lines.units.forEach((medicineId, units) -> {
+            Medicine medicine = medicineIndex.get(medicineId);
+            if (medicine != null) {
+                sold[medicine.getCategoryCode()] += units;
             }
+        });
+        lines.sales.forEach((medicineId, sen) -> {
+            Medicine medicine = medicineIndex.get(medicineId);
+            if (medicine != null) {
+                sales[medicine.getCategoryCode()] += sen;
+            }
+        });
+        boolean consistent = true;
+        for (int code = 0; code < size; code++) {
+            CategoryDictionary.Totals totals = categories.totals(code);
+            long medicineDrift = counts[code] - totals.getMedicines();
+            long stockDrift = stock[code] - totals.getStockUnits();
+            long soldDrift = sold[code] - totals.getUnitsSold();
+            long salesDrift = sales[code] - totals.getSalesSen();
+            if ((medicineDrift | stockDrift | soldDrift | salesDrift) != 0) {
+                consistent = false;
+                categories.adjust(code, medicineDrift, stockDrift, soldDrift, salesDrift);
+            }
+        }
+        return consistent;
+    }
 
-            System.out.print(MINT_GREEN + "Name: ");
-            String name = scanner.nextLine();
-            System.out.print(MINT_GREEN + "Category: ");
-            String category = scanner.nextLine();
-            System.out.print(MINT_GREEN + "Quantity: ");
-            int quantity = scanner.nextInt();
-            System.out.print(MINT_GREEN + "Price (RM): ");
-            double price = scanner.nextDouble();
-
-            medicines.add(new Medicine(id, name, category, quantity, price));
-            System.out.println(YELLOW + "Medicine added successfully!");
-        } catch (InputMismatchException e) {
-            System.out.println(RED + "Invalid input! Please enter correct data types.");
-            scanner.nextLine(); // Clear the scanner
+    // Report totals over the prescriptions dated between the two epoch days (inclusive). Live day
+    // partitions are DayPartition snapshots taken under the manager's lock, one view per day and
+    // no copying, and are aggregated outside it. When the range reaches into the archive, the
+    // archived blocks it overlaps are decoded and aggregated one at a time, so a report over the
+    // whole history holds one block, not the archive, on the heap.
+    public ReportEngine.Totals totalsByDay(long fromDay, long toDay, boolean withUsage, ReportEngine.Mode mode) {
+        while (true) {
+            ArrayList<List<Prescription>> live = new ArrayList<>();
+            PrescriptionArchive cold;
+            int archived;
+            synchronized (this) {
+                for (DayPartition day : prescriptionsByDay.subMap(fromDay, true, toDay, true).values()) {
+                    live.add(day.snapshot());
+                }
+                cold = archive;
+                archived = cold == null ? 0 : cold.size();
+            }
+            ReportEngine.Totals totals = ReportEngine.aggregate(live, fromDay, toDay, withUsage, mode);
+            if (cold == null || !cold.overlaps(fromDay, toDay)) {
+                return totals;
+            }
+            // A block holds BLOCK_SIZE prescriptions, too few to be worth forking
+            cold.forEachBlock(fromDay, toDay, block -> totals.merge(ReportEngine.aggregate(List.of(block), fromDay,
+                    toDay, withUsage, ReportEngine.Mode.SEQUENTIAL)));
+            // Read outside the lock; an archive run meanwhile may have moved snapshotted prescriptions
+            if (cold.size() == archived) {
+                return totals;
+            }
         }
     }
 
-    public void createPrescriptionInteractive() {
-        try {
-            System.out.println(PEACH + "\nEnter Prescription Details:");
-            System.out.print(PEACH + "Prescription ID: ");
-            int presId = scanner.nextInt();
+    // Live prescriptions only; archived ones are reached through the archive or the queries above
+    public ArrayList<Prescription> getPrescriptions() {
+        return prescriptions;
+    }
 
-            if (findPrescription(presId) != null) {
-                System.out.println(PEACH + "Prescription ID already exists!");
-                return;
-            }
+    public ArrayList<Medicine> getMedicines() {
+        return medicines;
+    }
 
-            System.out.print(PEACH + "Doctor ID: ");
-            int docId = scanner.nextInt();
-            Doctor doctor = findDoctor(docId);
-            if (doctor == null) {
-                System.out.println(RED + "Doctor not found!");
-                return;
-            }
+    public ArrayList<Doctor> getDoctors() {
+        return doctors;
+    }
 
-            System.out.print(PEACH + "Patient ID: ");
-            int patId = scanner.nextInt();
-            Patient patient = findPatient(patId);
-            if (patient == null) {
-                System.out.println(RED + "Patient not found!");
-                return;
-            }
+    public ArrayList<Patient> getPatients() {
+        return patients;
+    }
 
-            scanner.nextLine(); // Consume newline
-            System.out.print(PEACH + "Date (DD/MM/YYYY): ");
-            String date = scanner.nextLine();
+    public ArrayList<Pharmacist> getPharmacists() {
+        return pharmacists;
+    }
 
-            Prescription prescription = new Prescription(presId, docId, patId, date);
+    // Archived prescriptions first, read from the archive blocks that may hold the ID, then a copy
+    // of the live bucket taken under the manager's lock. As in totalsByDay the archive is
+    // read outside the lock, and the read is retried if an archive run moved part of the bucket.
+    private ArrayList<Prescription> archivedThenLive(IdIndex<ArrayList<Prescription>> index, int key,
+            Function<PrescriptionArchive, ArrayList<Prescription>> archived) {
+        while (true) {
+            ArrayList<Prescription> live;
+            PrescriptionArchive cold;
+            int archivedCount;
+            synchronized (this) {
+                ArrayList<Prescription> bucket = index.get(key);
+                live = bucket == null ? new ArrayList<>() : new ArrayList<>(bucket);
+                cold = archive;
+                archivedCount = cold == null ? 0 : cold.size();
+            }
+            if (cold == null) {
+                return live;
+            }
+            ArrayList<Prescription> found = archived.apply(cold);
+            if (cold.size() == archivedCount) {
+                found.addAll(live);
+                return found;
+            }
+        }
+    }
 
-            while (true) {
-                System.out.print(PEACH + "Add medicine? (y/n): ");
-                String choice = scanner.nextLine().toLowerCase();
-                if (!choice.equals("y"))
-                    break;
+    public ArrayList<Prescription> getPrescriptionsByDoctor(int doctorId) {
+        long start = OperationMetrics.FINE_GRAINED ? listPrescriptionsTimer.begin() : OperationMetrics.NOT_TIMED;
+        ArrayList<Prescription> found = archivedThenLive(prescriptionsByDoctor, doctorId, cold -> cold.byDoctor(doctorId));
+        listPrescriptionsTimer.end(start);
+        return found;
+    }
 
-                System.out.print(PEACH + "Medicine ID: ");
-                int medId = scanner.nextInt();
-                Medicine medicine = findMedicine(medId);
-                if (medicine == null) {
-                    System.out.println(RED + "Medicine not found!");
-                    scanner.nextLine(); // Consume newline
-                    continue;
-                }
+    public ArrayList<Prescription> getPrescriptionsByPatient(int patientId) {
+        long start = OperationMetrics.FINE_GRAINED ? listPrescriptionsTimer.begin() : OperationMetrics.NOT_TIMED;
+        ArrayList<Prescription> found = archivedThenLive(prescriptionsByPatient, patientId, cold -> cold.byPatient(patientId));
+        listPrescriptionsTimer.end(start);
+        return found;
+    }
 
-                System.out.print(PEACH + "Quantity prescribed: ");
-                int quantity = scanner.nextInt();
-                scanner.nextLine(); // Consume newline
+    public ArrayList<Prescription> getPrescriptionsByMedicine(int medicineId) {
+        long start = OperationMetrics.FINE_GRAINED ? listPrescriptionsTimer.begin() : OperationMetrics.NOT_TIMED;
+        ArrayList<Prescription> found = archivedThenLive(prescriptionsByMedicine, medicineId, cold -> cold.byMedicine(medicineId));
+        listPrescriptionsTimer.end(start);
+        return found;
+    }
 
-                if (quantity > medicine.getQuantity()) {
-                    System.out.println(RED + "Insufficient stock!");
-                    continue;
-                }
+    // Name search: up to 'limit' entities whose name matches every word of the query, best match
+    // first (see NameIndex)
+    public ArrayList<Doctor> searchDoctorsByName(String query, int limit) {
+        return searchByName(doctorNames, query, limit);
+    }
 
-                Medicine prescribedMed = new Medicine(
-                        medicine.getMedicineId(),
-                        medicine.getName(),
-                        medicine.getCategory(),
-                        quantity,
-                        medicine.getPrice());
-                prescription.addMedicine(prescribedMed);
+    public ArrayList<Patient> searchPatientsByName(String query, int limit) {
+        return searchByName(patientNames, query, limit);
+    }
 
-                // Update stock
-                medicine.setQuantity(medicine.getQuantity() - quantity);
-            }
+    public ArrayList<Medicine> searchMedicinesByName(String query, int limit) {
+        return searchByName(medicineNames, query, limit);
+    }
 
-            prescriptions.add(prescription);
-            System.out.println(YELLOW + "Prescription created successfully!");
-        } catch (InputMismatchException e) {
-            System.out.println(RED + "Invalid input! Please enter correct data types.");
-            scanner.nextLine(); // Clear the scanner
-        }
+    private <T> ArrayList<T> searchByName(NameIndex<T> index, String query, int limit) {
+        long start = nameSearchTimer.begin();
+        ArrayList<T> found = index.search(query, limit);
+        nameSearchTimer.end(start);
+        return found;
     }
 
-    // Find methods
+    // Find methods; recorded only with fine-grained metrics (see OperationMetrics)
     public Pharmacist findPharmacist(int id) {
-        return pharmacists.stream()
-                .filter(p -> p.getPharmacistId() == id)
-                .findFirst()
-                .orElse(null);
+        if (!OperationMetrics.FINE_GRAINED) {
+            return pharmacistIndex.get(id);
+        }
+        long start = findPharmacistTimer.begin();
+        Pharmacist pharmacist = pharmacistIndex.get(id);
+        findPharmacistTimer.end(start);
+        return pharmacist;
     }
     public Doctor findDoctor(int id) {
-        return doctors.stream()
-                .filter(d -> d.getDoctorId() == id)
-                .findFirst()
-                .orElse(null);
+        if (!OperationMetrics.FINE_GRAINED) {
+            return doctorIndex.get(id);
+        }
+        long start = findDoctorTimer.begin();
+        Doctor doctor = doctorIndex.get(id);
+        findDoctorTimer.end(start);
+        return doctor;
     }
 
     public Patient findPatient(int id) {
-        return patients.stream()
-                .filter(p -> p.getPatientId() == id)
-                .findFirst()
-                .orElse(null);
+        if (!OperationMetrics.FINE_GRAINED) {
+            return patientIndex.get(id);
+        }
+        long start = findPatientTimer.begin();
+        Patient patient = patientIndex.get(id);
+        findPatientTimer.end(start);
+        return patient;
+    }
+
+    public InventoryStore getInventory() {
+        return inventory;
+    }
+
+    public CategoryDictionary getCategories() {
+        return inventory.getCategories();
+    }
+
+    public InventoryManager getInventoryManager() {
+        return inventoryManager;
+    }
+
+    public StockEventStream getStockEvents() {
+        return stockEvents;
+    }
+
+    public ReportCache getReportCache() {
+        return reportCache;
+    }
+
+    public OperationMetrics getMetrics() {
+        return metrics;
     }
 
     public Medicine findMedicine(int id) {
-        return medicines.stream()
-                .filter(m -> m.getMedicineId() == id)
-                .findFirst()
-                .orElse(null);
+        if (!OperationMetrics.FINE_GRAINED) {
+            return medicineIndex.get(id);
+        }
+        long start = findMedicineTimer.begin();
+        Medicine medicine = medicineIndex.get(id);
+        findMedicineTimer.end(start);
+        return medicine;
     }
 
+    // Falls back to the archive, whose prescriptions are read-only copies
     public Prescription findPrescription(int id) {
-        return prescriptions.stream()
-                .filter(p -> p.getPrescriptionId() == id)
-                .findFirst()
-                .orElse(null);
+        if (!OperationMetrics.FINE_GRAINED) {
+            Prescription prescription = prescriptionIndex.get(id);
+            return prescription != null || archive == null ? prescription : archive.find(id);
+        }
+        long start = findPrescriptionTimer.begin();
+        Prescription prescription = prescriptionIndex.get(id);
+        if (prescription == null && archive != null) {
+            prescription = archive.find(id);
+        }
+        findPrescriptionTimer.end(start);
+        return prescription;
     }
 
     // Display methods (continued)
-    public void displayDoctors() {
-        System.out.println(ORANGE + "\n=== Doctors ===");
-        if (doctors.isEmpty()) {
-            System.out.println(RED + "No doctors registered.");
+
+    // Renders rows a page at a time, waiting for Enter between pages at a terminal; redirected
+    // output gets every row in one pass. emptyMessage may be null for no message.
+    private <T> void showPages(String title, String emptyMessage, List<T> rows,
+            BiConsumer<EntityRenderer, ? super T> render) {
+        EntityRenderer renderer = EntityRenderer.console();
+        renderer.line(ORANGE, "\n=== " + title + " ===");
+        if (rows.isEmpty()) {
+            if (emptyMessage != null) {
+                renderer.line(RED, emptyMessage);
+            }
+            renderer.flush();
             return;
         }
-        doctors.forEach(System.out::println);
+        boolean paged = System.console() != null;
+        int pageSize = paged ? EntityRenderer.DEFAULT_PAGE_SIZE : Integer.MAX_VALUE;
+        int cursor = 0;
+        while ((cursor = renderer.page(rows, cursor, pageSize, render)) != EntityRenderer.END) {
+            renderer.prompt(ORANGE, "-- " + cursor + " of " + rows.size() + " shown; Enter for more, q to stop -- ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+        }
+    }
+
+    public void displayDoctors() {
+        showPages("Doctors", "No doctors registered.", doctors, EntityRenderer::doctor);
     }
 
     public void displayPatients() {
-        System.out.println(ORANGE + "\n=== Patients ===");
-        if (patients.isEmpty()) {
-            System.out.println(RED + "No patients registered.");
-            return;
-        }
-        patients.forEach(System.out::println);
+        showPages("Patients", "No patients registered.", patients, EntityRenderer::patient);
     }
 
     public void displayMedicines() {
-        System.out.println(ORANGE + "\n=== Medicines ===");
-        if (medicines.isEmpty()) {
-            System.out.println(RED + "No medicines in inventory.");
-            return;
-        }
-        medicines.forEach(System.out::println);
+        showPages("Medicines", "No medicines in inventory.", medicines, EntityRenderer::medicine);
     }
 
     public void displayPharmacists() {
-        System.out.println(ORANGE + "\n=== Pharmacists ===");
-        if (pharmacists.isEmpty()) {
-            System.out.println(RED + "No pharmacists registered.");
-            return;
-        }
-        pharmacists.forEach(System.out::println);
+        showPages("Pharmacists", "No pharmacists registered.", pharmacists, EntityRenderer::pharmacist);
     }
 
     public void displayPrescriptions() {
-        System.out.println(ORANGE + "\n=== Prescriptions ===");
-        if (prescriptions.isEmpty()) {
-            System.out.println(RED + "No prescriptions recorded.");
-            return;
-        }
-        prescriptions.forEach(System.out::println);
+        showPages("Prescriptions", "No prescriptions recorded.", prescriptions, EntityRenderer::prescription);
     }
 
     // Search methods
     public void searchPrescriptionsByDoctor() {
         System.out.print(ORANGE + "Enter Doctor ID: ");
         int docId = scanner.nextInt();
-        System.out.println(ORANGE + "\n=== Prescriptions for Doctor ID: " + docId + " ===");
-        prescriptions.stream()
-                .filter(p -> p.getDoctorId() == docId)
-                .forEach(System.out::println);
+        scanner.nextLine(); // Consume newline
+        showPages("Prescriptions for Doctor ID: " + docId, null, getPrescriptionsByDoctor(docId),
+                EntityRenderer::prescription);
     }
 
     public void searchPrescriptionsByPatient() {
         System.out.print(ORANGE + "Enter Patient ID: ");
         int patId = scanner.nextInt();
-        System.out.println(ORANGE + "\n=== Prescriptions for Patient ID: " + patId + " ===");
-        prescriptions.stream()
-                .filter(p -> p.getPatientId() == patId)
-                .forEach(System.out::println);
+        scanner.nextLine(); // Consume newline
+        showPages("Prescriptions for Patient ID: " + patId, null, getPrescriptionsByPatient(patId),
+                EntityRenderer::prescription);
+    }
+
+    // Partial or misspelt names are fine; best matches first
+    public void searchByNameInteractive() {
+        System.out.print(ORANGE + "Search (1) Doctors, (2) Patients or (3) Medicines: ");
+        String choice = scanner.nextLine().trim();
+        System.out.print(ORANGE + "Enter name: ");
+        String name = scanner.nextLine().trim();
+        int limit = PharmacyHttpServer.DEFAULT_SEARCH_LIMIT;
+        switch (choice) {
+            case "1" -> showPages("Doctors matching: " + name, "No matching doctors.",
+                    searchDoctorsByName(name, limit), EntityRenderer::doctor);
+            case "2" -> showPages("Patients matching: " + name, "No matching patients.",
+                    searchPatientsByName(name, limit), EntityRenderer::patient);
+            case "3" -> showPages("Medicines matching: " + name, "No matching medicines.",
+                    searchMedicinesByName(name, limit), EntityRenderer::medicine);
+            default -> System.out.println(RED + "Invalid choice!");
+        }
     }
 
     // Inventory management methods
@@ -660,7 +8749,6 @@ class PharmacyManager {
         try {
             System.out.print(BRIGHT_PURPLE + "Enter stock threshold: ");
             int threshold = scanner.nextInt();
-            InventoryManager inventoryManager = new InventoryManager(medicines);
             inventoryManager.checkLowStock(threshold);
         } catch (InputMismatchException e) {
             System.out.println(RED + "Invalid input! Please enter a number.");
@@ -675,7 +8763,6 @@ class PharmacyManager {
             System.out.print(BRIGHT_PURPLE + "Enter quantity to add: ");
             int quantity = scanner.nextInt();
 
-            InventoryManager inventoryManager = new InventoryManager(medicines);
             inventoryManager.updateStock(id, quantity);
         } catch (InputMismatchException e) {
             System.out.println(RED + "Invalid input! Please enter numbers only.");
@@ -683,13 +8770,35 @@ class PharmacyManager {
         }
     }
 
+    public void bulkImportInteractive() {
+        System.out.print(SKY_BLUE + "Enter directory containing the CSV files: ");
+        String dir = scanner.nextLine().trim();
+        if (dir.isEmpty()) {
+            dir = scanner.nextLine().trim(); // Skip the newline left by a previous number
+        }
+        Path path = Path.of(dir);
+        if (!Files.isDirectory(path)) {
+            System.out.println(RED + "Directory not found!");
+            return;
+        }
+        try {
+            new BulkImporter(this).importDirectory(path);
+        } catch (RuntimeException e) {
+            System.out.println(RED + "Import failed: " + e.getMessage());
+        }
+    }
+
     // Report generation methods
     public void generateReports() {
-        ReportGenerator reporter = new ReportGenerator(prescriptions, medicines);
+        ReportGenerator reporter = new ReportGenerator(this);
 
         System.out.println(YELLOW + "\n=== Report Generation ===");
         System.out.println(YELLOW + "1. Daily Sales Report");
         System.out.println(YELLOW + "2. Medicine Usage Report");
+        System.out.println(YELLOW + "3. Weekly Sales Report");
+        System.out.println(YELLOW + "4. Monthly Sales Report");
+        System.out.println(YELLOW + "5. Sales Report for Date Range");
+        System.out.println(YELLOW + "6. Category Report");
         System.out.print(YELLOW + "Enter your choice: ");
 
         try {
@@ -703,6 +8812,22 @@ class PharmacyManager {
                     reporter.generateDailySalesReport(date);
                 }
                 case 2 -> reporter.generateMedicineUsageReport();
+                case 3 -> {
+                    System.out.print(CYAN + "Enter start date (DD/MM/YYYY): ");
+                    reporter.generateWeeklySalesReport(scanner.nextLine());
+                }
+                case 4 -> {
+                    System.out.print(CYAN + "Enter any date in the month (DD/MM/YYYY): ");
+                    reporter.generateMonthlySalesReport(scanner.nextLine());
+                }
+                case 5 -> {
+                    System.out.print(CYAN + "Enter start date (DD/MM/YYYY): ");
+                    String from = scanner.nextLine();
+                    System.out.print(CYAN + "Enter end date (DD/MM/YYYY): ");
+                    String to = scanner.nextLine();
+                    reporter.generateSalesReport(from, to);
+                }
+                case 6 -> reporter.generateCategoryReport();
                 default -> System.out.println(RED + "Invalid choice!");
             }
         } catch (InputMismatchException e) {
@@ -713,6 +8838,20 @@ class PharmacyManager {
 
     public void close() {
         scanner.close();
+        stockEvents.close();
+        metrics.close();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (archiveScheduler != null) {
+            archiveScheduler.shutdownNow();
+        }
+        if (journal != null) {
+            if (snapshotPath != null) {
+                snapshot();
+            }
+            journal.close();
+        }
     }
 
     // Add these methods to the PharmacyManager class:
@@ -724,8 +8863,7 @@ class PharmacyManager {
             int id = scanner.nextInt();
 
             // Check if doctor has any prescriptions
-            boolean hasPresciptions = prescriptions.stream()
-                    .anyMatch(p -> p.getDoctorId() == id);
+            boolean hasPresciptions = hasDoctorPrescriptions(id);
 
             if (hasPresciptions) {
                 System.out.println(RED + "Cannot delete doctor with existing prescriptions!");
@@ -738,7 +8876,7 @@ class PharmacyManager {
                 return;
             }
 
-            doctors.remove(doctor);
+            deleteDoctor(id);
             System.out.println(YELLOW + "Doctor deleted successfully!");
 
         } catch (InputMismatchException e) {
@@ -754,8 +8892,7 @@ class PharmacyManager {
             int id = scanner.nextInt();
 
             // Check if patient has any prescriptions
-            boolean hasPresciptions = prescriptions.stream()
-                    .anyMatch(p -> p.getPatientId() == id);
+            boolean hasPresciptions = hasPatientPrescriptions(id);
 
             if (hasPresciptions) {
                 System.out.println(RED + "Cannot delete patient with existing prescriptions!");
@@ -768,7 +8905,7 @@ class PharmacyManager {
                 return;
             }
 
-            patients.remove(patient);
+            deletePatient(id);
             System.out.println(YELLOW + "Patient deleted successfully!");
 
         } catch (InputMismatchException e) {
@@ -784,9 +8921,7 @@ class PharmacyManager {
             int id = scanner.nextInt();
 
             // Check if medicine is used in any prescriptions
-            boolean isUsedInPrescriptions = prescriptions.stream()
-                    .flatMap(p -> p.getMedicines().stream())
-                    .anyMatch(m -> m.getMedicineId() == id);
+            boolean isUsedInPrescriptions = hasMedicinePrescriptions(id);
 
             if (isUsedInPrescriptions) {
                 System.out.println(RED + "Cannot delete medicine that is used in prescriptions!");
@@ -799,7 +8934,7 @@ class PharmacyManager {
                 return;
             }
 
-            medicines.remove(medicine);
+            deleteMedicine(id);
             System.out.println(YELLOW + "Medicine deleted successfully!");
 
         } catch (InputMismatchException e) {
@@ -821,14 +8956,10 @@ class PharmacyManager {
             }
 
             // Return medicines to inventory
-            for (Medicine prescribedMed : prescription.getMedicines()) {
-                Medicine inventoryMed = findMedicine(prescribedMed.getMedicineId());
-                if (inventoryMed != null) {
-                    inventoryMed.setQuantity(inventoryMed.getQuantity() + prescribedMed.getQuantity());
-                }
+            if (!deletePrescription(id)) {
+                System.out.println(RED + "Archived prescriptions cannot be deleted!");
+                return;
             }
-
-            prescriptions.remove(prescription);
             System.out.println(YELLOW + "Prescription deleted successfully and medicine quantities returned to inventory!");
 
         } catch (InputMismatchException e) {
@@ -849,7 +8980,7 @@ class PharmacyManager {
                 return;
             }
 
-            pharmacists.remove(pharmacist);
+            deletePharmacist(id);
             System.out.println(YELLOW + "Pharmacist deleted successfully!");
 
         } catch (InputMismatchException e) {
@@ -860,62 +8991,154 @@ class PharmacyManager {
 
     // Direct deletion methods for programmatic use
     public boolean deleteDoctor(int id) {
-        Doctor doctor = findDoctor(id);
-        if (doctor == null)
-            return false;
+        long start = deleteTimer.begin();
+        try {
+            long position = 0;
+            synchronized (this) {
+                Doctor doctor = doctorIndex.get(id);
+                if (doctor == null)
+                    return false;
 
-        boolean hasPresciptions = prescriptions.stream()
-                .anyMatch(p -> p.getDoctorId() == id);
+                boolean hasPresciptions = hasDoctorPrescriptions(id);
 
-        if (hasPresciptions)
-            return false;
+                if (hasPresciptions)
+                    return false;
 
-        return doctors.remove(doctor);
+                removeEntity(doctors, doctorIndex, id, Doctor::getDoctorId);
+                doctorNames.remove(doctor);
+                if (journal != null) {
+                    position = journal.logDelete(Journal.DELETE_DOCTOR, id);
+                }
+            }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            deleteTimer.failed();
+            throw e;
+        } finally {
+            deleteTimer.end(start);
+        }
     }
 
     public boolean deletePatient(int id) {
-        Patient patient = findPatient(id);
-        if (patient == null)
-            return false;
+        long start = deleteTimer.begin();
+        try {
+            long position = 0;
+            synchronized (this) {
+                Patient patient = patientIndex.get(id);
+                if (patient == null)
+                    return false;
 
-        boolean hasPresciptions = prescriptions.stream()
-                .anyMatch(p -> p.getPatientId() == id);
+                boolean hasPresciptions = hasPatientPrescriptions(id);
 
-        if (hasPresciptions)
-            return false;
+                if (hasPresciptions)
+                    return false;
 
-        return patients.remove(patient);
+                removeEntity(patients, patientIndex, id, Patient::getPatientId);
+                patientNames.remove(patient);
+                if (journal != null) {
+                    position = journal.logDelete(Journal.DELETE_PATIENT, id);
+                }
+            }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            deleteTimer.failed();
+            throw e;
+        } finally {
+            deleteTimer.end(start);
+        }
     }
 
     public boolean deleteMedicine(int id) {
-        Medicine medicine = findMedicine(id);
-        if (medicine == null)
-            return false;
-
-        boolean isUsedInPrescriptions = prescriptions.stream()
-                .flatMap(p -> p.getMedicines().stream())
-                .anyMatch(m -> m.getMedicineId() == id);
-
-        if (isUsedInPrescriptions)
-            return false;
-
-        return medicines.remove(medicine);
+        long start = deleteTimer.begin();
+        try {
+            long position = 0;
+            synchronized (this) {
+                Medicine medicine = medicineIndex.get(id);
+                if (medicine == null)
+                    return false;
+
+                boolean isUsedInPrescriptions = hasMedicinePrescriptions(id);
+
+                if (isUsedInPrescriptions)
+                    return false;
+
+                removeEntity(medicines, medicineIndex, id, Medicine::getMedicineId);
+                medicineNames.remove(medicine);
+                inventory.detach(medicine);
+                reportCache.invalidateUsage();
+                if (journal != null) {
+                    position = journal.logDelete(Journal.DELETE_MEDICINE, id);
+                }
+            }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            deleteTimer.failed();
+            throw e;
+        } finally {
+            deleteTimer.end(start);
+        }
     }
 
+    // Archived prescriptions are read-only: deleting one returns false
     public boolean deletePrescription(int id) {
-        Prescription prescription = findPrescription(id);
-        if (prescription == null)
-            return false;
+        long start = deletePrescriptionTimer.begin();
+        try {
+            long position = 0;
+            synchronized (this) {
+                Prescription prescription = prescriptionIndex.get(id);
+                if (prescription == null)
+                    return false;
+
+                // Return medicines to inventory
+                for (int i = 0; i < prescription.getLineCount(); i++) {
+                    Medicine inventoryMed = medicineIndex.get(prescription.getLineMedicineId(i));
+                    if (inventoryMed != null) {
+                        inventoryMed.addQuantity(prescription.getLineQuantity(i));
+                    }
+                }
 
-        // Return medicines to inventory
-        for (Medicine prescribedMed : prescription.getMedicines()) {
-            Medicine inventoryMed = findMedicine(prescribedMed.getMedicineId());
-            if (inventoryMed != null) {
-                inventoryMed.setQuantity(inventoryMed.getQuantity() + prescribedMed.getQuantity());
+                removeEntity(prescriptions, prescriptionIndex, id, Prescription::getPrescriptionId);
+                unindexPrescription(prescription);
+                reportCache.invalidateDay(prescription.getEpochDay());
+                if (journal != null) {
+                    position = journal.logDelete(Journal.DELETE_PRESCRIPTION, id);
+                }
             }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            deletePrescriptionTimer.failed();
+            throw e;
+        } finally {
+            deletePrescriptionTimer.end(start);
         }
+    }
 
-        return prescriptions.remove(prescription);
+    public boolean deletePharmacist(int id) {
+        long start = deleteTimer.begin();
+        try {
+            long position = 0;
+            synchronized (this) {
+                Pharmacist pharmacist = pharmacistIndex.get(id);
+                if (pharmacist == null)
+                    return false;
+
+                removeEntity(pharmacists, pharmacistIndex, id, Pharmacist::getPharmacistId);
+                if (journal != null) {
+                    position = journal.logDelete(Journal.DELETE_PHARMACIST, id);
+                }
+            }
+            awaitDurable(position);
+            return true;
+        } catch (RuntimeException e) {
+            deleteTimer.failed();
+            throw e;
+        } finally {
+            deleteTimer.end(start);
+        }
     }
 }
 
@@ -932,6 +9155,12 @@ public class PharmacyManagementSystem {
     public static final String SKY_BLUE = "\u001B[38;2;135;206;235m";
     public static final String BRIGHT_CORAL = "\u001B[38;2;255;127;80m"; 
     public static final String RED = "\u001B[31m";
+    public static final String JOURNAL_FILE = "pharmacy.journal";
+    public static final String SNAPSHOT_FILE = "pharmacy.snapshot";
+    public static final String ARCHIVE_DIR = "pharmacy-archive";
+    // -Dpharmacy.archive.days=N moves prescriptions older than N days to the archive, daily
+    private static final int ARCHIVE_AFTER_DAYS = Integer.getInteger("pharmacy.archive.days", 0);
+    public static final int LOW_STOCK_ALERT_THRESHOLD = 10;
 
     private static void displayMenu() {
         System.out.println(YELLOW + "********************************************************" + RESET);
@@ -965,6 +9194,8 @@ public class PharmacyManagementSystem {
         printRow(INDIGO, "18", "Delete Medicine");
         printRow(INDIGO, "19", "Delete Prescription");
         printRow(INDIGO, "20", "Delete Pharmacist");
+        printRow(SKY_BLUE, "21", "Bulk Import from CSV");
+        printRow(PEACH, "22", "Search by Name");
         printRow(BRIGHT_CORAL, "0", "Exit");
     
         System.out.println(YELLOW + "+--------+---------------------------------------------+" + RESET);
@@ -972,6 +9203,80 @@ public class PharmacyManagementSystem {
         System.out.print(CYAN + "Enter your choice: ");
     }
     
+    // java PharmacyManagementSystem --batch [commandFile]   (reads stdin without a file)
+    private static void runBatch(String[] args) {
+        PharmacyManager manager = new PharmacyManager(Path.of(JOURNAL_FILE), Path.of(SNAPSHOT_FILE));
+        manager.openArchive(Path.of(ARCHIVE_DIR));
+        long errors;
+        try (InputStream in = args.length > 1 ? Files.newInputStream(Path.of(args[1])) : System.in) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            errors = new BatchRunner(manager, in, out).run();
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            errors = 1;
+        } finally {
+            manager.close();
+        }
+        if (errors > 0) {
+            System.exit(1);
+        }
+    }
+
+    // java PharmacyManagementSystem --serve [port]   (default port 8080)
+    private static void runServer(String[] args) {
+        PharmacyManager manager = new PharmacyManager(Path.of(JOURNAL_FILE), Path.of(SNAPSHOT_FILE));
+        manager.scheduleSnapshots(10, TimeUnit.MINUTES);
+        openArchive(manager);
+        manager.getMetrics().registerMBean("server");
+        manager.getMetrics().scheduleDump(1, TimeUnit.MINUTES, System.out::print);
+        PharmacyHttpServer server;
+        try {
+            server = new PharmacyHttpServer(manager, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+        } catch (IOException e) {
+            System.err.println("Cannot start server: " + e.getMessage());
+            manager.close();
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            manager.close();
+        }));
+        server.start();
+        System.out.println("Pharmacy API listening on port " + server.getPort());
+    }
+
+    private static void openArchive(PharmacyManager manager) {
+        manager.openArchive(Path.of(ARCHIVE_DIR));
+        if (ARCHIVE_AFTER_DAYS > 0) {
+            manager.scheduleArchiving(ARCHIVE_AFTER_DAYS, 1, TimeUnit.DAYS);
+        }
+    }
+
+    // java PharmacyManagementSystem --generate <dir> [prescriptions] [seed]
+    // Writes a synthetic data set as CSV files for the bulk importer
+    private static void runGenerate(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java PharmacyManagementSystem --generate <dir> [prescriptions] [seed]");
+            System.exit(1);
+            return;
+        }
+        long prescriptions = args.length > 2 ? Long.parseLong(args[2]) : 100_000;
+        WorkloadGenerator generator = WorkloadGenerator.scaled(args.length > 3 ? Long.parseLong(args[3]) : 1,
+                prescriptions);
+        long begin = System.nanoTime();
+        try {
+            generator.writeCsv(Path.of(args[1]));
+        } catch (IOException e) {
+            System.err.println("Generation failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println("Generated " + prescriptions + " prescriptions, " + generator.getPatientCount()
+                + " patients, " + generator.getDoctorCount() + " doctors and " + generator.getMedicineCount()
+                + " medicines in " + (System.nanoTime() - begin) / 1_000_000 + " ms");
+    }
+
     private static void printRow(String color, String choice, String description) {
         System.out.print(YELLOW + "|" + RESET);
         System.out.printf(color + " %-5s  " + RESET, choice);
@@ -981,16 +9286,36 @@ public class PharmacyManagementSystem {
     }
 
         public static void main(String[] args) {
-        PharmacyManager manager = new PharmacyManager();
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            runGenerate(args);
+            return;
+        }
+        PharmacyManager manager = new PharmacyManager(Path.of(JOURNAL_FILE), Path.of(SNAPSHOT_FILE));
+        manager.scheduleSnapshots(10, TimeUnit.MINUTES);
+        openArchive(manager);
+        // Visible in jconsole; the menu is interactive, so no periodic dump here
+        manager.getMetrics().registerMBean("console");
+        manager.getStockEvents().onLowStock(LOW_STOCK_ALERT_THRESHOLD, event -> System.out.println(RED
+                + "\nLow stock alert: " + event.getName() + " is down to " + event.getAfter() + RESET));
         Scanner scanner = new Scanner(System.in);
 
-        // Add sample data
-        try {
-            manager.addDoctor(new Doctor(1, "Dr. Smith", "Cardiology", "123-456-7890"));
-            manager.addPatient(new Patient(101, "John Doe", 30, "098-765-4321", "123 Main St"));
-            manager.addMedicine(new Medicine(301, "Paracetamol", "Painkiller", 100, 5.0));
-        } catch (IllegalArgumentException e) {
-            System.out.println(RED + "Error adding sample data: " + e.getMessage());
+        // Add sample data on first start; later starts restore state from the journal
+        if (manager.isEmpty()) {
+            try {
+                manager.addDoctor(new Doctor(1, "Dr. Smith", "Cardiology", "123-456-7890"));
+                manager.addPatient(new Patient(101, "John Doe", 30, "098-765-4321", "123 Main St"));
+                manager.addMedicine(new Medicine(301, "Paracetamol", "Painkiller", 100, 5.0));
+            } catch (IllegalArgumentException e) {
+                System.out.println(RED + "Error adding sample data: " + e.getMessage());
+            }
         }
 
         while (true) {
@@ -1019,6 +9344,8 @@ public class PharmacyManagementSystem {
                     case 18 -> manager.deleteMedicineInteractive();
                     case 19 -> manager.deletePrescriptionInteractive();
                     case 20 -> manager.deletePharmacistInteractive();
+                    case 21 -> manager.bulkImportInteractive();
+                    case 22 -> manager.searchByNameInteractive();
                     case 0 -> {
                         System.out.println(YELLOW + "Thank you for using Pharmacy Management System!");
                         manager.close();
@@ -0,0 +1,82 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Queries that have to read the archive: everything but the last 90 days is archived first, then
+// daily sales for an archived day (report cache cleared), a patient's whole history and a lookup
+// by ID. Random probes mostly miss the decoded-block cache, so these are close to cold reads.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class ArchiveBenchmarks {
+    private static final int LIVE_DAYS = 90;
+
+    private ReportGenerator reports;
+    private Path directory;
+    private int[] days;
+    private int[] patientIds;
+    private int[] prescriptionIds;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) throws IOException {
+        directory = Files.createTempDirectory("pharmacy-archive");
+        data.manager.openArchive(directory);
+        data.manager.archivePrescriptionsBefore(Dataset.FIRST_DAY.plusDays(Dataset.DAYS - LIVE_DAYS));
+        reports = new ReportGenerator(data.manager);
+        days = Dataset.probes(Dataset.DAYS - LIVE_DAYS, 30);
+        patientIds = Dataset.probes(data.patientCount, 31);
+        prescriptionIds = Dataset.probes(data.size, 32);
+    }
+
+    @TearDown
+    public void deleteArchive() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private int nextIndex() {
+        return next++ & 4095;
+    }
+
+    @Benchmark
+    public ReportGenerator.SalesSummary archivedDailySales(Dataset data) {
+        data.manager.getReportCache().clear();
+        long day = Dataset.FIRST_DAY.toEpochDay() + days[nextIndex()];
+        return reports.salesBetween(day, day);
+    }
+
+    @Benchmark
+    public ArrayList<Prescription> patientHistory(Dataset data) {
+        return data.manager.getPrescriptionsByPatient(patientIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public Prescription findArchivedPrescription(Dataset data) {
+        return data.manager.findPrescription(prescriptionIds[nextIndex()]);
+    }
+}
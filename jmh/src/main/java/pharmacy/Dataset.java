@@ -0,0 +1,73 @@
+package pharmacy;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// An in-memory PharmacyManager holding 'size' prescriptions over two years, with the catalogue
+// and patient list scaled to match. Built once per fork; every benchmark method and size runs
+// in its own fork, so mutating benchmarks never see each other's changes.
+@State(Scope.Benchmark)
+public class Dataset {
+    static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+    static final int DAYS = 730;
+    static final int DOCTORS = 500;
+
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    public int size;
+
+    PharmacyManager manager;
+    int medicineCount;
+    int patientCount;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        medicineCount = Math.min(1_000_000, Math.max(1_000, size / 10));
+        patientCount = Math.max(1, size / 10);
+        manager = new PharmacyManager();
+        Random random = new Random(42);
+        for (int id = 0; id < medicineCount; id++) {
+            // Stock from 0 to 999 so low-stock queries find something; prices with arbitrary cents
+            Medicine medicine = new Medicine(id, "Medicine " + id, "Category " + (id % 20), random.nextInt(1_000), 0.0);
+            medicine.setPriceSen(1 + random.nextInt(20_000));
+            manager.addMedicine(medicine);
+        }
+        for (int id = 0; id < DOCTORS; id++) {
+            manager.addDoctor(new Doctor(id, "Dr. " + id, "General", "000-" + id));
+        }
+        for (int id = 0; id < patientCount; id++) {
+            manager.addPatient(new Patient(id, "Patient " + id, 20 + id % 60, "000-" + id, "Street " + id));
+        }
+        for (int id = 0; id < size; id++) {
+            Prescription prescription = new Prescription(id, random.nextInt(DOCTORS), random.nextInt(patientCount),
+                    FIRST_DAY.plusDays(random.nextInt(DAYS)));
+            int lines = 1 + random.nextInt(3);
+            for (int l = 0; l < lines; l++) {
+                Medicine medicine = manager.findMedicine(random.nextInt(medicineCount));
+                prescription.addLine(medicine.getMedicineId(), 1 + random.nextInt(5), medicine.getPriceSen());
+            }
+            manager.addPrescription(prescription);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        manager.close();
+    }
+
+    // Uniformly random IDs below bound, cycled through by the lookup benchmarks
+    static int[] probes(int bound, long seed) {
+        Random random = new Random(seed);
+        int[] ids = new int[4096];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(bound);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,74 @@
+package pharmacy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Deleting a doctor, patient or medicine that prescriptions still refer to; the guard must
+// refuse every time, so the dataset never changes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class DeleteGuardBenchmarks {
+    private int[] doctorIds;
+    private int[] patientIds;
+    private int[] medicineIds;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) {
+        doctorIds = referenced(data, 0);
+        patientIds = referenced(data, 1);
+        medicineIds = referenced(data, 2);
+    }
+
+    // IDs taken from random prescriptions, so each one is referenced
+    private static int[] referenced(Dataset data, int kind) {
+        int[] prescriptionIds = Dataset.probes(data.size, 10 + kind);
+        int[] ids = new int[prescriptionIds.length];
+        for (int i = 0; i < ids.length; i++) {
+            Prescription prescription = data.manager.findPrescription(prescriptionIds[i]);
+            ids[i] = kind == 0 ? prescription.getDoctorId()
+                    : kind == 1 ? prescription.getPatientId() : prescription.getLineMedicineId(0);
+        }
+        return ids;
+    }
+
+    private int nextIndex() {
+        return next++ & 4095;
+    }
+
+    private static boolean refused(boolean deleted) {
+        if (deleted) {
+            throw new IllegalStateException("Delete guard let a referenced entity through");
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean deleteReferencedDoctor(Dataset data) {
+        return refused(data.manager.deleteDoctor(doctorIds[nextIndex()]));
+    }
+
+    @Benchmark
+    public boolean deleteReferencedPatient(Dataset data) {
+        return refused(data.manager.deletePatient(patientIds[nextIndex()]));
+    }
+
+    @Benchmark
+    public boolean deleteReferencedMedicine(Dataset data) {
+        return refused(data.manager.deleteMedicine(medicineIds[nextIndex()]));
+    }
+}
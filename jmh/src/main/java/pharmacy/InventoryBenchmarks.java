@@ -0,0 +1,38 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The query behind checkLowStock (which only adds printing), through the stock-level index and
+// as a full scan of the inventory columns
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class InventoryBenchmarks {
+    @Param({ "10" })
+    public int threshold;
+
+    @Benchmark
+    public ArrayList<Medicine> checkLowStock(Dataset data) {
+        return data.manager.getInventoryManager().findLowStock(threshold);
+    }
+
+    @Benchmark
+    public ArrayList<Medicine> checkLowStockColumnScan(Dataset data) {
+        return data.manager.getInventory().scanAtOrBelow(threshold);
+    }
+}
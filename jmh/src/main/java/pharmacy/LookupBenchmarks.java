@@ -0,0 +1,61 @@
+package pharmacy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The find* lookups with random existing IDs
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class LookupBenchmarks {
+    private int[] medicineIds;
+    private int[] doctorIds;
+    private int[] patientIds;
+    private int[] prescriptionIds;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) {
+        medicineIds = Dataset.probes(data.medicineCount, 1);
+        doctorIds = Dataset.probes(Dataset.DOCTORS, 2);
+        patientIds = Dataset.probes(data.patientCount, 3);
+        prescriptionIds = Dataset.probes(data.size, 4);
+    }
+
+    private int nextIndex() {
+        return next++ & 4095;
+    }
+
+    @Benchmark
+    public Medicine findMedicine(Dataset data) {
+        return data.manager.findMedicine(medicineIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public Doctor findDoctor(Dataset data) {
+        return data.manager.findDoctor(doctorIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public Patient findPatient(Dataset data) {
+        return data.manager.findPatient(patientIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public Prescription findPrescription(Dataset data) {
+        return data.manager.findPrescription(prescriptionIds[nextIndex()]);
+    }
+}
@@ -0,0 +1,58 @@
+package pharmacy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The cost instrumentation adds to one call: a begin/end pair at the sampling periods the manager
+// uses, and a histogram record on its own. Divided by an operation's latency from the other
+// benchmarks, this is the instrumentation overhead of that operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmarks {
+    private final OperationMetrics metrics = new OperationMetrics();
+    private final OperationMetrics.Timer everyCall = metrics.timer(OperationMetrics.Operation.LOW_STOCK);
+    private final OperationMetrics.Timer oneIn64 = metrics.timer(OperationMetrics.Operation.DISPENSE);
+    private final OperationMetrics.Timer oneIn1024 = metrics.timer(OperationMetrics.Operation.FIND_MEDICINE);
+    private final LatencyHistogram histogram = new LatencyHistogram(2);
+    private long value;
+
+    @Benchmark
+    public long timerEveryCall() {
+        long start = everyCall.begin();
+        everyCall.end(start);
+        return start;
+    }
+
+    @Benchmark
+    public long timerOneIn64() {
+        long start = oneIn64.begin();
+        oneIn64.end(start);
+        return start;
+    }
+
+    @Benchmark
+    public long timerOneIn1024() {
+        long start = oneIn1024.begin();
+        oneIn1024.end(start);
+        return start;
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        value = value * 6364136223846793005L + 1442695040888963407L;
+        histogram.record(value >>> 40);
+    }
+}
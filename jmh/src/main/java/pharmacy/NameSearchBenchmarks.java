@@ -0,0 +1,75 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Top-10 name searches over the dataset's "Patient <id>" and "Medicine <id>" names: every name
+// shares its first word, so the numeric word has to drive the scan
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class NameSearchBenchmarks {
+    private String[] exactPatients;
+    private String[] prefixMedicines;
+    private String[] typoMedicines;
+    private String[] firstWordOnly;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) {
+        int[] patientIds = Dataset.probes(data.patientCount, 30);
+        int[] medicineIds = Dataset.probes(data.medicineCount, 31);
+        exactPatients = new String[patientIds.length];
+        prefixMedicines = new String[medicineIds.length];
+        typoMedicines = new String[medicineIds.length];
+        firstWordOnly = new String[medicineIds.length];
+        for (int i = 0; i < patientIds.length; i++) {
+            String medicineId = Integer.toString(medicineIds[i]);
+            exactPatients[i] = "patient " + patientIds[i];
+            prefixMedicines[i] = "medicine " + medicineId.substring(0, Math.min(3, medicineId.length()));
+            typoMedicines[i] = "medicnie " + medicineId;
+            firstWordOnly[i] = i % 2 == 0 ? "pat" : "medecine";
+        }
+    }
+
+    private int nextIndex() {
+        return next++ & 4095;
+    }
+
+    @Benchmark
+    public ArrayList<Patient> exactName(Dataset data) {
+        return data.manager.searchPatientsByName(exactPatients[nextIndex()], 10);
+    }
+
+    @Benchmark
+    public ArrayList<Medicine> prefix(Dataset data) {
+        return data.manager.searchMedicinesByName(prefixMedicines[nextIndex()], 10);
+    }
+
+    @Benchmark
+    public ArrayList<Medicine> typo(Dataset data) {
+        return data.manager.searchMedicinesByName(typoMedicines[nextIndex()], 10);
+    }
+
+    // A word every name matches: the first ten entries answer it
+    @Benchmark
+    public ArrayList<?> commonWord(Dataset data) {
+        int i = nextIndex();
+        return i % 2 == 0 ? data.manager.searchPatientsByName(firstWordOnly[i], 10)
+                : data.manager.searchMedicinesByName(firstWordOnly[i], 10);
+    }
+}
@@ -0,0 +1,101 @@
+package pharmacy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Both ReportGenerator reports, computed from scratch (cache cleared first) and served from the
+// report cache, plus the whole-history sales total as the old double loop and the sen engine, and
+// the category report from the running category totals
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class ReportBenchmarks {
+    private ReportGenerator reports;
+    private int[] days;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) {
+        reports = new ReportGenerator(data.manager);
+        days = Dataset.probes(Dataset.DAYS, 30);
+    }
+
+    private long nextDay() {
+        return Dataset.FIRST_DAY.toEpochDay() + days[next++ & 4095];
+    }
+
+    @Benchmark
+    public ReportGenerator.SalesSummary dailySales(Dataset data) {
+        data.manager.getReportCache().clear();
+        long day = nextDay();
+        return reports.salesBetween(day, day);
+    }
+
+    @Benchmark
+    public ReportGenerator.SalesSummary monthlySales(Dataset data) {
+        data.manager.getReportCache().clear();
+        long day = nextDay();
+        return reports.salesBetween(day, day + 30);
+    }
+
+    // Recent days only, as a dashboard would ask for them; these stay in the cache
+    @Benchmark
+    public ReportGenerator.SalesSummary dailySalesCached() {
+        long day = Dataset.FIRST_DAY.toEpochDay() + Dataset.DAYS - 1 - days[next++ & 4095] % 30;
+        return reports.salesBetween(day, day);
+    }
+
+    @Benchmark
+    public List<ReportGenerator.UsageLine> usageReport(Dataset data) {
+        data.manager.getReportCache().clear();
+        return reports.usageReport();
+    }
+
+    @Benchmark
+    public List<ReportGenerator.UsageLine> usageReportCached() {
+        return reports.usageReport();
+    }
+
+    @Benchmark
+    public List<ReportGenerator.CategoryLine> categoryReport() {
+        return reports.categoryReport();
+    }
+
+    // Same whole-range day filter as the engine applies, so only the arithmetic differs
+    @Benchmark
+    public double salesTotalDoubleLoop(Dataset data) {
+        long fromDay = Long.MIN_VALUE;
+        long toDay = Long.MAX_VALUE;
+        double total = 0;
+        for (Prescription prescription : data.manager.getPrescriptions()) {
+            long epochDay = prescription.getEpochDay();
+            if (epochDay < fromDay || epochDay > toDay) {
+                continue;
+            }
+            for (int line = 0; line < prescription.getLineCount(); line++) {
+                total += prescription.getLinePrice(line) * prescription.getLineQuantity(line);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long salesTotalSen(Dataset data) {
+        return ReportEngine.aggregate(List.of(data.manager.getPrescriptions()), Long.MIN_VALUE, Long.MAX_VALUE,
+                false, ReportEngine.Mode.SEQUENTIAL).getSalesSen();
+    }
+}
@@ -0,0 +1,73 @@
+package pharmacy;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Registering a ready-made prescription and dispensing one (stock reserved, indexes updated).
+// Both grow the dataset, so they run as fixed batches rather than for a fixed time; a score is
+// the time for one batch of BATCH calls.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = WriteBenchmarks.BATCH)
+@Measurement(iterations = 10, batchSize = WriteBenchmarks.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx5g")
+public class WriteBenchmarks {
+    static final int BATCH = 10_000;
+
+    private int[] medicineIds;
+    private int[] secondMedicineIds; // always differs from the first line's medicine
+    private int[] doctorIds;
+    private int[] patientIds;
+    private int nextId;
+    private int next;
+
+    @Setup
+    public void setup(Dataset data) {
+        medicineIds = Dataset.probes(data.medicineCount, 20);
+        secondMedicineIds = new int[medicineIds.length];
+        doctorIds = Dataset.probes(Dataset.DOCTORS, 21);
+        patientIds = Dataset.probes(data.patientCount, 22);
+        nextId = data.size;
+        // Dispensing must never fail for lack of stock
+        for (int i = 0; i < medicineIds.length; i++) {
+            secondMedicineIds[i] = (medicineIds[i] + 1) % data.medicineCount;
+            data.manager.findMedicine(medicineIds[i]).setQuantity(1_000_000_000);
+            data.manager.findMedicine(secondMedicineIds[i]).setQuantity(1_000_000_000);
+        }
+    }
+
+    private LocalDate day(int i) {
+        return Dataset.FIRST_DAY.plusDays(i % Dataset.DAYS);
+    }
+
+    @Benchmark
+    public Prescription addPrescription(Dataset data) {
+        int i = next++ & 4095;
+        Prescription prescription = new Prescription(nextId++, doctorIds[i], patientIds[i], day(i));
+        Medicine first = data.manager.findMedicine(medicineIds[i]);
+        Medicine second = data.manager.findMedicine(secondMedicineIds[i]);
+        prescription.addLine(first.getMedicineId(), 1, first.getPriceSen());
+        prescription.addLine(second.getMedicineId(), 2, second.getPriceSen());
+        data.manager.addPrescription(prescription);
+        return prescription;
+    }
+
+    @Benchmark
+    public Prescription dispensePrescription(Dataset data) {
+        int i = next++ & 4095;
+        return data.manager.dispensePrescription(nextId++, doctorIds[i], patientIds[i], day(i),
+                new int[] { medicineIds[i], secondMedicineIds[i] }, new int[] { 1, 2 });
+    }
+}